@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FavouritesIndex keeps the listing ids of the favourite properties in the
+ * order they were marked. Whether an id is a favourite is a hash lookup, and
+ * its position among the favourites is counted by a Fenwick tree over the
+ * order of marking, in a handful of steps however many favourites there
+ * are. Ids rather than row numbers are kept, so favourites survive reloads
+ * and restarts that renumber the rows.
+ *
+ * An index can be backed by a log file, to which every change is appended
+ * as a line: "+" or "-" followed by the id. Opening the index replays the
+ * log. Once the log holds many more lines than there are favourites, it is
+ * compacted on a background thread: the favourites are written to a new log,
+ * changes made meanwhile are copied after them, and the new log replaces the
+ * old one in a single move. A line cut short by a crash is ignored.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class FavouritesIndex implements AutoCloseable {
+
+    private static final String SUFFIX = ".favourites";
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int COMPACT_MIN_LINES = 1024;
+
+    // ids[sequence] is the id marked sequence-th, or null once it is unmarked
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    private final Map<String, Integer> sequences = new HashMap<>();
+    private int nextSequence;
+    private int size;
+
+    private final Path log;
+    private Writer writer;
+    private int logLines;
+    // the lines appended while a compaction runs, or null when none is running
+    private List<String> appendedDuringCompaction;
+    private final ExecutorService compactor;
+
+    /**
+     * Create an empty index that is not saved anywhere.
+     */
+    public FavouritesIndex() {
+        log = null;
+        compactor = null;
+    }
+
+
+    private FavouritesIndex(Path log) {
+        this.log = log;
+        compactor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "favourites-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Return the path of the favourites log belonging to the given CSV file.
+     */
+    public static Path logPath(Path csvFile) {
+        return csvFile.resolveSibling(csvFile.getFileName() + SUFFIX);
+    }
+
+
+    /**
+     * Open the index saved in the given log, replaying it, or an empty index
+     * if there is no log yet. Later changes are appended to the log.
+     */
+    public static FavouritesIndex open(Path log) throws IOException {
+        FavouritesIndex index = new FavouritesIndex(log);
+        long end = 0;
+        if (Files.isRegularFile(log)) {
+            byte[] bytes = Files.readAllBytes(log);
+            int start = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    index.replay(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                    index.logLines++;
+                    start = i + 1;
+                }
+            }
+            end = start;
+        }
+        // drop a last line cut short, so that the next one starts on a line of its own
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+        }
+        index.writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        index.compactIfNeeded();
+        return index;
+    }
+
+
+    /**
+     * Returns true if the given listing id is a favourite.
+     */
+    public synchronized boolean contains(String id) {
+        return sequences.containsKey(id);
+    }
+
+
+    /**
+     * Return the number of favourites.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the position of the given listing id among the favourites,
+     * counting from 1 in the order they were marked, or 0 if it is not one.
+     */
+    public synchronized int rankOf(String id) {
+        Integer sequence = sequences.get(id);
+        if (sequence == null) {
+            return 0;
+        }
+        int rank = 0;
+        for (int i = sequence + 1; i > 0; i -= i & -i) {
+            rank += tree[i];
+        }
+        return rank;
+    }
+
+
+    /**
+     * Return the listing id of the index-th favourite, counting from 0 in the order they were marked.
+     */
+    public synchronized String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Favourite " + index + " of " + size);
+        }
+        // descend the tree to the sequence whose prefix count first exceeds index
+        int position = 0;
+        int remaining = index;
+        for (int step = Integer.highestOneBit(ids.length); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= ids.length && tree[next] <= remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return ids[position];
+    }
+
+
+    /**
+     * Return the listing ids of every favourite, in the order they were marked.
+     */
+    public synchronized List<String> toList() {
+        List<String> favourites = new ArrayList<>(size);
+        for (int sequence = 0; sequence < nextSequence; sequence++) {
+            if (ids[sequence] != null) {
+                favourites.add(ids[sequence]);
+            }
+        }
+        return favourites;
+    }
+
+
+    /**
+     * Mark the given listing id as the last favourite. Returns false if it already is a favourite.
+     */
+    public synchronized boolean add(String id) {
+        if (!insert(id)) {
+            return false;
+        }
+        append("+" + escape(id));
+        return true;
+    }
+
+
+    /**
+     * Unmark the given listing id. Returns false if it was not a favourite.
+     */
+    public synchronized boolean remove(String id) {
+        if (!delete(id)) {
+            return false;
+        }
+        append("-" + escape(id));
+        return true;
+    }
+
+
+    /**
+     * Wait for a compaction in progress to finish, then close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+
+    private boolean insert(String id) {
+        if (sequences.containsKey(id)) {
+            return false;
+        }
+        if (nextSequence == ids.length) {
+            // renumber in place while at most half the sequences are in use, otherwise grow
+            renumber(size < ids.length / 2 ? ids.length : ids.length * 2);
+        }
+        int sequence = nextSequence++;
+        ids[sequence] = id;
+        sequences.put(id, sequence);
+        for (int i = sequence + 1; i <= ids.length; i += i & -i) {
+            tree[i]++;
+        }
+        size++;
+        return true;
+    }
+
+
+    private boolean delete(String id) {
+        Integer sequence = sequences.remove(id);
+        if (sequence == null) {
+            return false;
+        }
+        ids[sequence] = null;
+        for (int i = sequence + 1; i <= ids.length; i += i & -i) {
+            tree[i]--;
+        }
+        size--;
+        return true;
+    }
+
+
+    /**
+     * Number the favourites 0, 1, 2... again, in the same order, in arrays of
+     * the given capacity, and rebuild the tree over them.
+     */
+    private void renumber(int capacity) {
+        String[] renumbered = new String[capacity];
+        int sequence = 0;
+        for (int i = 0; i < nextSequence; i++) {
+            if (ids[i] != null) {
+                renumbered[sequence] = ids[i];
+                sequences.put(ids[i], sequence);
+                sequence++;
+            }
+        }
+        ids = renumbered;
+        nextSequence = sequence;
+        tree = new int[capacity + 1];
+        for (int i = 1; i <= capacity; i++) {
+            tree[i] += ids[i - 1] != null ? 1 : 0;
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+
+    /**
+     * Apply one line of the log.
+     */
+    private void replay(String line) {
+        if (line.length() < 2) {
+            return;
+        }
+        String id = unescape(line.substring(1));
+        if (line.charAt(0) == '+') {
+            insert(id);
+        } else if (line.charAt(0) == '-') {
+            delete(id);
+        }
+    }
+
+
+    /**
+     * Append a line to the log, if there is one, and compact it if it has grown too long.
+     */
+    private void append(String line) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failure! Could not save the favourites", e);
+        }
+        logLines++;
+        if (appendedDuringCompaction != null) {
+            appendedDuringCompaction.add(line);
+        }
+        compactIfNeeded();
+    }
+
+
+    private void compactIfNeeded() {
+        if (appendedDuringCompaction == null && logLines > COMPACT_MIN_LINES && logLines > 2 * size) {
+            appendedDuringCompaction = new ArrayList<>();
+            List<String> favourites = toList();
+            compactor.execute(() -> compact(favourites));
+        }
+    }
+
+
+    /**
+     * Write the given favourites, then the lines appended since they were
+     * listed, to a new log that replaces the current one.
+     */
+    private void compact(List<String> favourites) {
+        Path temporary = log.resolveSibling(log.getFileName() + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (String id : favourites) {
+                    out.write("+" + escape(id));
+                    out.write('\n');
+                }
+            }
+            synchronized (this) {
+                if (writer == null) {
+                    return;
+                }
+                try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8,
+                        StandardOpenOption.APPEND)) {
+                    for (String line : appendedDuringCompaction) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                }
+                writer.close();
+                try {
+                    moveOver(temporary, log);
+                    logLines = favourites.size() + appendedDuringCompaction.size();
+                } finally {
+                    // the old log, if it could not be replaced, is still whole and takes further changes;
+                    // if even that cannot be opened, changes are kept in memory only
+                    writer = null;
+                    writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failure! Could not compact the favourites: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                appendedDuringCompaction = null;
+            }
+        }
+    }
+
+
+    /**
+     * Replace target with source in one atomic move, or with a plain move
+     * where the file system cannot move atomically.
+     */
+    private static void moveOver(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Escape the backslashes and line breaks in an id, so that it fits on one line.
+     */
+    private static String escape(String id) {
+        if (id.indexOf('\\') < 0 && id.indexOf('\n') < 0 && id.indexOf('\r') < 0) {
+            return id;
+        }
+        return id.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder id = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char escaped = text.charAt(++i);
+                id.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                id.append(c);
+            }
+        }
+        return id.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * FeatureMatrix holds the scaled feature vectors of the rows of a
+ * PropertyStore in one primitive array, so that comparing properties never
+ * boxes a value or allocates a vector. The array is laid out feature by
+ * feature: all the latitudes, then all the longitudes, and so on.
+ *
+ * Distances are computed for a block of rows at a time, one feature at a
+ * time, in simple loops over adjacent elements that the JIT compiler turns
+ * into SIMD instructions. The squared differences are summed in feature
+ * order, so a distance is exactly the one KdTree.distance gives for the same
+ * scaled vectors.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class FeatureMatrix {
+
+    /** The number of rows a caller's distance buffer should hold. */
+    public static final int BLOCK_SIZE = 1024;
+
+    private final int size;
+    private final FeatureScaling scaling;
+    private final double[] columns;
+
+    /**
+     * Scale the features of every row of a store.
+     */
+    public FeatureMatrix(PropertyStore store, FeatureScaling scaling) {
+        this.size = store.size();
+        this.scaling = scaling;
+        columns = new double[size * KdTree.DIMENSIONS];
+        double[] vector = new double[KdTree.DIMENSIONS];
+        for (int row = 0; row < size; row++) {
+            featureVector(store, row, vector, 0);
+            for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                columns[i * size + row] = scaling.scale(i, vector[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Scale, in place, the raw features of size rows laid out feature by
+     * feature, as featureVector gives them, and hold them.
+     */
+    FeatureMatrix(double[] columns, int size, FeatureScaling scaling) {
+        this.size = size;
+        this.scaling = scaling;
+        this.columns = columns;
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            for (int row = 0; row < size; row++) {
+                columns[i * size + row] = scaling.scale(i, columns[i * size + row]);
+            }
+        }
+    }
+
+
+    /**
+     * Copy the unscaled feature vector of a row into target, starting at offset.
+     * The order of the features is the same as Property.getVector().
+     */
+    public static void featureVector(PropertyStore store, int row, double[] target, int offset) {
+        target[offset] = store.getLatitude(row);
+        target[offset + 1] = store.getLongitude(row);
+        target[offset + 2] = store.getPrice(row);
+        target[offset + 3] = store.getMinimumNights(row);
+        target[offset + 4] = store.getAvailability365(row);
+    }
+
+
+    /**
+     * Return the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the scaling the features were scaled with.
+     */
+    public FeatureScaling getScaling() {
+        return scaling;
+    }
+
+
+    /**
+     * Copy the scaled feature vector of a row into target, starting at offset.
+     */
+    public void copyRow(int row, double[] target, int offset) {
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            target[offset + i] = columns[i * size + row];
+        }
+    }
+
+
+    /**
+     * Return the scaled value of one feature of a row.
+     */
+    public double get(int row, int feature) {
+        return columns[feature * size + row];
+    }
+
+
+    /**
+     * Return the distance of a row from a scaled query vector.
+     */
+    public double distance(double[] query, int row) {
+        double sum = 0.0;
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            double difference = query[i] - columns[i * size + row];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /**
+     * Return the distance between two rows.
+     */
+    public double distance(int row, int otherRow) {
+        double sum = 0.0;
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            double difference = columns[i * size + row] - columns[i * size + otherRow];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /**
+     * Write into distances[0, to - from) the distance of each of the rows
+     * [from, to) from a scaled query vector. Nothing is allocated.
+     */
+    public void distances(double[] query, int from, int to, double[] distances) {
+        int n = to - from;
+        double q = query[0];
+        for (int i = 0; i < n; i++) {
+            double difference = columns[from + i] - q;
+            distances[i] = difference * difference;
+        }
+        for (int feature = 1; feature < KdTree.DIMENSIONS; feature++) {
+            q = query[feature];
+            int offset = feature * size + from;
+            for (int i = 0; i < n; i++) {
+                double difference = columns[offset + i] - q;
+                distances[i] += difference * difference;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            distances[i] = Math.sqrt(distances[i]);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/**
+ * FeatureScaling says how the features of a property (latitude, longitude,
+ * price, minimum nights, availability) are weighed against each other when
+ * properties are compared. Each feature is standardised to a z-score, by
+ * subtracting its mean and dividing by its standard deviation over the
+ * portfolio, and then multiplied by a weight. Without this, price, which
+ * varies by hundreds, would outweigh latitude and longitude, which vary by
+ * fractions of a degree.
+ *
+ * A feature that does not vary is left unscaled, as every property has the
+ * same value for it. A weight of zero leaves a feature out of comparisons.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class FeatureScaling {
+
+    /** The names of the features, in the order of Property.getVector(). */
+    public static final String[] FEATURE_NAMES = {"latitude", "longitude", "price", "minimum nights",
+        "availability"};
+
+    private final double[] means;
+    private final double[] deviations;
+    private final double[] weights;
+    private final double[] scales;
+
+    private FeatureScaling(double[] means, double[] deviations, double[] weights) {
+        this.means = means;
+        this.deviations = deviations;
+        this.weights = checkWeights(weights).clone();
+        scales = new double[KdTree.DIMENSIONS];
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            scales[i] = deviations[i] > 0 ? this.weights[i] / deviations[i] : this.weights[i];
+        }
+    }
+
+
+    /**
+     * Return the scaling standardising the features of the given rows, with the given weights.
+     */
+    public static FeatureScaling standardise(PropertyStore store, double[] weights) {
+        Moments moments = new Moments();
+        moments.add(store);
+        return moments.scaling(weights);
+    }
+
+
+    /**
+     * Return this scaling with different weights.
+     */
+    public FeatureScaling withWeights(double[] weights) {
+        return new FeatureScaling(means, deviations, weights);
+    }
+
+
+    /**
+     * Return the weight of each feature. The array is a copy.
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+
+    /**
+     * Return the mean of each feature. The array is a copy.
+     */
+    public double[] getMeans() {
+        return means.clone();
+    }
+
+
+    /**
+     * Return the standard deviation of each feature. The array is a copy.
+     */
+    public double[] getDeviations() {
+        return deviations.clone();
+    }
+
+
+    /**
+     * Return the factor each feature is multiplied by once its mean is
+     * subtracted: its weight divided by its standard deviation. The array is a copy.
+     */
+    public double[] getScales() {
+        return scales.clone();
+    }
+
+
+    /**
+     * Return the scaled value of the given feature.
+     */
+    public double scale(int feature, double value) {
+        return (value - means[feature]) * scales[feature];
+    }
+
+
+    /**
+     * Scale a feature vector laid out like Property.getVector() into target,
+     * which may be the same array.
+     */
+    public void scale(double[] vector, double[] target) {
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            target[i] = scale(i, vector[i]);
+        }
+    }
+
+
+    /**
+     * Return the weights every feature starts with: 1, unless the system
+     * property propertyviewer.weights gives five comma-separated weights.
+     */
+    public static double[] defaultWeights() {
+        String weights = System.getProperty("propertyviewer.weights");
+        if (weights != null) {
+            try {
+                return parseWeights(weights);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Failure! Ignoring propertyviewer.weights: " + e.getMessage());
+            }
+        }
+        double[] ones = new double[KdTree.DIMENSIONS];
+        Arrays.fill(ones, 1.0);
+        return ones;
+    }
+
+
+    /**
+     * Return the weights in a comma-separated list such as "1,1,0.5,0.2,0.2".
+     */
+    public static double[] parseWeights(String text) {
+        String[] parts = text.split(",");
+        if (parts.length != KdTree.DIMENSIONS) {
+            throw new IllegalArgumentException("Expected " + KdTree.DIMENSIONS + " weights but got "
+                + parts.length + ": " + text);
+        }
+        double[] weights = new double[KdTree.DIMENSIONS];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                weights[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a weight: " + parts[i].trim());
+            }
+        }
+        return checkWeights(weights);
+    }
+
+
+    /**
+     * Return the weights, or throw IllegalArgumentException unless there is
+     * one finite, non-negative weight for every feature.
+     */
+    static double[] checkWeights(double[] weights) {
+        if (weights.length != KdTree.DIMENSIONS) {
+            throw new IllegalArgumentException("Expected " + KdTree.DIMENSIONS + " weights but got "
+                + weights.length);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+                throw new IllegalArgumentException("The weight of " + FEATURE_NAMES[i]
+                    + " must be a non-negative number: " + weights[i]);
+            }
+        }
+        return weights;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+            text.append(i == 0 ? "" : ", ").append(FEATURE_NAMES[i])
+                .append(String.format(" (mean %.4g, sd %.4g, weight %.3g)", means[i], deviations[i], weights[i]));
+        }
+        return text.toString();
+    }
+
+
+    /**
+     * The count, mean and sum of squared differences from the mean of each
+     * feature, gathered a store at a time. The moments of two sets of rows
+     * can be merged, so the pages of a lazily loaded portfolio can be
+     * measured one by one.
+     */
+    public static class Moments {
+        private long count;
+        private final double[] means = new double[KdTree.DIMENSIONS];
+        private final double[] squaredDifferences = new double[KdTree.DIMENSIONS];
+
+        /**
+         * Add the features of every row of a store.
+         */
+        public void add(PropertyStore store) {
+            Moments rows = new Moments();
+            rows.count = store.size();
+            if (rows.count == 0) {
+                return;
+            }
+            double[] vector = new double[KdTree.DIMENSIONS];
+            for (int row = 0; row < store.size(); row++) {
+                FeatureMatrix.featureVector(store, row, vector, 0);
+                for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                    rows.means[i] += vector[i];
+                }
+            }
+            for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                rows.means[i] /= rows.count;
+            }
+            // a second pass, rather than summing squares, keeps the variance of latitude accurate
+            for (int row = 0; row < store.size(); row++) {
+                FeatureMatrix.featureVector(store, row, vector, 0);
+                for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                    double difference = vector[i] - rows.means[i];
+                    rows.squaredDifferences[i] += difference * difference;
+                }
+            }
+            merge(rows);
+        }
+
+        /**
+         * Add the rows measured by other.
+         */
+        public void merge(Moments other) {
+            if (other.count == 0) {
+                return;
+            }
+            long total = count + other.count;
+            for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                double difference = other.means[i] - means[i];
+                squaredDifferences[i] += other.squaredDifferences[i]
+                    + difference * difference * count * other.count / total;
+                means[i] += difference * other.count / total;
+            }
+            count = total;
+        }
+
+        /**
+         * Return the scaling standardising the rows measured so far, with the given weights.
+         */
+        public FeatureScaling scaling(double[] weights) {
+            double[] deviations = new double[KdTree.DIMENSIONS];
+            for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                deviations[i] = count == 0 ? 0 : Math.sqrt(squaredDifferences[i] / count);
+            }
+            return new FeatureScaling(means.clone(), deviations, weights);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A Filter is a predicate over the properties of a portfolio. Simple filters
+ * match a neighbourhood, a room type, a host, a range of price, minimum nights
+ * or availability, or keywords in the description, and are answered from
+ * SecondaryIndexes; they compose with and, or and not, which become bitmap
+ * operations.
+ *
+ * Filters can also be written as text, for example
+ * <pre>
+ *     roomType = 'Entire home/apt' and neighbourhood = Camden and price &lt; 100 and availability &gt; 300
+ * </pre>
+ * The fields are neighbourhood, roomType, host, description, price,
+ * minimumNights and availability; host is matched against the host id. Text
+ * fields take = and !=; number fields also take &lt;, &lt;=, &gt; and &gt;=.
+ * Values containing spaces are quoted with single or double quotes.
+ * Parentheses and not are allowed, and and binds tighter than or.
+ * A description matches if it contains every word given, where a word ending
+ * in * matches any word starting with it: description = 'central lond*'.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public abstract class Filter {
+
+    /**
+     * Return the rows matching this filter as a new BitSet.
+     */
+    public abstract BitSet evaluate(SecondaryIndexes indexes);
+
+
+    /**
+     * Return a filter matching rows that match both this filter and the other.
+     */
+    public Filter and(Filter other) {
+        Filter left = this;
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                BitSet rows = left.evaluate(indexes);
+                if (!rows.isEmpty()) {
+                    rows.and(other.evaluate(indexes));
+                }
+                return rows;
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching rows that match this filter, the other, or both.
+     */
+    public Filter or(Filter other) {
+        Filter left = this;
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                BitSet rows = left.evaluate(indexes);
+                rows.or(other.evaluate(indexes));
+                return rows;
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching exactly the rows this filter does not.
+     */
+    public Filter not() {
+        Filter inner = this;
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                BitSet rows = inner.evaluate(indexes);
+                rows.flip(0, indexes.size());
+                return rows;
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching every row.
+     */
+    public static Filter all() {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.all();
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties in the given neighbourhood.
+     */
+    public static Filter neighbourhood(String neighbourhood) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.neighbourhood(neighbourhood);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties with the given room type.
+     */
+    public static Filter roomType(String roomType) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.roomType(roomType);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties listed by the given host.
+     */
+    public static Filter host(String hostID) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.host(hostID);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties whose descriptions contain every
+     * word of a keyword query, as TextIndex reads it.
+     */
+    public static Filter keywords(String query) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.keywords(query);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties priced between min and max,
+     * both included. A missing price, stored as -1, never matches.
+     */
+    public static Filter price(int min, int max) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.price(Math.max(min, 0), max);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties whose minimum stay is between
+     * min and max nights. A missing minimum stay, stored as -1, never matches.
+     */
+    public static Filter minimumNights(int min, int max) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.minimumNights(Math.max(min, 0), max);
+            }
+        };
+    }
+
+
+    /**
+     * Return a filter matching the properties available between min and max
+     * days a year. A missing availability, stored as -1, never matches.
+     */
+    public static Filter availability(int min, int max) {
+        return new Filter() {
+            @Override
+            public BitSet evaluate(SecondaryIndexes indexes) {
+                return indexes.availability(Math.max(min, 0), max);
+            }
+        };
+    }
+
+
+    /**
+     * Parse a filter written as text. Throws IllegalArgumentException, with a
+     * message saying what is wrong, if the text is not a valid filter.
+     */
+    public static Filter parse(String text) {
+        Parser parser = new Parser(text);
+        Filter filter = parser.parseOr();
+        if (parser.hasMore()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "' in filter");
+        }
+        return filter;
+    }
+
+
+    /**
+     * A recursive descent parser for the filter syntax described above.
+     */
+    private static class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(String text) {
+            tokens = tokenize(text);
+        }
+
+        boolean hasMore() {
+            return position < tokens.size();
+        }
+
+        String peek() {
+            return hasMore() ? tokens.get(position) : "";
+        }
+
+        String next() {
+            if (!hasMore()) {
+                throw new IllegalArgumentException("Filter ends too early");
+            }
+            return tokens.get(position++);
+        }
+
+        boolean accept(String keyword) {
+            if (peek().equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        Filter parseOr() {
+            Filter filter = parseAnd();
+            while (accept("or")) {
+                filter = filter.or(parseAnd());
+            }
+            return filter;
+        }
+
+        Filter parseAnd() {
+            Filter filter = parseNot();
+            while (accept("and")) {
+                filter = filter.and(parseNot());
+            }
+            return filter;
+        }
+
+        Filter parseNot() {
+            if (accept("not")) {
+                return parseNot().not();
+            }
+            if (accept("(")) {
+                Filter filter = parseOr();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')' in filter");
+                }
+                return filter;
+            }
+            return parseComparison();
+        }
+
+        Filter parseComparison() {
+            String field = next();
+            String operator = next();
+            String value = unquote(next());
+            switch (field) {
+                case "neighbourhood":
+                    return textComparison(Filter.neighbourhood(value), operator);
+                case "roomType":
+                    return textComparison(Filter.roomType(value), operator);
+                case "host":
+                    return textComparison(Filter.host(value), operator);
+                case "description":
+                    return textComparison(Filter.keywords(value), operator);
+                case "price":
+                case "minimumNights":
+                case "availability":
+                    return numberComparison(field, operator, value);
+                default:
+                    throw new IllegalArgumentException("Unknown field '" + field + "' in filter");
+            }
+        }
+
+        private Filter textComparison(Filter equal, String operator) {
+            switch (operator) {
+                case "=":
+                    return equal;
+                case "!=":
+                    return equal.not();
+                default:
+                    throw new IllegalArgumentException("Operator '" + operator + "' cannot compare text");
+            }
+        }
+
+        private Filter numberComparison(String field, String operator, String text) {
+            int value;
+            try {
+                value = Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + text + "' is not a whole number");
+            }
+            int min = Integer.MIN_VALUE;
+            int max = Integer.MAX_VALUE;
+            switch (operator) {
+                case "=":
+                    min = value;
+                    max = value;
+                    break;
+                case "!=":
+                    // not "=" would match the missing values too
+                    return numberComparison(field, "<", text).or(numberComparison(field, ">", text));
+                case "<":
+                    // min > max matches nothing, which is right for "< MIN_VALUE"
+                    min = value == Integer.MIN_VALUE ? 1 : Integer.MIN_VALUE;
+                    max = value == Integer.MIN_VALUE ? 0 : value - 1;
+                    break;
+                case "<=":
+                    max = value;
+                    break;
+                case ">":
+                    min = value == Integer.MAX_VALUE ? 1 : value + 1;
+                    max = value == Integer.MAX_VALUE ? 0 : Integer.MAX_VALUE;
+                    break;
+                case ">=":
+                    min = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operator '" + operator + "' in filter");
+            }
+            switch (field) {
+                case "price":
+                    return Filter.price(min, max);
+                case "minimumNights":
+                    return Filter.minimumNights(min, max);
+                default:
+                    return Filter.availability(min, max);
+            }
+        }
+
+        private static String unquote(String token) {
+            if (token.length() >= 2 && (token.charAt(0) == '\'' || token.charAt(0) == '"')) {
+                return token.substring(1, token.length() - 1);
+            }
+            return token;
+        }
+
+        /**
+         * Split the text into words, quoted values, parentheses and operators.
+         */
+        private static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated quote in filter");
+                    }
+                    tokens.add(text.substring(i, end + 1));
+                    i = end + 1;
+                } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                    int end = i + 1;
+                    if (end < text.length() && text.charAt(end) == '=') {
+                        end++;
+                    }
+                    tokens.add(text.substring(i, end));
+                    i = end;
+                } else {
+                    int end = i;
+                    while (end < text.length() && !Character.isWhitespace(text.charAt(end))
+                            && "()<>=!'\"".indexOf(text.charAt(end)) < 0) {
+                        end++;
+                    }
+                    tokens.add(text.substring(i, end));
+                    i = end;
+                }
+            }
+            return tokens;
+        }
+    }
+}
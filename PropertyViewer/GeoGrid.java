@@ -0,0 +1,203 @@
+import java.util.Arrays;
+
+/**
+ * GeoGrid is a uniform grid spatial index over the latitude and longitude
+ * of every property. The bounding box of the data is cut into cells holding
+ * a few dozen properties each, and the rows of each cell are kept together
+ * in one array, so a query only looks at the cells it overlaps.
+ *
+ * Rows whose latitude or longitude is missing have no place on the grid and
+ * are left out, so they neither stretch its bounds nor match any query.
+ *
+ * Radius queries use the haversine great-circle distance in metres, and
+ * bounding-box queries answer "everything inside this map viewport".
+ * Queries crossing the 180th meridian are not supported.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class GeoGrid {
+
+    public static final double EARTH_RADIUS_METRES = 6_371_008.8;
+
+    private static final int ROWS_PER_CELL = 32;
+    private static final int MAX_CELLS_PER_AXIS = 2048;
+
+    private final PropertyStore store;
+    private final double minLatitude;
+    private final double minLongitude;
+    private final double cellHeight;
+    private final double cellWidth;
+    private final int rowsOfCells;
+    private final int columnsOfCells;
+    private final int[] cellStarts;
+    private final int[] rowsByCell;
+
+    public GeoGrid(PropertyStore store) {
+        this.store = store;
+        int size = store.size();
+
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        int located = 0;
+        for (int row = 0; row < size; row++) {
+            if (!store.hasLocation(row)) {
+                continue;
+            }
+            minLat = Math.min(minLat, store.getLatitude(row));
+            maxLat = Math.max(maxLat, store.getLatitude(row));
+            minLon = Math.min(minLon, store.getLongitude(row));
+            maxLon = Math.max(maxLon, store.getLongitude(row));
+            located++;
+        }
+        if (located == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+
+        int cellsPerAxis = (int) Math.ceil(Math.sqrt((double) located / ROWS_PER_CELL));
+        cellsPerAxis = Math.max(1, Math.min(cellsPerAxis, MAX_CELLS_PER_AXIS));
+        rowsOfCells = cellsPerAxis;
+        columnsOfCells = cellsPerAxis;
+        minLatitude = minLat;
+        minLongitude = minLon;
+        // a small margin keeps the maximum values inside the last cell
+        cellHeight = Math.max((maxLat - minLat) * (1 + 1e-9), 1e-9) / rowsOfCells;
+        cellWidth = Math.max((maxLon - minLon) * (1 + 1e-9), 1e-9) / columnsOfCells;
+
+        // counting sort of the rows by cell: count, prefix-sum, place
+        int[] cellOfRow = new int[size];
+        cellStarts = new int[rowsOfCells * columnsOfCells + 1];
+        for (int row = 0; row < size; row++) {
+            if (!store.hasLocation(row)) {
+                cellOfRow[row] = -1;
+                continue;
+            }
+            int cell = cellOf(store.getLatitude(row), store.getLongitude(row));
+            cellOfRow[row] = cell;
+            cellStarts[cell + 1]++;
+        }
+        for (int cell = 0; cell < rowsOfCells * columnsOfCells; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        int[] next = new int[rowsOfCells * columnsOfCells];
+        System.arraycopy(cellStarts, 0, next, 0, next.length);
+        rowsByCell = new int[located];
+        for (int row = 0; row < size; row++) {
+            if (cellOfRow[row] >= 0) {
+                rowsByCell[next[cellOfRow[row]]++] = row;
+            }
+        }
+    }
+
+
+    /**
+     * Return the great-circle distance in metres between two points, using the haversine formula.
+     */
+    public static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfLatitude = Math.sin((phi2 - phi1) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfLatitude * sinHalfLatitude
+            + Math.cos(phi1) * Math.cos(phi2) * sinHalfLongitude * sinHalfLongitude;
+        return 2 * EARTH_RADIUS_METRES * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+
+    /**
+     * Collect into result every row within the given number of metres of a point,
+     * skipping excludedRow. Distances in the result are in metres.
+     */
+    public void withinMetres(double latitude, double longitude, double metres, int excludedRow,
+            Neighbours result) {
+        double latitudeSpan = Math.toDegrees(metres / EARTH_RADIUS_METRES);
+        double cosLatitude = Math.cos(Math.toRadians(Math.min(Math.abs(latitude) + latitudeSpan, 90)));
+        double longitudeSpan = cosLatitude < 1e-12 ? 360 : latitudeSpan / cosLatitude;
+
+        int firstRow = clampRow(latitude - latitudeSpan);
+        int lastRow = clampRow(latitude + latitudeSpan);
+        int firstColumn = clampColumn(longitude - longitudeSpan);
+        int lastColumn = clampColumn(longitude + longitudeSpan);
+        for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+            for (int cellColumn = firstColumn; cellColumn <= lastColumn; cellColumn++) {
+                int cell = cellRow * columnsOfCells + cellColumn;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int row = rowsByCell[i];
+                    if (row == excludedRow) {
+                        continue;
+                    }
+                    double distance = haversine(latitude, longitude,
+                        store.getLatitude(row), store.getLongitude(row));
+                    if (distance <= metres) {
+                        result.offer(row, distance);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Return the rows inside a latitude/longitude box, bounds included, in ascending row order.
+     */
+    public int[] inBoundingBox(double south, double west, double north, double east) {
+        if (south > north || west > east) {
+            return new int[0];
+        }
+        int firstRow = clampRow(south);
+        int lastRow = clampRow(north);
+        int firstColumn = clampColumn(west);
+        int lastColumn = clampColumn(east);
+
+        int count = 0;
+        for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+            count += cellStarts[cellRow * columnsOfCells + lastColumn + 1]
+                - cellStarts[cellRow * columnsOfCells + firstColumn];
+        }
+        int[] found = new int[count];
+        int size = 0;
+        for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+            boolean innerRow = cellRow > firstRow && cellRow < lastRow;
+            for (int cellColumn = firstColumn; cellColumn <= lastColumn; cellColumn++) {
+                int cell = cellRow * columnsOfCells + cellColumn;
+                // cells strictly inside the box need no per-row check
+                boolean inner = innerRow && cellColumn > firstColumn && cellColumn < lastColumn;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int row = rowsByCell[i];
+                    if (inner || contains(row, south, west, north, east)) {
+                        found[size++] = row;
+                    }
+                }
+            }
+        }
+        int[] rows = Arrays.copyOf(found, size);
+        Arrays.sort(rows);
+        return rows;
+    }
+
+
+    private boolean contains(int row, double south, double west, double north, double east) {
+        double latitude = store.getLatitude(row);
+        double longitude = store.getLongitude(row);
+        return latitude >= south && latitude <= north && longitude >= west && longitude <= east;
+    }
+
+
+    private int cellOf(double latitude, double longitude) {
+        return clampRow(latitude) * columnsOfCells + clampColumn(longitude);
+    }
+
+
+    private int clampRow(double latitude) {
+        int cellRow = (int) Math.floor((latitude - minLatitude) / cellHeight);
+        return Math.max(0, Math.min(cellRow, rowsOfCells - 1));
+    }
+
+
+    private int clampColumn(double longitude) {
+        int cellColumn = (int) Math.floor((longitude - minLongitude) / cellWidth);
+        return Math.max(0, Math.min(cellColumn, columnsOfCells - 1));
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GroupStatistics summarises one group of properties, such as a neighbourhood
+ * or the listings of one host: how many there are, their price distribution,
+ * how available they are over the year and their mix of room types.
+ *
+ * Prices and availabilities that were missing from the data (stored as -1)
+ * are left out of the price and availability figures but still counted.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class GroupStatistics {
+
+    /** The lowest number of available days in each availability bucket. */
+    public static final int[] AVAILABILITY_BUCKETS = {0, 1, 91, 181, 271};
+
+    private static final String[] BUCKET_LABELS = {"0", "1-90", "91-180", "181-270", "271-365"};
+
+    private final String name;
+    private final int count;
+    private final int[] sortedPrices;
+    private final double meanPrice;
+    private final int[] availabilityHistogram;
+    private final Map<String, Integer> roomTypeMix;
+
+    GroupStatistics(String name, int count, int[] sortedPrices, long priceSum,
+            int[] availabilityHistogram, Map<String, Integer> roomTypeMix) {
+        this.name = name;
+        this.count = count;
+        this.sortedPrices = sortedPrices;
+        this.meanPrice = sortedPrices.length == 0 ? Double.NaN : (double) priceSum / sortedPrices.length;
+        this.availabilityHistogram = availabilityHistogram;
+        this.roomTypeMix = roomTypeMix;
+    }
+
+
+    /**
+     * Return the name of the group, such as the neighbourhood or host id.
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Return the number of properties in the group.
+     */
+    public int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Return the mean price of the group, or NaN if no property has a price.
+     */
+    public double getMeanPrice() {
+        return meanPrice;
+    }
+
+
+    /**
+     * Return the median price of the group, or -1 if no property has a price.
+     */
+    public int getMedianPrice() {
+        return getPricePercentile(50);
+    }
+
+
+    /**
+     * Return the given percentile (0 to 100) of the prices in the group, using
+     * the nearest-rank method, or -1 if no property has a price.
+     */
+    public int getPricePercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        if (sortedPrices.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sortedPrices.length);
+        return sortedPrices[Math.max(rank, 1) - 1];
+    }
+
+
+    /**
+     * Return how many properties fall in each availability bucket; bucket i
+     * starts at AVAILABILITY_BUCKETS[i] days a year.
+     */
+    public int[] getAvailabilityHistogram() {
+        return availabilityHistogram.clone();
+    }
+
+
+    /**
+     * Return a label such as "91-180" for an availability bucket.
+     */
+    public static String getAvailabilityBucketLabel(int bucket) {
+        return BUCKET_LABELS[bucket];
+    }
+
+
+    /**
+     * Return the number of properties of each room type in the group.
+     */
+    public Map<String, Integer> getRoomTypeMix() {
+        return new LinkedHashMap<>(roomTypeMix);
+    }
+
+
+    /**
+     * Return the statistics of the union of several groups holding different
+     * properties, under the given name. The figures are exactly those of
+     * summarising all their properties together, as the prices are kept.
+     */
+    public static GroupStatistics merge(String name, List<GroupStatistics> groups) {
+        int count = 0;
+        int priced = 0;
+        for (GroupStatistics group : groups) {
+            count += group.count;
+            priced += group.sortedPrices.length;
+        }
+        int[] sortedPrices = new int[priced];
+        long priceSum = 0;
+        int[] histogram = new int[AVAILABILITY_BUCKETS.length];
+        Map<String, Integer> roomTypeMix = new LinkedHashMap<>();
+        int position = 0;
+        for (GroupStatistics group : groups) {
+            System.arraycopy(group.sortedPrices, 0, sortedPrices, position, group.sortedPrices.length);
+            position += group.sortedPrices.length;
+            for (int price : group.sortedPrices) {
+                priceSum += price;
+            }
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                histogram[bucket] += group.availabilityHistogram[bucket];
+            }
+            group.roomTypeMix.forEach((roomType, rooms) -> roomTypeMix.merge(roomType, rooms, Integer::sum));
+        }
+        Arrays.sort(sortedPrices);
+        return new GroupStatistics(name, count, sortedPrices, priceSum, histogram, roomTypeMix);
+    }
+
+
+    /**
+     * Return the availability bucket of a number of available days, or -1 if it is missing.
+     */
+    static int availabilityBucket(int availability365) {
+        if (availability365 < 0) {
+            return -1;
+        }
+        int bucket = AVAILABILITY_BUCKETS.length - 1;
+        while (availability365 < AVAILABILITY_BUCKETS[bucket]) {
+            bucket--;
+        }
+        return bucket;
+    }
+}
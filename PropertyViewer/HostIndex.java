@@ -0,0 +1,174 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * HostIndex finds the listings of a host without scanning the portfolio.
+ * Every host id is given a code by a StringDictionary, and the rows are
+ * bucketed by host with a counting sort, so the rows of host h are
+ * rows[starts[h]] to rows[starts[h + 1] - 1], in portfolio order. Looking a
+ * host up is one hash lookup; its listings are a slice of a primitive array.
+ *
+ * The hosts with the most listings are picked with a heap bounded to the
+ * number asked for, rather than by sorting every host.
+ *
+ * It is built once, after the portfolio is loaded.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class HostIndex {
+
+    private final StringDictionary hosts = new StringDictionary();
+    // starts[h] is where the rows of host h begin in rows; the last entry is the number of rows
+    private final int[] starts;
+    private final int[] rows;
+    private final String[] hostIDs;
+
+    public HostIndex(PropertyStore store) {
+        int size = store.size();
+        int[] hostOfRow = new int[size];
+        for (int row = 0; row < size; row++) {
+            hostOfRow[row] = hosts.encode(store.getHostID(row));
+        }
+        int hostCount = hosts.size();
+        starts = new int[hostCount + 1];
+        for (int row = 0; row < size; row++) {
+            starts[hostOfRow[row] + 1]++;
+        }
+        for (int host = 0; host < hostCount; host++) {
+            starts[host + 1] += starts[host];
+        }
+        int[] next = Arrays.copyOf(starts, hostCount);
+        rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[next[hostOfRow[row]]++] = row;
+        }
+        hostIDs = new String[hostCount];
+        for (int host = 0; host < hostCount; host++) {
+            hostIDs[host] = hosts.decode(host);
+        }
+    }
+
+
+    /**
+     * Return the number of distinct hosts.
+     */
+    public int getHostCount() {
+        return hostIDs.length;
+    }
+
+
+    /**
+     * Return the id of the host with the given code. Hosts are numbered from
+     * 0 in the order of their first listing.
+     */
+    String getHostID(int host) {
+        return hostIDs[host];
+    }
+
+
+    /**
+     * Return the rows of every host, bucketed by host code. The array is
+     * shared and must not be modified.
+     */
+    int[] getRows() {
+        return rows;
+    }
+
+
+    /**
+     * Return where the rows of each host code begin in getRows(), followed by
+     * the number of rows. The array is shared and must not be modified.
+     */
+    int[] getStarts() {
+        return starts;
+    }
+
+
+    /**
+     * Return the number of listings of the given host, 0 if it has none.
+     */
+    public int countOf(String hostID) {
+        int host = hosts.codeOf(hostID);
+        return host == StringDictionary.MISSING ? 0 : starts[host + 1] - starts[host];
+    }
+
+
+    /**
+     * Return the rows listed by the given host, in increasing order, as a new array.
+     */
+    public int[] rowsOf(String hostID) {
+        int host = hosts.codeOf(hostID);
+        if (host == StringDictionary.MISSING) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(rows, starts[host], starts[host + 1]);
+    }
+
+
+    /**
+     * Return the rows listed by the given host as a new BitSet.
+     */
+    public BitSet select(String hostID) {
+        BitSet selected = new BitSet();
+        int host = hosts.codeOf(hostID);
+        if (host != StringDictionary.MISSING) {
+            for (int i = starts[host]; i < starts[host + 1]; i++) {
+                selected.set(rows[i]);
+            }
+        }
+        return selected;
+    }
+
+
+    /**
+     * Return the at most limit hosts with the most listings, most first, and
+     * among hosts with as many listings, the one whose first listing comes first.
+     */
+    public TopHosts topHosts(int limit) {
+        Neighbours most = new Neighbours(limit);
+        for (int host = 0; host < hostIDs.length; host++) {
+            most.offer(host, -(starts[host + 1] - starts[host]));
+        }
+        return new TopHosts(most, hostIDs);
+    }
+
+
+    /**
+     * The result of a top hosts query: host ids with their numbers of listings, most first.
+     */
+    public static class TopHosts {
+        private final Neighbours most;
+        private final String[] hostIDs;
+
+        /**
+         * Wrap hosts collected in a Neighbours as their index into hostIDs,
+         * at a distance of minus their number of listings.
+         */
+        TopHosts(Neighbours most, String[] hostIDs) {
+            this.most = most;
+            this.hostIDs = hostIDs;
+        }
+
+        /**
+         * Return the number of hosts returned.
+         */
+        public int size() {
+            return most.size();
+        }
+
+        /**
+         * Return the id of the i-th host.
+         */
+        public String getHostID(int i) {
+            return hostIDs[most.getPropertyNumber(i)];
+        }
+
+        /**
+         * Return the number of listings of the i-th host.
+         */
+        public int getCount(int i) {
+            return (int) -most.getDistance(i);
+        }
+    }
+}
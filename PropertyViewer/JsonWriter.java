@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * JsonWriter writes JSON to a Writer as it goes, so a large document is never
+ * held in memory. Commas are put in for the caller; it is up to the caller
+ * to open and close objects and arrays in a matching order, and to give every
+ * value inside an object a name.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class JsonWriter {
+
+    private final Writer out;
+    private boolean[] hasValues = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+
+    /**
+     * Open an object.
+     */
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        open();
+        return this;
+    }
+
+
+    /**
+     * Close the innermost object.
+     */
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        out.write('}');
+        return this;
+    }
+
+
+    /**
+     * Open an array.
+     */
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        open();
+        return this;
+    }
+
+
+    /**
+     * Close the innermost array.
+     */
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        out.write(']');
+        return this;
+    }
+
+
+    /**
+     * Write the name of the next value of an object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+
+    /**
+     * Write a string, or null.
+     */
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+
+    /**
+     * Write a whole number.
+     */
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+
+    /**
+     * Write a number; NaN and infinities, which JSON cannot hold, are written as null.
+     */
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+
+    /**
+     * Write true or false.
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+
+    /**
+     * Flush the underlying Writer.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+
+    private void open() {
+        if (depth == hasValues.length) {
+            hasValues = Arrays.copyOf(hasValues, depth * 2);
+        }
+        hasValues[depth++] = false;
+    }
+
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+
+
+    /**
+     * Write a comma unless this is the first value of the innermost object or array.
+     */
+    private void separate() throws IOException {
+        if (depth > 0) {
+            if (hasValues[depth - 1]) {
+                out.write(',');
+            }
+            hasValues[depth - 1] = true;
+        }
+    }
+
+
+    private void writeString(String text) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                out.write(text, start, i - start);
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else {
+                    out.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        out.write(text, start, text.length() - start);
+        out.write('"');
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * KdTree indexes the rows of a PropertyStore by their feature vector
+ * (latitude, longitude, price, minimum nights, availability), as scaled in
+ * a FeatureMatrix, so that the nearest property can be found in logarithmic
+ * time instead of by scanning the whole portfolio. Queries must be scaled
+ * the same way.
+ *
+ * The tree is implicit: rows are reordered so that the middle of every range
+ * is the node splitting it, and the coordinates are copied into one flat
+ * array in that order. Each node splits on the dimension with the widest
+ * spread in its range.
+ *
+ * Distances and tie-breaking match a linear scan in row order exactly: the
+ * nearest row with the smallest distance wins, and among equal distances the
+ * lowest row number wins.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class KdTree {
+
+    public static final int DIMENSIONS = 5;
+
+    private final int size;
+    private final int[] rows;
+    private final double[] coordinates;
+    private final byte[] splitDimensions;
+
+    public KdTree(FeatureMatrix features) {
+        size = features.size();
+        rows = new int[size];
+        double[] points = new double[size * DIMENSIONS];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+            features.copyRow(row, points, row * DIMENSIONS);
+        }
+        splitDimensions = new byte[size];
+        build(points, 0, size);
+
+        coordinates = new double[size * DIMENSIONS];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(points, rows[i] * DIMENSIONS, coordinates, i * DIMENSIONS, DIMENSIONS);
+        }
+    }
+
+
+    /**
+     * Return the number of rows in this tree.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the row nearest to the given feature vector, skipping excludedRow,
+     * or -1 if there is no other row. Pass -1 to exclude nothing.
+     */
+    public int nearest(double[] query, int excludedRow) {
+        Neighbours best = new Neighbours(1);
+        search(query, excludedRow, Double.POSITIVE_INFINITY, 0, size, best);
+        return best.size() == 0 ? -1 : best.getPropertyNumber(0);
+    }
+
+
+    /**
+     * Collect into result the rows nearest to the given feature vector that are no
+     * further than maxDistance, skipping excludedRow. The number of rows returned
+     * is bounded by the limit of result.
+     */
+    public void search(double[] query, int excludedRow, double maxDistance, Neighbours result) {
+        search(query, excludedRow, maxDistance, 0, size, result);
+    }
+
+
+    /**
+     * Visit the node in the middle of [from, to) and the subtrees either side of it,
+     * skipping a subtree when its splitting plane is further away than the worst match kept.
+     */
+    private void search(double[] query, int excludedRow, double maxDistance, int from, int to,
+            Neighbours result) {
+        if (from >= to) {
+            return;
+        }
+        int node = (from + to) >>> 1;
+        int row = rows[node];
+        if (row != excludedRow) {
+            double distance = distance(query, coordinates, node * DIMENSIONS);
+            if (distance <= maxDistance) {
+                result.offer(row, distance);
+            }
+        }
+
+        int dimension = splitDimensions[node];
+        double difference = query[dimension] - coordinates[node * DIMENSIONS + dimension];
+        boolean goLeft = difference < 0;
+        search(query, excludedRow, maxDistance, goLeft ? from : node + 1, goLeft ? node : to, result);
+        // <= rather than < so that an equally distant row with a lower number is still found
+        double planeDistance = Math.sqrt(difference * difference);
+        if (planeDistance <= maxDistance && planeDistance <= result.threshold()) {
+            search(query, excludedRow, maxDistance, goLeft ? node + 1 : from, goLeft ? to : node, result);
+        }
+    }
+
+
+    /**
+     * Return the Euclidean distance between query and the point stored at offset.
+     */
+    static double distance(double[] query, double[] points, int offset) {
+        double sum = 0.0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            double difference = query[i] - points[offset + i];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /**
+     * Arrange rows[from, to) so that the middle row splits the range on its widest dimension.
+     */
+    private void build(double[] points, int from, int to) {
+        if (to - from <= 1) {
+            return;
+        }
+        int dimension = widestDimension(points, from, to);
+        int middle = (from + to) >>> 1;
+        select(points, dimension, from, to - 1, middle);
+        splitDimensions[middle] = (byte) dimension;
+        build(points, from, middle);
+        build(points, middle + 1, to);
+    }
+
+
+    private int widestDimension(double[] points, int from, int to) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int dimension = 0; dimension < DIMENSIONS; dimension++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = points[rows[i] * DIMENSIONS + dimension];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = dimension;
+            }
+        }
+        return widest;
+    }
+
+
+    /**
+     * Quickselect: reorder rows[left, right] so that rows[k] holds the row that would be
+     * there if the range were sorted on the given dimension.
+     */
+    private void select(double[] points, int dimension, int left, int right, int k) {
+        while (left < right) {
+            double pivot = points[rows[(left + right) >>> 1] * DIMENSIONS + dimension];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (points[rows[i] * DIMENSIONS + dimension] < pivot) {
+                    i++;
+                }
+                while (points[rows[j] * DIMENSIONS + dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
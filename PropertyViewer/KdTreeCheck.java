@@ -0,0 +1,134 @@
+import java.util.Random;
+
+/**
+ * Checks the KdTree against a brute-force NeighbourScan on random data. Rows
+ * are spread at random, and some are put on a coarse grid so that many lie
+ * at exactly the same distance from a query, which tests how ties are broken.
+ * Each query asks for a random number of neighbours, within a random distance
+ * or none, about a row or about a random point. It must get the same rows at
+ * the same distances, in the same order, from both.
+ * Run main with
+ * <pre>
+ *     [rows] [queries] [seed]
+ * </pre>
+ * The exit status is 0 if every query agreed and 1 otherwise.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class KdTreeCheck {
+
+    private static final String[] NEIGHBOURHOODS = {"Camden", "Hackney", "Haringey", "Merton", "Newham"};
+    private static final String[] ROOM_TYPES = {"Entire home/apt", "Private room", "Shared room"};
+    private static final int MAX_K = 50;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int failures = check(rows, queries, new Random(seed));
+        if (failures > 0) {
+            System.out.println("Failure! " + failures + " of " + queries + " queries differ from the scan");
+            System.exit(1);
+        }
+        System.out.println("KdTree agrees with the scan on " + queries + " queries over " + rows + " rows");
+    }
+
+
+    /**
+     * Run the given number of random queries against a tree over random rows
+     * and return how many of them differ from the scan.
+     */
+    private static int check(int rows, int queries, Random random) {
+        PropertyStore store = fillStore(rows, random);
+        FeatureMatrix features = new FeatureMatrix(store, FeatureScaling.standardise(store,
+            FeatureScaling.defaultWeights()));
+        KdTree tree = new KdTree(features);
+
+        int failures = 0;
+        double[] vector = new double[KdTree.DIMENSIONS];
+        double[] query = new double[KdTree.DIMENSIONS];
+        for (int i = 0; i < queries; i++) {
+            int k = 1 + random.nextInt(MAX_K);
+            double maxDistance = random.nextBoolean() ? Double.POSITIVE_INFINITY : random.nextDouble();
+            int excludedRow = -1;
+            if (random.nextBoolean()) {
+                excludedRow = random.nextInt(rows);
+                features.copyRow(excludedRow, query, 0);
+            } else {
+                randomRow(random, vector);
+                features.getScaling().scale(vector, query);
+            }
+
+            Neighbours expected = new Neighbours(k);
+            NeighbourScan.search(features, 0, query, excludedRow, maxDistance, k, expected);
+            Neighbours actual = new Neighbours(k);
+            tree.search(query, excludedRow, maxDistance, actual);
+            if (!same(expected, actual)) {
+                failures++;
+                if (failures <= 5) {
+                    System.out.println("Query " + i + " (k = " + k + ", within " + maxDistance + ", excluding "
+                        + excludedRow + "): scan found " + describe(expected) + ", tree found " + describe(actual));
+                }
+            }
+        }
+        return failures;
+    }
+
+
+    private static boolean same(Neighbours expected, Neighbours actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.getPropertyNumber(i) != actual.getPropertyNumber(i)
+                    || expected.getDistance(i) != actual.getDistance(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static String describe(Neighbours neighbours) {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < neighbours.size(); i++) {
+            text.append(i == 0 ? "" : ", ").append(neighbours.getPropertyNumber(i)).append(" at ")
+                .append(neighbours.getDistance(i));
+        }
+        return text.append(']').toString();
+    }
+
+
+    private static PropertyStore fillStore(int rows, Random random) {
+        PropertyStore store = new PropertyStore(rows);
+        double[] vector = new double[KdTree.DIMENSIONS];
+        for (int row = 0; row < rows; row++) {
+            randomRow(random, vector);
+            store.add(Integer.toString(row), "Listing " + row, Integer.toString(random.nextInt(rows)),
+                "Host", NEIGHBOURHOODS[random.nextInt(NEIGHBOURHOODS.length)], vector[0], vector[1],
+                ROOM_TYPES[random.nextInt(ROOM_TYPES.length)], (int) vector[2], (int) vector[3], (int) vector[4]);
+        }
+        return store;
+    }
+
+
+    /**
+     * Fill vector with the features of a random listing, a quarter of them on a coarse grid.
+     */
+    private static void randomRow(Random random, double[] vector) {
+        if (random.nextInt(4) == 0) {
+            vector[0] = 51.3 + random.nextInt(5) * 0.1;
+            vector[1] = -0.5 + random.nextInt(8) * 0.1;
+            vector[2] = 50 * (1 + random.nextInt(4));
+            vector[3] = 1 + random.nextInt(3);
+            vector[4] = 100 * random.nextInt(4);
+        } else {
+            vector[0] = 51.3 + random.nextDouble() * 0.4;
+            vector[1] = -0.5 + random.nextDouble() * 0.7;
+            vector[2] = 20 + random.nextInt(300);
+            vector[3] = 1 + random.nextInt(14);
+            vector[4] = random.nextInt(366);
+        }
+    }
+}
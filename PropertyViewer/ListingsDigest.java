@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ListingsDigest records, for every well-formed record of a listings file,
+ * its listing id, where it lies in the file and a 64-bit hash of its bytes.
+ * Only the id field is decoded, so taking a digest is much cheaper than
+ * parsing the file. Comparing the hashes of two digests by id tells which
+ * listings were inserted, updated or deleted between two versions of a file.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class ListingsDigest {
+
+    private static final int RECORDS_PER_TASK = 16 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int size;
+    private final String[] ids;
+    private final long[] hashes;
+    private final long[] starts;
+    private final long[] ends;
+
+    private ListingsDigest(int size, String[] ids, long[] hashes, long[] starts, long[] ends) {
+        this.size = size;
+        this.ids = ids;
+        this.hashes = hashes;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+
+    /**
+     * Take a digest of the given listings file. The first row holds the column headers and is skipped.
+     */
+    public static ListingsDigest of(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[][] offsets = {new long[1024], new long[1024]};
+            int[] count = {0};
+            ParallelCsvLoader.scanRecords(channel, (start, end, fields, terminated) -> {
+                if (!ParallelCsvLoader.isWellFormed(fields, terminated)) {
+                    return;
+                }
+                int i = count[0]++;
+                if (i == offsets[0].length) {
+                    offsets[0] = Arrays.copyOf(offsets[0], i * 2);
+                    offsets[1] = Arrays.copyOf(offsets[1], i * 2);
+                }
+                offsets[0][i] = start;
+                offsets[1][i] = end;
+            });
+            int size = count[0];
+            ListingsDigest digest = new ListingsDigest(size, new String[size], new long[size],
+                Arrays.copyOf(offsets[0], size), Arrays.copyOf(offsets[1], size));
+            if (size > 0) {
+                ForkJoinPool.commonPool().invoke(digest.new DigestTask(channel, 0, size));
+            }
+            return digest;
+        }
+    }
+
+
+    /**
+     * Return the number of well-formed records in the file.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the listing id of the i-th record.
+     */
+    public String getID(int i) {
+        return ids[i];
+    }
+
+
+    /**
+     * Return the hash of the bytes of the i-th record.
+     */
+    public long getHash(int i) {
+        return hashes[i];
+    }
+
+
+    /**
+     * Return the offset in the file at which the i-th record starts.
+     */
+    public long getStart(int i) {
+        return starts[i];
+    }
+
+
+    /**
+     * Return the offset in the file just after the i-th record, not counting its line break.
+     */
+    public long getEnd(int i) {
+        return ends[i];
+    }
+
+
+    /**
+     * Return the 64-bit FNV-1a hash of bytes[from, to), the hash of a record
+     * whose bytes lie there.
+     */
+    static long hash(ByteBuffer bytes, int from, int to) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int position = from; position < to; position++) {
+            hash = (hash ^ (bytes.get(position) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+
+    /**
+     * Reads the ids and hashes of a range of records, splitting it while it
+     * holds more than RECORDS_PER_TASK records.
+     */
+    private class DigestTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final int from;
+        private final int to;
+        private byte[] field = new byte[64];
+
+        DigestTask(FileChannel channel, int from, int to) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > RECORDS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DigestTask(channel, from, middle), new DigestTask(channel, middle, to));
+                return;
+            }
+            try {
+                long base = starts[from];
+                MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, base, ends[to - 1] - base);
+                for (int i = from; i < to; i++) {
+                    int start = (int) (starts[i] - base);
+                    int end = (int) (ends[i] - base);
+                    hashes[i] = hash(records, start, end);
+                    ids[i] = readFirstField(records, start, end);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failure! Could not read records " + from + " to " + to
+                    + " of the property file", e);
+            }
+        }
+
+        /**
+         * Return the first field of the record in records[start, end), following
+         * the quoting rules of ParallelCsvLoader.
+         */
+        private String readFirstField(MappedByteBuffer records, int start, int end) {
+            int length = 0;
+            boolean inQuotes = false;
+            for (int position = start; position < end; position++) {
+                byte c = records.get(position);
+                if (inQuotes) {
+                    if (c == '"') {
+                        if (position + 1 < end && records.get(position + 1) == '"') {
+                            position++;
+                        } else {
+                            inQuotes = false;
+                            continue;
+                        }
+                    } else if (c == '\\' && position + 1 < end
+                            && (records.get(position + 1) == '"' || records.get(position + 1) == '\\')) {
+                        c = records.get(++position);
+                    }
+                } else if (c == ',') {
+                    break;
+                } else if (c == '"' && length == 0) {
+                    inQuotes = true;
+                    continue;
+                }
+                if (length == field.length) {
+                    field = Arrays.copyOf(field, length * 2);
+                }
+                field[length++] = c;
+            }
+            return new String(field, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LshIndex finds approximate nearest neighbours by locality-sensitive
+ * hashing, for portfolios so large that a KdTree takes too long to build or
+ * too much memory to hold. Each of several tables hashes every row by
+ * projecting its scaled feature vector onto a few random directions and
+ * cutting each projection into buckets of a fixed width; rows that are close
+ * together usually land in the same bucket of at least one table. A query
+ * looks in its own bucket of every table, and in the neighbouring buckets it
+ * is nearest to, and compares itself only with the rows it finds there.
+ *
+ * A table is the row numbers sorted by their hash, and the hashes in the
+ * same order, 8 bytes per row; a bucket is found by binary search over the
+ * hashes. No coordinates are stored besides the FeatureMatrix. Tables are
+ * hashed in parallel on a fork-join pool and sorted with a parallel sort.
+ *
+ * The Settings trade recall against speed: more tables and probes find more
+ * of the true neighbours but compare more rows; more projections per table
+ * or narrower buckets make buckets smaller, so queries are faster but miss
+ * more. Neighbours found are exact distances, ranked as the exact queries
+ * rank them, but some true neighbours may be missing.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class LshIndex {
+
+    private static final long SEED = 42;
+    private static final int ROWS_PER_TASK = 16 * 1024;
+    // the bucket width is measured in distances to this many neighbours of this many sample rows
+    private static final int SAMPLE_NEIGHBOURS = 10;
+    private static final int SAMPLE_ROWS = 16;
+
+    private final FeatureMatrix features;
+    private final Settings settings;
+    // [table * projections + j]: a random direction divided by the bucket width, and a random offset in [0, 1)
+    private final double[][] directions;
+    private final double[] offsets;
+    // [table]: every row, sorted by its hash in that table, and the hash of each
+    private final int[][] tables;
+    private final int[][] tableKeys;
+
+    /**
+     * Hash every row of the matrix into the tables the settings ask for.
+     */
+    public LshIndex(FeatureMatrix features, Settings settings) {
+        this.features = features;
+        this.settings = settings;
+        int projections = settings.tables * settings.projections;
+        directions = new double[projections][KdTree.DIMENSIONS];
+        offsets = new double[projections];
+        Random random = new Random(SEED);
+        double bucketWidth = settings.bucketWidth * typicalNeighbourDistance(features, random);
+        for (int i = 0; i < projections; i++) {
+            for (int d = 0; d < KdTree.DIMENSIONS; d++) {
+                directions[i][d] = random.nextGaussian() / bucketWidth;
+            }
+            offsets[i] = random.nextDouble();
+        }
+
+        int size = features.size();
+        tables = new int[settings.tables][];
+        tableKeys = new int[settings.tables][];
+        long[] keys = new long[size];
+        for (int table = 0; table < settings.tables; table++) {
+            ForkJoinPool.commonPool().invoke(new HashTask(table, keys, 0, size));
+            Arrays.parallelSort(keys);
+            int[] rows = new int[size];
+            int[] rowKeys = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = (int) keys[i];
+                rowKeys[i] = (int) (keys[i] >> 32);
+            }
+            tables[table] = rows;
+            tableKeys[table] = rowKeys;
+        }
+    }
+
+
+    /**
+     * Return the median distance of a few random rows from their
+     * SAMPLE_NEIGHBOURS-th nearest neighbour, found by scanning, or 1 if that
+     * is 0. Bucket widths are measured in this distance, so that the same
+     * settings suit sparse and dense portfolios alike.
+     */
+    private static double typicalNeighbourDistance(FeatureMatrix features, Random random) {
+        int size = features.size();
+        if (size <= SAMPLE_NEIGHBOURS) {
+            return 1;
+        }
+        double[] distances = new double[SAMPLE_ROWS];
+        double[] query = new double[KdTree.DIMENSIONS];
+        for (int i = 0; i < SAMPLE_ROWS; i++) {
+            int row = random.nextInt(size);
+            features.copyRow(row, query, 0);
+            Neighbours nearest = new Neighbours(SAMPLE_NEIGHBOURS);
+            NeighbourScan.search(features, 0, query, row, Double.POSITIVE_INFINITY, SAMPLE_NEIGHBOURS, nearest);
+            distances[i] = nearest.getDistance(nearest.size() - 1);
+        }
+        Arrays.sort(distances);
+        double median = distances[SAMPLE_ROWS / 2];
+        return median > 0 ? median : 1;
+    }
+
+
+    /**
+     * Return the settings the index was built with.
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+
+    /**
+     * Collect into result the rows nearest to the given scaled feature vector
+     * that are no further than maxDistance, skipping excludedRow, among the
+     * rows sharing a probed bucket with it. The number of rows returned is
+     * bounded by the limit of result.
+     */
+    public void search(double[] query, int excludedRow, double maxDistance, Neighbours result) {
+        int projections = settings.projections;
+        int[] buckets = new int[projections];
+        double[] positions = new double[projections];
+        int[] probeOrder = new int[2 * projections];
+        Candidates candidates = new Candidates();
+        for (int table = 0; table < tables.length; table++) {
+            for (int j = 0; j < projections; j++) {
+                double value = project(table * projections + j, query);
+                buckets[j] = (int) Math.floor(value);
+                positions[j] = value - buckets[j];
+            }
+            collect(table, key(buckets), candidates);
+            if (settings.probes > 0) {
+                orderProbes(positions, probeOrder);
+                for (int probe = 0; probe < Math.min(settings.probes, probeOrder.length); probe++) {
+                    // even entries step a projection down to the bucket below, odd ones up
+                    int j = probeOrder[probe] >> 1;
+                    int step = (probeOrder[probe] & 1) == 0 ? -1 : 1;
+                    buckets[j] += step;
+                    collect(table, key(buckets), candidates);
+                    buckets[j] -= step;
+                }
+            }
+        }
+
+        // a row is found once in every table it shares a bucket with the query in
+        int[] rows = candidates.rows;
+        Arrays.sort(rows, 0, candidates.count);
+        for (int i = 0; i < candidates.count; i++) {
+            int row = rows[i];
+            if (row == excludedRow || (i > 0 && row == rows[i - 1])) {
+                continue;
+            }
+            double distance = features.distance(query, row);
+            if (distance <= maxDistance) {
+                result.offer(row, distance);
+            }
+        }
+    }
+
+
+    /**
+     * Add to candidates every row of the table with the given hash.
+     */
+    private void collect(int table, int key, Candidates candidates) {
+        int[] rows = tables[table];
+        int[] keys = tableKeys[table];
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < keys.length && keys[i] == key; i++) {
+            candidates.add(rows[i]);
+        }
+    }
+
+
+    /**
+     * Sort the 2 * projections neighbouring buckets by how near the query is
+     * to them: entry 2j is the bucket below on projection j, 2j + 1 the one above.
+     */
+    private static void orderProbes(double[] positions, int[] probeOrder) {
+        for (int i = 0; i < probeOrder.length; i++) {
+            probeOrder[i] = i;
+        }
+        // insertion sort; there are only a handful of entries
+        for (int i = 1; i < probeOrder.length; i++) {
+            int probe = probeOrder[i];
+            double distance = boundaryDistance(positions, probe);
+            int j = i - 1;
+            while (j >= 0 && boundaryDistance(positions, probeOrder[j]) > distance) {
+                probeOrder[j + 1] = probeOrder[j];
+                j--;
+            }
+            probeOrder[j + 1] = probe;
+        }
+    }
+
+
+    private static double boundaryDistance(double[] positions, int probe) {
+        double position = positions[probe >> 1];
+        return (probe & 1) == 0 ? position : 1 - position;
+    }
+
+
+    private double project(int projection, double[] vector) {
+        double[] direction = directions[projection];
+        double value = offsets[projection];
+        for (int d = 0; d < KdTree.DIMENSIONS; d++) {
+            value += direction[d] * vector[d];
+        }
+        return value;
+    }
+
+
+    /**
+     * Return the hash of a row in the given table.
+     */
+    private int rowKey(int table, int row) {
+        int key = 0;
+        for (int j = 0; j < settings.projections; j++) {
+            double[] direction = directions[table * settings.projections + j];
+            double value = offsets[table * settings.projections + j];
+            for (int d = 0; d < KdTree.DIMENSIONS; d++) {
+                value += direction[d] * features.get(row, d);
+            }
+            key = mix(key, (int) Math.floor(value));
+        }
+        return key;
+    }
+
+
+    private static int key(int[] buckets) {
+        int key = 0;
+        for (int bucket : buckets) {
+            key = mix(key, bucket);
+        }
+        return key;
+    }
+
+
+    private static int mix(int key, int bucket) {
+        return Integer.rotateLeft(key ^ bucket * 0xcc9e2d51, 13) * 5 + 0xe6546b64;
+    }
+
+
+    /**
+     * The rows found in the buckets probed by a query, repeats included.
+     */
+    private static class Candidates {
+        int[] rows = new int[64];
+        int count;
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+    }
+
+
+    /**
+     * Hashes a range of rows into one table, packing each hash with its row
+     * so that sorting the packed values sorts the rows by hash.
+     */
+    private class HashTask extends RecursiveAction {
+        private final int table;
+        private final long[] keys;
+        private final int from;
+        private final int to;
+
+        HashTask(int table, long[] keys, int from, int to) {
+            this.table = table;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HashTask(table, keys, from, middle), new HashTask(table, keys, middle, to));
+                return;
+            }
+            for (int row = from; row < to; row++) {
+                keys[row] = (long) rowKey(table, row) << 32 | row;
+            }
+        }
+    }
+
+
+    /**
+     * How an LshIndex is built and searched: the number of tables, the
+     * number of projections hashed together in each, the width of a bucket
+     * as a multiple of the typical distance from a row to its tenth nearest
+     * neighbour, and the number of neighbouring buckets probed in each table
+     * besides the query's own.
+     */
+    public static class Settings {
+        public static final Settings DEFAULT = new Settings(6, 5, 2.0, 8);
+
+        private final int tables;
+        private final int projections;
+        private final double bucketWidth;
+        private final int probes;
+
+        public Settings(int tables, int projections, double bucketWidth, int probes) {
+            if (tables < 1 || projections < 1 || !(bucketWidth > 0) || Double.isInfinite(bucketWidth)
+                    || probes < 0) {
+                throw new IllegalArgumentException("Tables and projections must be at least 1, the bucket "
+                    + "width positive and probes not negative: " + tables + ", " + projections + ", "
+                    + bucketWidth + ", " + probes);
+            }
+            this.tables = tables;
+            this.projections = projections;
+            this.bucketWidth = bucketWidth;
+            this.probes = probes;
+        }
+
+        /**
+         * Return the settings in a comma-separated list of tables, projections,
+         * bucket width and probes, such as "6,5,2.0,8".
+         */
+        public static Settings parse(String text) {
+            String[] parts = text.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Expected tables,projections,width,probes but got " + text);
+            }
+            try {
+                return new Settings(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Double.parseDouble(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number in " + text);
+            }
+        }
+
+        /**
+         * Return the settings given by the system property
+         * propertyviewer.approximate, DEFAULT if it is "true", or null if it is not set.
+         */
+        public static Settings configured() {
+            String text = System.getProperty("propertyviewer.approximate");
+            if (text == null || text.equals("false")) {
+                return null;
+            }
+            if (text.isEmpty() || text.equals("true")) {
+                return DEFAULT;
+            }
+            try {
+                return parse(text);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Failure! Using the default approximate index settings: " + e.getMessage());
+                return DEFAULT;
+            }
+        }
+
+        public int getTables() {
+            return tables;
+        }
+
+        public int getProjections() {
+            return projections;
+        }
+
+        public double getBucketWidth() {
+            return bucketWidth;
+        }
+
+        public int getProbes() {
+            return probes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%dx%d w=%.2f probes=%d", tables, projections, bucketWidth, probes);
+        }
+    }
+}
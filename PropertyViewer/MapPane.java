@@ -0,0 +1,425 @@
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.application.Platform;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * MapPane plots the properties of a portfolio on a canvas. Drag to pan,
+ * scroll to zoom, and click a property to show it in the viewer; clicking a
+ * cluster zooms in on it.
+ *
+ * Properties closer together than CLUSTER_PIXELS on screen are drawn as one
+ * cluster, found from the portfolio's PointQuadtree, so a frame costs about
+ * the same at any zoom level. Frames are drawn into a pixel array on a
+ * background thread. While one is being drawn, the last finished frame is
+ * shifted and stretched into place on the JavaFX thread, so panning and
+ * zooming never wait for a frame; only the newest viewport is drawn next.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class MapPane {
+
+    private static final int WIDTH = 560;
+    private static final int HEIGHT = 300;
+    private static final double CLUSTER_PIXELS = 24;
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MIN_DEGREES_PER_PIXEL = 1e-7;
+    private static final double MAX_DEGREES_PER_PIXEL = 1;
+
+    private static final int BACKGROUND = 0xfff2efe9;
+    private static final int POINT = 0xff2a6fdb;
+    private static final int POINT_OUTLINE = 0xff173f80;
+    private static final int CLUSTER = 0xffe07b39;
+    private static final int CLUSTER_OUTLINE = 0xff7a3d12;
+
+    private final PropertyViewer viewer;
+    private final Canvas canvas = new Canvas(WIDTH, HEIGHT);
+    private final WritableImage image = new WritableImage(WIDTH, HEIGHT);
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "map-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Portfolio portfolio;
+    private Viewport viewport;      // what is being looked at, null until the portfolio has loaded
+    private Frame frame;            // the last frame drawn, possibly of an older viewport
+    private boolean rendering;      // whether a frame is being drawn
+    private boolean stale;          // whether the next frame should be drawn once it is
+    private String message = "";    // shown instead of the map when it cannot be drawn
+    private Property selected;
+    private double dragX;
+    private double dragY;
+
+    public MapPane(PropertyViewer viewer) {
+        this.viewer = viewer;
+
+        canvas.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        canvas.setOnMouseDragged(event -> {
+            if (viewport != null) {
+                viewport = viewport.movedBy(event.getX() - dragX, event.getY() - dragY);
+                dragX = event.getX();
+                dragY = event.getY();
+                draw();
+                render();
+            }
+        });
+        canvas.setOnScroll(event -> {
+            if (viewport != null && event.getDeltaY() != 0) {
+                double factor = event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP;
+                viewport = viewport.zoomedAt(event.getX(), event.getY(), factor);
+                draw();
+                render();
+            }
+        });
+        canvas.setOnMouseClicked(event -> {
+            if (event.isStillSincePress()) {
+                click(event.getX(), event.getY());
+            }
+        });
+        draw();
+    }
+
+
+    /**
+     * Return the canvas, to be placed in a pane.
+     */
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+
+    /**
+     * Plot the given portfolio, fitting all of it in view once it has loaded.
+     */
+    public void setPortfolio(Portfolio portfolio) {
+        this.portfolio = portfolio;
+        viewport = null;
+        frame = null;
+        refresh();
+    }
+
+
+    /**
+     * Plot the portfolio again, after it has loaded or been reloaded.
+     */
+    public void refresh() {
+        try {
+            if (viewport == null) {
+                viewport = Viewport.fitting(portfolio.mapBounds());
+            }
+            message = null;
+            render();
+        } catch (IllegalStateException e) {
+            message = e.getMessage();
+        }
+        draw();
+    }
+
+
+    /**
+     * Mark the given property, which is being shown in the viewer.
+     */
+    public void showSelected(Property property) {
+        selected = property;
+        draw();
+    }
+
+
+    /**
+     * Draw the current viewport in the background, unless a frame is already
+     * being drawn, in which case the newest viewport is drawn when it is done.
+     */
+    private void render() {
+        stale = true;
+        if (rendering || viewport == null) {
+            return;
+        }
+        rendering = true;
+        stale = false;
+        Viewport wanted = viewport;
+        Portfolio plotted = portfolio;
+        CompletableFuture.supplyAsync(() -> rasterise(wanted, plotted), renderer)
+            .whenCompleteAsync((rendered, failure) -> {
+                rendering = false;
+                if (failure != null) {
+                    System.out.println("Failure! Could not draw the map: " + failure.getMessage());
+                    return;
+                }
+                if (plotted == portfolio) {
+                    show(rendered);
+                }
+                if (stale) {
+                    render();
+                }
+            }, Platform::runLater);
+    }
+
+
+    /**
+     * Draw a frame of the given viewport into a pixel array. Called on the renderer thread.
+     */
+    private static Frame rasterise(Viewport viewport, Portfolio portfolio) {
+        Frame frame = new Frame(viewport);
+        Arrays.fill(frame.pixels, BACKGROUND);
+        double latitudeResolution = CLUSTER_PIXELS * viewport.latitudePerPixel();
+        double longitudeResolution = CLUSTER_PIXELS * viewport.longitudePerPixel;
+        // look a cluster beyond each edge, so that clusters across the edge are drawn
+        portfolio.clustersInViewport(viewport.south() - latitudeResolution, viewport.west() - longitudeResolution,
+            viewport.north() + latitudeResolution, viewport.east() + longitudeResolution,
+            latitudeResolution, longitudeResolution, frame::add);
+        for (int i = 0; i < frame.size; i++) {
+            boolean single = frame.counts[i] == 1;
+            fillCircle(frame.pixels, viewport.x(frame.longitudes[i]), viewport.y(frame.latitudes[i]),
+                radius(frame.counts[i]), single ? POINT : CLUSTER, single ? POINT_OUTLINE : CLUSTER_OUTLINE);
+        }
+        return frame;
+    }
+
+
+    /**
+     * Return the radius in pixels of a cluster of count properties.
+     */
+    private static double radius(int count) {
+        return count == 1 ? 3 : Math.min(5 + 1.5 * Math.log(count), 12);
+    }
+
+
+    /**
+     * Fill a circle with an outline, clipped to the frame.
+     */
+    private static void fillCircle(int[] pixels, double centreX, double centreY, double radius, int fill,
+            int outline) {
+        int left = Math.max((int) Math.floor(centreX - radius), 0);
+        int right = Math.min((int) Math.ceil(centreX + radius), WIDTH - 1);
+        int top = Math.max((int) Math.floor(centreY - radius), 0);
+        int bottom = Math.min((int) Math.ceil(centreY + radius), HEIGHT - 1);
+        double outer = radius * radius;
+        double inner = (radius - 1.25) * (radius - 1.25);
+        for (int y = top; y <= bottom; y++) {
+            double dy = y + 0.5 - centreY;
+            for (int x = left; x <= right; x++) {
+                double dx = x + 0.5 - centreX;
+                double distance = dx * dx + dy * dy;
+                if (distance <= outer) {
+                    pixels[y * WIDTH + x] = distance <= inner ? fill : outline;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Make the given frame the last one drawn, and put it on screen.
+     */
+    private void show(Frame rendered) {
+        frame = rendered;
+        image.getPixelWriter().setPixels(0, 0, WIDTH, HEIGHT, PixelFormat.getIntArgbInstance(),
+            rendered.pixels, 0, WIDTH);
+        draw();
+    }
+
+
+    /**
+     * Put the last frame on screen, moved to the current viewport, and mark
+     * the selected property. Called on every pan and zoom, so it does no
+     * more than copy the frame.
+     */
+    private void draw() {
+        GraphicsContext graphics = canvas.getGraphicsContext2D();
+        graphics.setFill(Color.rgb(0xf2, 0xef, 0xe9));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setTextAlign(TextAlignment.CENTER);
+        graphics.setTextBaseline(VPos.CENTER);
+        if (message != null) {
+            graphics.setFill(Color.GRAY);
+            graphics.fillText(message, WIDTH / 2.0, HEIGHT / 2.0);
+            return;
+        }
+        if (frame != null) {
+            Viewport drawn = frame.viewport;
+            double scale = drawn.longitudePerPixel / viewport.longitudePerPixel;
+            graphics.drawImage(image, viewport.x(drawn.west()), viewport.y(drawn.north()),
+                WIDTH * scale, HEIGHT * scale);
+            if (scale == 1) {
+                labelClusters(graphics);
+            }
+        }
+        if (selected != null) {
+            graphics.setStroke(Color.RED);
+            graphics.setLineWidth(2);
+            graphics.strokeOval(viewport.x(selected.getLongitude()) - 7, viewport.y(selected.getLatitude()) - 7,
+                14, 14);
+        }
+    }
+
+
+    /**
+     * Write the number of properties on each cluster large enough to hold it.
+     */
+    private void labelClusters(GraphicsContext graphics) {
+        graphics.setFill(Color.WHITE);
+        graphics.setFont(Font.font(9));
+        for (int i = 0; i < frame.size; i++) {
+            if (frame.counts[i] >= 10) {
+                graphics.fillText(String.valueOf(frame.counts[i]), viewport.x(frame.longitudes[i]),
+                    viewport.y(frame.latitudes[i]));
+            }
+        }
+    }
+
+
+    /**
+     * Select the property clicked on, or zoom in on the cluster clicked on.
+     */
+    private void click(double x, double y) {
+        if (frame == null || viewport == null) {
+            return;
+        }
+        int nearest = -1;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < frame.size; i++) {
+            double dx = viewport.x(frame.longitudes[i]) - x;
+            double dy = viewport.y(frame.latitudes[i]) - y;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance <= radius(frame.counts[i]) + 3 && distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        if (nearest < 0) {
+            return;
+        }
+        if (frame.counts[nearest] == 1) {
+            viewer.selectProperty(frame.rows[nearest]);
+        } else {
+            viewport = new Viewport(frame.latitudes[nearest], frame.longitudes[nearest],
+                viewport.longitudePerPixel / 4);
+            draw();
+            render();
+        }
+    }
+
+
+    /**
+     * The part of the world on screen. Longitude is scaled by the cosine of
+     * the latitude at the centre, so distances look right near it.
+     */
+    private static class Viewport {
+        final double centreLatitude;
+        final double centreLongitude;
+        final double longitudePerPixel;
+
+        Viewport(double centreLatitude, double centreLongitude, double longitudePerPixel) {
+            this.centreLatitude = centreLatitude;
+            this.centreLongitude = centreLongitude;
+            this.longitudePerPixel = Math.max(MIN_DEGREES_PER_PIXEL,
+                Math.min(longitudePerPixel, MAX_DEGREES_PER_PIXEL));
+        }
+
+        /**
+         * Return a viewport holding the box {south, west, north, east} with a small margin.
+         */
+        static Viewport fitting(double[] bounds) {
+            double centreLatitude = (bounds[0] + bounds[2]) / 2;
+            double scale = Math.cos(Math.toRadians(centreLatitude));
+            double longitudePerPixel = Math.max((bounds[3] - bounds[1]) / WIDTH,
+                (bounds[2] - bounds[0]) / (HEIGHT * scale));
+            return new Viewport(centreLatitude, (bounds[1] + bounds[3]) / 2, longitudePerPixel * 1.1);
+        }
+
+        double latitudePerPixel() {
+            return longitudePerPixel * Math.cos(Math.toRadians(centreLatitude));
+        }
+
+        double west() {
+            return centreLongitude - WIDTH / 2.0 * longitudePerPixel;
+        }
+
+        double east() {
+            return centreLongitude + WIDTH / 2.0 * longitudePerPixel;
+        }
+
+        double north() {
+            return centreLatitude + HEIGHT / 2.0 * latitudePerPixel();
+        }
+
+        double south() {
+            return centreLatitude - HEIGHT / 2.0 * latitudePerPixel();
+        }
+
+        double x(double longitude) {
+            return (longitude - west()) / longitudePerPixel;
+        }
+
+        double y(double latitude) {
+            return (north() - latitude) / latitudePerPixel();
+        }
+
+        /**
+         * Return this viewport with its contents moved by the given number of pixels.
+         */
+        Viewport movedBy(double dx, double dy) {
+            return new Viewport(centreLatitude + dy * latitudePerPixel(), centreLongitude - dx * longitudePerPixel,
+                longitudePerPixel);
+        }
+
+        /**
+         * Return this viewport magnified by factor, keeping the point under (x, y) where it is.
+         */
+        Viewport zoomedAt(double x, double y, double factor) {
+            double longitude = west() + x * longitudePerPixel;
+            double latitude = north() - y * latitudePerPixel();
+            double zoomed = Math.max(MIN_DEGREES_PER_PIXEL,
+                Math.min(longitudePerPixel / factor, MAX_DEGREES_PER_PIXEL));
+            double ratio = zoomed / longitudePerPixel;
+            return new Viewport(latitude - (HEIGHT / 2.0 - y) * latitudePerPixel() * ratio,
+                longitude + (WIDTH / 2.0 - x) * zoomed, zoomed);
+        }
+    }
+
+
+    /**
+     * A drawn frame, with the clusters drawn on it so that clicks can be matched to them.
+     */
+    private static class Frame {
+        final Viewport viewport;
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        int size;
+        double[] latitudes = new double[256];
+        double[] longitudes = new double[256];
+        int[] counts = new int[256];
+        int[] rows = new int[256];
+
+        Frame(Viewport viewport) {
+            this.viewport = viewport;
+        }
+
+        void add(double latitude, double longitude, int count, int row) {
+            if (size == counts.length) {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            counts[size] = count;
+            rows[size] = row;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * NeighbourGraph holds the k nearest neighbours of every property, worked
+ * out once, so that asking for the neighbours of a property is a lookup
+ * rather than a search. The neighbours of row r are kept nearest first in
+ * one int array, at r * k to r * k + k - 1; if there are fewer than k other
+ * rows the rest are -1. Distances are not kept: they are recomputed from
+ * the FeatureMatrix, which takes k short sums.
+ *
+ * The graph is built by searching a KdTree for every row, with the rows
+ * split into ranges that are searched in parallel on a fork-join pool.
+ *
+ * It is saved next to the CSV it came from, recording the size and
+ * modification time the CSV had before the rows were read from it, the
+ * number of rows, k and the scale of each feature, which the order of
+ * neighbours depends on: its weight divided by its standard deviation. If
+ * any of them differ when it is read, it is ignored and the caller should
+ * build and save a new one.
+ *
+ * Layout (big-endian): magic, version, CSV size, CSV modification time,
+ * row count, k, the five scales, then the neighbours of every row.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class NeighbourGraph {
+
+    private static final int MAGIC = 0x50564e47; // "PVNG"
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".neighbours";
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + KdTree.DIMENSIONS * Double.BYTES;
+    private static final int ROWS_PER_TASK = 2048;
+
+    private final int size;
+    private final int k;
+    private final int[] neighbours;
+
+    private NeighbourGraph(int size, int k, int[] neighbours) {
+        this.size = size;
+        this.k = k;
+        this.neighbours = neighbours;
+    }
+
+
+    /**
+     * Find the k nearest neighbours of every row of the matrix, using an
+     * index built over the same matrix.
+     */
+    public static NeighbourGraph build(FeatureMatrix features, KdTree index, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        }
+        int size = features.size();
+        int[] neighbours = new int[Math.multiplyExact(size, k)];
+        ForkJoinPool.commonPool().invoke(new BuildTask(features, index, k, neighbours, 0, size));
+        return new NeighbourGraph(size, k, neighbours);
+    }
+
+
+    /**
+     * Return the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the number of neighbours kept for each row.
+     */
+    public int getK() {
+        return k;
+    }
+
+
+    /**
+     * Return the number of neighbours kept for a row: k, unless there are fewer other rows.
+     */
+    public int neighbourCount(int row) {
+        int count = 0;
+        while (count < k && neighbours[row * k + count] >= 0) {
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Return the i-th nearest neighbour of a row.
+     */
+    public int getNeighbour(int row, int i) {
+        return neighbours[row * k + i];
+    }
+
+
+    /**
+     * Collect into result the at most limit neighbours of a row no further
+     * than maxDistance, if the graph holds all of them, and return true.
+     * Return false, collecting nothing, if there could be more than it holds.
+     */
+    public boolean search(FeatureMatrix features, int row, int limit, double maxDistance, Neighbours result) {
+        int count = neighbourCount(row);
+        if (limit > k && count == k && features.distance(row, getNeighbour(row, k - 1)) <= maxDistance) {
+            return false;
+        }
+        // the neighbours are held nearest first, so the first limit of them are the ones asked for
+        for (int i = 0; i < Math.min(count, limit); i++) {
+            int neighbour = getNeighbour(row, i);
+            double distance = features.distance(row, neighbour);
+            if (distance > maxDistance) {
+                break;
+            }
+            result.offer(neighbour, distance);
+        }
+        return true;
+    }
+
+
+    /**
+     * Return the path of the graph belonging to the given CSV file.
+     */
+    public static Path graphPath(Path csvFile) {
+        return csvFile.resolveSibling(csvFile.getFileName() + SUFFIX);
+    }
+
+
+    /**
+     * Read the graph saved for the given CSV file, or return null if there is
+     * no usable one: it was not built from rows read from the file while it
+     * had the given attributes, is missing, or was built for a different
+     * number of rows, k or feature scales.
+     */
+    public static NeighbourGraph read(Path csvFile, BasicFileAttributes csvAttributes, int size, int k,
+            double[] scales) throws IOException {
+        Path graph = graphPath(csvFile);
+        if (!Files.isRegularFile(graph)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(graph, StandardOpenOption.READ)) {
+            if (channel.size() != HEADER_BYTES + (long) size * k * Integer.BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != csvAttributes.size()
+                    || buffer.getLong() != csvAttributes.lastModifiedTime().toMillis()
+                    || buffer.getInt() != size || buffer.getInt() != k) {
+                return null;
+            }
+            for (double scale : scales) {
+                if (Double.doubleToLongBits(buffer.getDouble()) != Double.doubleToLongBits(scale)) {
+                    return null;
+                }
+            }
+            int[] neighbours = new int[size * k];
+            buffer.asIntBuffer().get(neighbours);
+            for (int neighbour : neighbours) {
+                if (neighbour < -1 || neighbour >= size) {
+                    return null;
+                }
+            }
+            return new NeighbourGraph(size, k, neighbours);
+        } catch (RuntimeException e) {
+            // a corrupt graph is treated like a missing one
+            return null;
+        }
+    }
+
+
+    /**
+     * Save the graph for the given CSV file, with the feature scales it was
+     * built with, stamped with the attributes the file had before the rows
+     * were read from it: if it was rewritten since, the graph is out of date
+     * from the start. It is written to a temporary file first and then moved
+     * into place, so a reader never sees a half-written graph.
+     */
+    public void write(Path csvFile, BasicFileAttributes csvAttributes, double[] scales) throws IOException {
+        Path graph = graphPath(csvFile);
+        Path temporary = graph.resolveSibling(graph.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(csvAttributes.size());
+            out.writeLong(csvAttributes.lastModifiedTime().toMillis());
+            out.writeInt(size);
+            out.writeInt(k);
+            for (double scale : scales) {
+                out.writeDouble(scale);
+            }
+            for (int neighbour : neighbours) {
+                out.writeInt(neighbour);
+            }
+        }
+        Files.move(temporary, graph, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Finds the neighbours of a range of rows, splitting it in two while it is larger than ROWS_PER_TASK.
+     */
+    private static class BuildTask extends RecursiveAction {
+        private final FeatureMatrix features;
+        private final KdTree index;
+        private final int k;
+        private final int[] neighbours;
+        private final int from;
+        private final int to;
+
+        BuildTask(FeatureMatrix features, KdTree index, int k, int[] neighbours, int from, int to) {
+            this.features = features;
+            this.index = index;
+            this.k = k;
+            this.neighbours = neighbours;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BuildTask(features, index, k, neighbours, from, middle),
+                    new BuildTask(features, index, k, neighbours, middle, to));
+                return;
+            }
+            double[] query = new double[KdTree.DIMENSIONS];
+            for (int row = from; row < to; row++) {
+                features.copyRow(row, query, 0);
+                Neighbours nearest = new Neighbours(k);
+                index.search(query, row, Double.POSITIVE_INFINITY, nearest);
+                for (int i = 0; i < k; i++) {
+                    neighbours[row * k + i] = i < nearest.size() ? nearest.getPropertyNumber(i) : -1;
+                }
+            }
+        }
+    }
+}
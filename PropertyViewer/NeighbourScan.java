@@ -0,0 +1,93 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * NeighbourScan answers nearest neighbour queries without an index by
+ * comparing the query against every row of a FeatureMatrix. The rows are
+ * split into ranges that are scanned in parallel on a fork-join pool, each
+ * into its own bounded Neighbours heap, and the heaps are merged as the
+ * ranges join. Within a range, distances are computed a block of rows at a
+ * time into a buffer that is reused, so a scan allocates nothing per row.
+ *
+ * Rows are reported by their portfolio row number, firstRow plus their row
+ * in the matrix, so a page of a lazily loaded portfolio can be scanned like
+ * a whole store.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class NeighbourScan {
+
+    private static final int ROWS_PER_TASK = 16 * 1024;
+
+    private NeighbourScan() {
+    }
+
+
+    /**
+     * Collect into result the rows nearest to the given scaled feature vector that are
+     * no further than maxDistance, skipping the row whose portfolio row number is excludedRow.
+     */
+    public static void search(FeatureMatrix features, int firstRow, double[] query, int excludedRow,
+            double maxDistance, int limit, Neighbours result) {
+        Neighbours found = ForkJoinPool.commonPool().invoke(
+            new ScanTask(features, firstRow, query, excludedRow, maxDistance, limit, 0, features.size()));
+        result.addAll(found);
+    }
+
+
+    /**
+     * Scans a range of rows, splitting it in two while it is larger than ROWS_PER_TASK.
+     */
+    private static class ScanTask extends RecursiveTask<Neighbours> {
+        private final FeatureMatrix features;
+        private final int firstRow;
+        private final double[] query;
+        private final int excludedRow;
+        private final double maxDistance;
+        private final int limit;
+        private final int from;
+        private final int to;
+
+        ScanTask(FeatureMatrix features, int firstRow, double[] query, int excludedRow, double maxDistance,
+                int limit, int from, int to) {
+            this.features = features;
+            this.firstRow = firstRow;
+            this.query = query;
+            this.excludedRow = excludedRow;
+            this.maxDistance = maxDistance;
+            this.limit = limit;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Neighbours compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ScanTask left = new ScanTask(features, firstRow, query, excludedRow, maxDistance, limit, from, middle);
+                ScanTask right = new ScanTask(features, firstRow, query, excludedRow, maxDistance, limit, middle, to);
+                left.fork();
+                Neighbours nearest = right.compute();
+                nearest.addAll(left.join());
+                return nearest;
+            }
+
+            Neighbours nearest = new Neighbours(limit);
+            double[] distances = new double[Math.min(to - from, FeatureMatrix.BLOCK_SIZE)];
+            for (int start = from; start < to; start += distances.length) {
+                int end = Math.min(start + distances.length, to);
+                features.distances(query, start, end, distances);
+                for (int row = start; row < end; row++) {
+                    double distance = distances[row - start];
+                    // checked before the row, as nearly every row is further than the worst match kept
+                    if (distance <= maxDistance && distance <= nearest.threshold()
+                            && firstRow + row != excludedRow) {
+                        nearest.offer(firstRow + row, distance);
+                    }
+                }
+            }
+            return nearest;
+        }
+    }
+}
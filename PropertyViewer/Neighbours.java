@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * Neighbours collects the result of a nearest neighbour query: property
+ * numbers paired with their distance from the query. While a query runs it
+ * is a max-heap bounded to the number of neighbours asked for, so memory
+ * stays proportional to k however many properties are searched. Once
+ * sorted, neighbours are listed nearest first, with ties broken by the
+ * lower property number.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class Neighbours {
+
+    private final int limit;
+    private int size;
+    private int[] rows;
+    private double[] distances;
+    private boolean sorted;
+
+    /**
+     * Create a collection that keeps at most limit neighbours, the nearest ones seen.
+     */
+    public Neighbours(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1: " + limit);
+        }
+        this.limit = limit;
+        int capacity = Math.min(limit, 16);
+        rows = new int[capacity];
+        distances = new double[capacity];
+    }
+
+
+    /**
+     * Return the number of neighbours held.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the property number of the i-th nearest neighbour.
+     */
+    public int getPropertyNumber(int i) {
+        ensureSorted();
+        return rows[checkIndex(i)];
+    }
+
+
+    /**
+     * Return the distance of the i-th nearest neighbour from the query.
+     */
+    public double getDistance(int i) {
+        ensureSorted();
+        return distances[checkIndex(i)];
+    }
+
+
+    /**
+     * Return the property numbers of all neighbours, nearest first.
+     */
+    public int[] getPropertyNumbers() {
+        ensureSorted();
+        return Arrays.copyOf(rows, size);
+    }
+
+
+    /**
+     * Return the distance a candidate must not exceed to be kept: the distance
+     * of the furthest neighbour held once the collection is full, otherwise infinity.
+     */
+    double threshold() {
+        return size < limit ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+
+    /**
+     * Offer a candidate. It is kept if there is room or it is nearer than the furthest neighbour held.
+     */
+    void offer(int row, double distance) {
+        if (sorted) {
+            throw new IllegalStateException("Neighbours already sorted");
+        }
+        if (size < limit) {
+            if (size == rows.length) {
+                int capacity = (int) Math.min((long) limit, rows.length * 2L);
+                rows = Arrays.copyOf(rows, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+            rows[size] = row;
+            distances[size] = distance;
+            siftUp(size++);
+        } else if (isFurther(rows[0], distances[0], row, distance)) {
+            rows[0] = row;
+            distances[0] = distance;
+            siftDown(0, size);
+        }
+    }
+
+
+    /**
+     * Offer every neighbour held by another collection.
+     */
+    void addAll(Neighbours other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.rows[i], other.distances[i]);
+        }
+    }
+
+
+    /**
+     * Returns true if neighbour a ranks after neighbour b.
+     */
+    private static boolean isFurther(int rowA, double distanceA, int rowB, double distanceB) {
+        return distanceA > distanceB || (distanceA == distanceB && rowA > rowB);
+    }
+
+
+    private void siftUp(int child) {
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (!isFurther(rows[child], distances[child], rows[parent], distances[parent])) {
+                return;
+            }
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+
+    private void siftDown(int parent, int end) {
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && isFurther(rows[child + 1], distances[child + 1], rows[child], distances[child])) {
+                child++;
+            }
+            if (!isFurther(rows[child], distances[child], rows[parent], distances[parent])) {
+                return;
+            }
+            swap(child, parent);
+            parent = child;
+        }
+    }
+
+
+    private void swap(int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+
+    /**
+     * Heap-sort the neighbours in place, nearest first. Sorting ends the query;
+     * a sorted collection accepts no more candidates.
+     */
+    private void ensureSorted() {
+        if (sorted) {
+            return;
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Neighbour " + i + " of " + size);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * PagedProperties gives access to the listings of a file too large to hold
+ * in memory. Opening it scans the file once, without decoding any field, and
+ * keeps only the byte offset at which each page of rows starts. A page is
+ * parsed into a small PropertyStore the first time one of its rows is asked
+ * for, and the most recently used pages are kept in a bounded LRU cache.
+ *
+ * Neighbour queries scan a FeatureMatrix per page rather than the pages
+ * themselves. The matrices are built by the first query, in the same pass
+ * over the file that measures the features, and hold five numbers per row,
+ * so no later query reads the file unless the feature weights change.
+ *
+ * Records with too few columns are skipped, as the eager loader does. A
+ * number that cannot be parsed is only found when its page is read, so it is
+ * read as missing (-1) rather than dropping the row and renumbering the rest.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PagedProperties {
+
+    /** The number of rows in each page. */
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private final Path file;
+    private final int pageSize;
+    private final int size;
+    private final long[] pageOffsets;
+    private final PropertyStore.Favourites favourites = new PropertyStore.Favourites();
+    private final Map<Integer, PropertyStore> cache;
+
+    private long hits;
+    private long misses;
+    private double[] featureWeights = FeatureScaling.defaultWeights();
+    private FeatureScaling featureScaling;
+    // the scaled features of every page, or null until a query needs them
+    private FeatureMatrix[] pageFeatures;
+
+    private PagedProperties(Path file, int pageSize, int size, long[] pageOffsets, int cachedPages) {
+        this.file = file;
+        this.pageSize = pageSize;
+        this.size = size;
+        this.pageOffsets = pageOffsets;
+        this.cache = new LinkedHashMap<Integer, PropertyStore>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, PropertyStore> eldest) {
+                return size() > cachedPages;
+            }
+        };
+    }
+
+
+    /**
+     * Index the given listings file, caching at most cachedPages pages of pageSize rows.
+     */
+    public static PagedProperties open(Path file, int pageSize, int cachedPages) throws IOException {
+        if (pageSize < 1 || cachedPages < 1) {
+            throw new IllegalArgumentException("Page size and cached pages must be at least 1: "
+                + pageSize + ", " + cachedPages);
+        }
+        long[][] offsets = {new long[64]};
+        int[] rows = {0};
+        long fileSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            ParallelCsvLoader.scanRecords(channel, (start, end, fields, terminated) -> {
+                if (!ParallelCsvLoader.isWellFormed(fields, terminated)) {
+                    return;
+                }
+                if (rows[0] % pageSize == 0) {
+                    int page = rows[0] / pageSize;
+                    if (page == offsets[0].length) {
+                        offsets[0] = Arrays.copyOf(offsets[0], page * 2);
+                    }
+                    offsets[0][page] = start;
+                }
+                rows[0]++;
+            });
+        }
+        int pages = (rows[0] + pageSize - 1) / pageSize;
+        long[] pageOffsets = Arrays.copyOf(offsets[0], pages + 1);
+        pageOffsets[pages] = fileSize;
+        return new PagedProperties(file, pageSize, rows[0], pageOffsets, cachedPages);
+    }
+
+
+    /**
+     * Return the number of rows in the file.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return a Property view onto the given row, reading its page if it is not cached.
+     */
+    public Property getProperty(int row) {
+        Objects.checkIndex(row, size);
+        return page(row / pageSize).getProperty(row % pageSize);
+    }
+
+
+    /**
+     * Write the feature vector of the given row into target, as FeatureMatrix.featureVector does.
+     */
+    public void featureVector(int row, double[] target) {
+        Objects.checkIndex(row, size);
+        FeatureMatrix.featureVector(page(row / pageSize), row % pageSize, target, 0);
+    }
+
+
+    /**
+     * Collect into result the rows nearest to the given feature vector, laid
+     * out like Property.getVector(), that are no further than maxDistance once
+     * scaled, skipping excludedRow. The feature matrices of the pages are
+     * scanned in parallel; the page cache is left to the pages being browsed.
+     */
+    public void search(double[] vector, int excludedRow, double maxDistance, int limit, Neighbours result) {
+        FeatureMatrix[] features = features();
+        if (features.length > 0) {
+            double[] query = new double[KdTree.DIMENSIONS];
+            features[0].getScaling().scale(vector, query);
+            result.addAll(ForkJoinPool.commonPool().invoke(
+                new ScanTask(features, query, excludedRow, maxDistance, limit, 0, features.length)));
+        }
+    }
+
+
+    /**
+     * Return how features are scaled for neighbour queries. The first call
+     * reads every page to find the mean and spread of each feature.
+     */
+    public synchronized FeatureScaling getFeatureScaling() {
+        features();
+        return featureScaling;
+    }
+
+
+    /**
+     * Weigh the features of later neighbour queries with the given weights.
+     * The next query reads the file again to scale the features anew.
+     */
+    public synchronized void setFeatureWeights(double[] weights) {
+        featureWeights = weights.clone();
+        if (featureScaling != null) {
+            featureScaling = featureScaling.withWeights(featureWeights);
+            pageFeatures = null;
+        }
+    }
+
+
+    /**
+     * Return the scaled features of every page, reading the file for them
+     * if they are not built yet, and measuring the features on the way if
+     * there is no scaling yet.
+     */
+    private synchronized FeatureMatrix[] features() {
+        if (pageFeatures == null) {
+            int pages = pageOffsets.length - 1;
+            double[][] columns = new double[pages][];
+            FeatureScaling.Moments moments = new FeatureScaling.Moments();
+            if (pages > 0) {
+                moments = ForkJoinPool.commonPool().invoke(new ReadFeaturesTask(columns, 0, pages));
+            }
+            if (featureScaling == null) {
+                featureScaling = moments.scaling(featureWeights);
+            }
+            FeatureMatrix[] features = new FeatureMatrix[pages];
+            for (int page = 0; page < pages; page++) {
+                features[page] = new FeatureMatrix(columns[page], columns[page].length / KdTree.DIMENSIONS,
+                    featureScaling);
+            }
+            pageFeatures = features;
+        }
+        return pageFeatures;
+    }
+
+
+    /**
+     * Return the number of row lookups answered from a cached page.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Return the number of row lookups that had to read a page from the file.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Return the number of pages currently cached.
+     */
+    public synchronized int getCachedPages() {
+        return cache.size();
+    }
+
+
+    /**
+     * Return the given page, from the cache if it is there.
+     */
+    private synchronized PropertyStore page(int page) {
+        PropertyStore rows = cache.get(page);
+        if (rows != null) {
+            hits++;
+            return rows;
+        }
+        misses++;
+        rows = readPage(page);
+        cache.put(page, rows);
+        return rows;
+    }
+
+
+    /**
+     * Parse the given page from the file.
+     */
+    private PropertyStore readPage(int page) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            PropertyStore rows = ParallelCsvLoader.parseRange(channel, pageOffsets[page], pageOffsets[page + 1]);
+            int expected = Math.min(pageSize, size - page * pageSize);
+            if (rows.size() != expected) {
+                throw new IllegalStateException("Page " + page + " of " + file + " has " + rows.size()
+                    + " rows instead of " + expected + "; has the file changed?");
+            }
+            rows.trimToSize();
+            rows.makePage(page * pageSize, favourites);
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failure! Could not read page " + page + " of the property file", e);
+        }
+    }
+
+
+    /**
+     * Scans the feature matrices of a range of pages, splitting it in two until a single page is left.
+     */
+    private class ScanTask extends RecursiveTask<Neighbours> {
+        private final FeatureMatrix[] features;
+        private final double[] query;
+        private final int excludedRow;
+        private final double maxDistance;
+        private final int limit;
+        private final int from;
+        private final int to;
+
+        ScanTask(FeatureMatrix[] features, double[] query, int excludedRow, double maxDistance, int limit,
+                int from, int to) {
+            this.features = features;
+            this.query = query;
+            this.excludedRow = excludedRow;
+            this.maxDistance = maxDistance;
+            this.limit = limit;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Neighbours compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ScanTask left = new ScanTask(features, query, excludedRow, maxDistance, limit, from, middle);
+                left.fork();
+                Neighbours nearest = new ScanTask(features, query, excludedRow, maxDistance, limit, middle, to)
+                    .compute();
+                nearest.addAll(left.join());
+                return nearest;
+            }
+            Neighbours nearest = new Neighbours(limit);
+            NeighbourScan.search(features[from], from * pageSize, query, excludedRow, maxDistance, limit, nearest);
+            return nearest;
+        }
+    }
+
+
+    /**
+     * Reads the raw features of a range of pages into columns, one array
+     * per page laid out feature by feature, and measures them, splitting the
+     * range in two until a single page is left.
+     */
+    private class ReadFeaturesTask extends RecursiveTask<FeatureScaling.Moments> {
+        private final double[][] columns;
+        private final int from;
+        private final int to;
+
+        ReadFeaturesTask(double[][] columns, int from, int to) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected FeatureScaling.Moments compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ReadFeaturesTask left = new ReadFeaturesTask(columns, from, middle);
+                left.fork();
+                FeatureScaling.Moments moments = new ReadFeaturesTask(columns, middle, to).compute();
+                moments.merge(left.join());
+                return moments;
+            }
+            PropertyStore rows = readPage(from);
+            int size = rows.size();
+            double[] pageColumns = new double[size * KdTree.DIMENSIONS];
+            double[] vector = new double[KdTree.DIMENSIONS];
+            for (int row = 0; row < size; row++) {
+                FeatureMatrix.featureVector(rows, row, vector, 0);
+                for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                    pageColumns[i * size + row] = vector[i];
+                }
+            }
+            columns[from] = pageColumns;
+            FeatureScaling.Moments moments = new FeatureScaling.Moments();
+            moments.add(rows);
+            return moments;
+        }
+    }
+}
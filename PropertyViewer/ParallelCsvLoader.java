@@ -0,0 +1,656 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelCsvLoader reads the AirBnB listings file into a PropertyStore using
+ * every core. The file is memory-mapped and split into chunks at record
+ * boundaries, taking care not to split inside a quoted field, and the chunks
+ * are parsed in parallel on a fork-join pool. Rows come out in file order.
+ *
+ * Quoting follows opencsv's defaults: fields may be wrapped in double quotes,
+ * a quote inside a quoted field is written as two quotes or escaped with a
+ * backslash, and quoted fields may span lines.
+ *
+ * Rows with too few columns or unparseable numbers are skipped and counted
+ * as malformed rather than aborting the load. Only the text columns become
+ * strings: latitude, longitude, price, minimum nights and availability are
+ * parsed straight from the bytes of the field into the primitive columns,
+ * with -1 for an empty cell as before. The bytes of every record are also
+ * hashed, as a ListingsDigest hashes them, so that a later reload can tell
+ * which rows changed without taking a digest of the file it was loaded from.
+ *
+ * A ChunkListener can be given to see rows before the whole file is parsed:
+ * each chunk is handed over, in file order, as soon as it and every chunk
+ * before it are done. The chunks share their favourites with the store
+ * finally returned, so a favourite marked on an early row is kept.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class ParallelCsvLoader {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long SCAN_WINDOW = 256L * 1024 * 1024;
+    private static final int COLUMNS = 14;
+    private static final int LATITUDE = 5;
+    private static final int LONGITUDE = 6;
+    private static final int PRICE = 8;
+    private static final int MINIMUM_NIGHTS = 9;
+    private static final int AVAILABILITY_365 = 13;
+    // every power of ten that a double holds exactly
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    private int rowsLoaded;
+    private int malformedRows;
+    private long[] recordHashes = new long[0];
+    private long elapsedNanos;
+
+    public ParallelCsvLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelCsvLoader(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+
+    /**
+     * Receives the rows of a file while it is being loaded.
+     */
+    public interface ChunkListener {
+        /**
+         * Called, in file order, once a chunk and every chunk before it have
+         * been parsed. The chunk's row 0 is row firstRow of the file, and
+         * fractionDone is the fraction of the file parsed so far. Called on
+         * the loader's threads; the chunk must not be modified.
+         */
+        void chunkLoaded(PropertyStore chunk, int firstRow, double fractionDone);
+    }
+
+
+    /**
+     * Load every listing in the given file. The first row holds the column headers and is skipped.
+     */
+    public PropertyStore load(Path file) throws IOException {
+        return load(file, null);
+    }
+
+
+    /**
+     * Load every listing in the given file, handing the rows to listener,
+     * if it is not null, as they are parsed.
+     */
+    public PropertyStore load(Path file, ChunkListener listener) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] boundaries = findChunkBoundaries(channel);
+            int chunks = boundaries.length - 1;
+            PropertyStore[] parts = new PropertyStore[chunks];
+            long[][] hashes = new long[chunks][];
+            int[] malformed = new int[chunks];
+            Publisher publisher = new Publisher(parts, boundaries, listener);
+            if (chunks > 0) {
+                pool.invoke(new ParseTask(channel, boundaries, parts, hashes, malformed, publisher, 0, chunks));
+            }
+
+            int total = 0;
+            for (PropertyStore part : parts) {
+                total += part.size();
+            }
+            PropertyStore listings = new PropertyStore(total);
+            listings.makePage(0, publisher.favourites);
+            recordHashes = new long[total];
+            malformedRows = 0;
+            for (int i = 0; i < chunks; i++) {
+                System.arraycopy(hashes[i], 0, recordHashes, listings.size(), hashes[i].length);
+                listings.addAll(parts[i]);
+                malformedRows += malformed[i];
+            }
+            rowsLoaded = listings.size();
+            elapsedNanos = System.nanoTime() - start;
+            return listings;
+        }
+    }
+
+
+    /**
+     * Return the number of rows loaded by the last call to load.
+     */
+    public int getRowsLoaded() {
+        return rowsLoaded;
+    }
+
+
+    /**
+     * Return, for every row loaded by the last call to load, the hash of the
+     * bytes of the record it was parsed from, as a ListingsDigest takes it.
+     */
+    public long[] getRecordHashes() {
+        return recordHashes;
+    }
+
+
+    /**
+     * Return the number of rows skipped as malformed by the last call to load.
+     */
+    public int getMalformedRows() {
+        return malformedRows;
+    }
+
+
+    /**
+     * Return the load rate of the last call to load, in rows per second.
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rowsLoaded * 1e9 / elapsedNanos;
+    }
+
+
+    /**
+     * Scan the file once, tracking quotes, and return the offsets at which
+     * chunks start. The first offset is the start of the first data row and
+     * the last is the file size.
+     */
+    private long[] findChunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        long[] nextSplit = {0};
+        scanRecords(channel, (start, end, fields, terminated) -> {
+            if (boundaries.isEmpty() || start >= nextSplit[0]) {
+                boundaries.add(start);
+                nextSplit[0] = start + chunkSize;
+            }
+        });
+
+        if (boundaries.isEmpty()) {
+            // no data rows, or a header without a trailing newline
+            return new long[] {size};
+        }
+        boundaries.add(size);
+        long[] offsets = new long[boundaries.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = boundaries.get(i);
+        }
+        return offsets;
+    }
+
+
+    /**
+     * Receives the records of a file as scanRecords finds them.
+     */
+    interface RecordVisitor {
+        /**
+         * Visit the record in [start, end) of the file, not counting its line
+         * break, which has the given number of fields; terminated is false if
+         * it ends inside a quoted field.
+         */
+        void visit(long start, long end, int fields, boolean terminated);
+    }
+
+
+    /**
+     * Scan the file once, tracking quotes, and visit every record after the
+     * header in file order, without decoding any field.
+     */
+    static void scanRecords(FileChannel channel, RecordVisitor visitor) throws IOException {
+        long size = channel.size();
+        boolean inQuotes = false;
+        boolean afterBackslash = false;
+        boolean afterClosingQuote = false;
+        boolean atFieldStart = true;
+        boolean inHeader = true;
+        long recordStart = 0;
+        int fields = 1;
+
+        // mirrors the quoting rules of ChunkParser.readRecord, byte by byte
+        for (long windowStart = 0; windowStart < size; windowStart += SCAN_WINDOW) {
+            long windowSize = Math.min(SCAN_WINDOW, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte c = window.get(i);
+                if (inQuotes) {
+                    if (afterBackslash) {
+                        afterBackslash = false;
+                        if (c == '"' || c == '\\') {
+                            continue;
+                        }
+                    }
+                    if (c == '"') {
+                        inQuotes = false;
+                        afterClosingQuote = true;
+                    } else if (c == '\\') {
+                        afterBackslash = true;
+                    }
+                    continue;
+                }
+                if (afterClosingQuote) {
+                    afterClosingQuote = false;
+                    if (c == '"') {
+                        // a doubled quote inside a quoted field
+                        inQuotes = true;
+                        continue;
+                    }
+                }
+                if (c == '"' && atFieldStart) {
+                    inQuotes = true;
+                    atFieldStart = false;
+                } else if (c == ',') {
+                    atFieldStart = true;
+                    fields++;
+                } else if (c == '\n') {
+                    atFieldStart = true;
+                    if (inHeader) {
+                        inHeader = false;
+                    } else {
+                        visitor.visit(recordStart, windowStart + i, fields, true);
+                    }
+                    recordStart = windowStart + i + 1;
+                    fields = 1;
+                } else {
+                    atFieldStart = false;
+                }
+            }
+        }
+        if (!inHeader && recordStart < size) {
+            // the last record has no trailing newline
+            visitor.visit(recordStart, size, fields, !inQuotes);
+        }
+    }
+
+
+    /**
+     * Parse the records between two offsets of a file into a new PropertyStore.
+     * Rows with too few columns are skipped, as in load, but a number that
+     * cannot be parsed is stored as missing (-1), so every record that
+     * isWellFormed accepts becomes exactly one row.
+     */
+    static PropertyStore parseRange(FileChannel channel, long start, long end) throws IOException {
+        return parseRange(channel, start, end, true);
+    }
+
+
+    /**
+     * Parse the records between two offsets of a file into a new PropertyStore,
+     * skipping rows with unparseable numbers as load does unless keepBadNumbers is set.
+     */
+    static PropertyStore parseRange(FileChannel channel, long start, long end, boolean keepBadNumbers)
+            throws IOException {
+        long length = end - start;
+        MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        return new ChunkParser(range, (int) length, keepBadNumbers).parse();
+    }
+
+
+    /**
+     * Returns true if a record scanRecords visited becomes a row when parsed by parseRange.
+     */
+    static boolean isWellFormed(int fields, boolean terminated) {
+        return terminated && fields >= COLUMNS;
+    }
+
+
+    /**
+     * Parses a range of chunks, splitting the range in two until a single chunk is left.
+     */
+    private class ParseTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final PropertyStore[] parts;
+        private final long[][] hashes;
+        private final int[] malformed;
+        private final Publisher publisher;
+        private final int from;
+        private final int to;
+
+        ParseTask(FileChannel channel, long[] boundaries, PropertyStore[] parts, long[][] hashes,
+                int[] malformed, Publisher publisher, int from, int to) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.parts = parts;
+            this.hashes = hashes;
+            this.malformed = malformed;
+            this.publisher = publisher;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(channel, boundaries, parts, hashes, malformed, publisher, from, middle),
+                    new ParseTask(channel, boundaries, parts, hashes, malformed, publisher, middle, to));
+                return;
+            }
+            try {
+                long start = boundaries[from];
+                long length = boundaries[from + 1] - start;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                ChunkParser parser = new ChunkParser(chunk, (int) length, false);
+                PropertyStore part = parser.parse();
+                hashes[from] = Arrays.copyOf(parser.hashes, part.size());
+                malformed[from] = parser.malformedRows;
+                publisher.parsed(from, part);
+            } catch (IOException e) {
+                throw new RuntimeException("Failure! Could not read chunk " + from + " of the property file", e);
+            }
+        }
+    }
+
+
+    /**
+     * Hands parsed chunks to a ChunkListener in file order, however the
+     * parallel tasks happen to finish.
+     */
+    private static class Publisher {
+        private final PropertyStore[] parts;
+        private final long[] boundaries;
+        private final ChunkListener listener;
+        private final PropertyStore.Favourites favourites = new PropertyStore.Favourites();
+        private int nextChunk;
+        private int nextRow;
+        private long bytesParsed;
+
+        Publisher(PropertyStore[] parts, long[] boundaries, ChunkListener listener) {
+            this.parts = parts;
+            this.boundaries = boundaries;
+            this.listener = listener;
+        }
+
+        /**
+         * Record that a chunk is parsed, then publish every chunk now at the
+         * front of the file that has not been published yet.
+         */
+        synchronized void parsed(int chunk, PropertyStore part) {
+            parts[chunk] = part;
+            bytesParsed += boundaries[chunk + 1] - boundaries[chunk];
+            long fileBytes = boundaries[boundaries.length - 1] - boundaries[0];
+            while (nextChunk < parts.length && parts[nextChunk] != null) {
+                PropertyStore ready = parts[nextChunk++];
+                ready.makePage(nextRow, favourites);
+                if (listener != null) {
+                    listener.chunkLoaded(ready, nextRow, fileBytes == 0 ? 1.0 : (double) bytesParsed / fileBytes);
+                }
+                nextRow += ready.size();
+            }
+        }
+    }
+
+
+    /**
+     * Splits the records of one chunk into fields and appends them to a PropertyStore.
+     */
+    private static class ChunkParser {
+        private final MappedByteBuffer chunk;
+        private final int length;
+        private final boolean keepBadNumbers;
+        // the text fields of the record; the number columns are null, their values are in the arrays below
+        private final List<String> fields = new ArrayList<>(COLUMNS);
+        private final double[] doubles = new double[COLUMNS];
+        private final int[] ints = new int[COLUMNS];
+        private boolean badNumber;
+        private byte[] field = new byte[256];
+        private int fieldLength;
+        private boolean unterminatedQuote;
+        private int malformedRows;
+        // where the current record lies in the chunk, not counting its line break
+        private int recordStart;
+        private int recordEnd;
+        // the hash of the record each row was parsed from
+        private long[] hashes = new long[16];
+
+        ChunkParser(MappedByteBuffer chunk, int length, boolean keepBadNumbers) {
+            this.chunk = chunk;
+            this.length = length;
+            this.keepBadNumbers = keepBadNumbers;
+        }
+
+        PropertyStore parse() {
+            PropertyStore listings = new PropertyStore(Math.max(length / 128, 16));
+            int position = 0;
+            while (position < length) {
+                position = readRecord(position);
+                if (unterminatedQuote) {
+                    malformedRows++;
+                } else if (fields.size() > 1 || !fields.get(0).isEmpty()) {
+                    addRow(listings);
+                }
+            }
+            return listings;
+        }
+
+        /**
+         * Read the record starting at position into fields and return the position after it.
+         */
+        private int readRecord(int position) {
+            recordStart = position;
+            recordEnd = length;
+            fields.clear();
+            fieldLength = 0;
+            badNumber = false;
+            boolean inQuotes = false;
+            while (position < length) {
+                byte c = chunk.get(position++);
+                if (inQuotes) {
+                    if (c == '"') {
+                        if (position < length && chunk.get(position) == '"') {
+                            append(c);
+                            position++;
+                        } else {
+                            inQuotes = false;
+                        }
+                    } else if (c == '\\' && position < length
+                            && (chunk.get(position) == '"' || chunk.get(position) == '\\')) {
+                        append(chunk.get(position++));
+                    } else {
+                        append(c);
+                    }
+                } else if (c == ',') {
+                    endField();
+                } else if (c == '"' && fieldLength == 0) {
+                    inQuotes = true;
+                } else if (c == '\n') {
+                    recordEnd = position - 1;
+                    break;
+                } else if (c == '\r' && position < length && chunk.get(position) == '\n') {
+                    continue;
+                } else {
+                    append(c);
+                }
+            }
+            unterminatedQuote = inQuotes;
+            endField();
+            return position;
+        }
+
+        private void append(byte c) {
+            if (fieldLength == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[fieldLength++] = c;
+        }
+
+        /**
+         * End the current field. Numbers are parsed straight from the field's
+         * bytes, without making a string of them; a number that cannot be
+         * parsed is stored as missing and the record marked as bad.
+         */
+        private void endField() {
+            int column = fields.size();
+            try {
+                switch (column) {
+                    case LATITUDE:
+                    case LONGITUDE:
+                        doubles[column] = parseDouble(field, 0, fieldLength);
+                        fields.add(null);
+                        break;
+                    case PRICE:
+                    case MINIMUM_NIGHTS:
+                    case AVAILABILITY_365:
+                        ints[column] = parseInt(field, 0, fieldLength);
+                        fields.add(null);
+                        break;
+                    default:
+                        fields.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+                }
+            } catch (NumberFormatException e) {
+                badNumber = true;
+                doubles[column] = -1.0;
+                ints[column] = -1;
+                fields.add(null);
+            }
+            fieldLength = 0;
+        }
+
+        /**
+         * Convert the current record to a row, or count it as malformed.
+         */
+        private void addRow(PropertyStore listings) {
+            if (fields.size() < COLUMNS) {
+                malformedRows++;
+                return;
+            }
+            if (badNumber) {
+                malformedRows++;
+                if (!keepBadNumbers) {
+                    return;
+                }
+            }
+            int row = listings.add(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4),
+                doubles[LATITUDE], doubles[LONGITUDE], fields.get(7), ints[PRICE], ints[MINIMUM_NIGHTS],
+                ints[AVAILABILITY_365]);
+            if (row == hashes.length) {
+                hashes = Arrays.copyOf(hashes, row * 2);
+            }
+            hashes[row] = ListingsDigest.hash(chunk, recordStart, recordEnd);
+        }
+    }
+
+
+    /**
+     * Return the number in bytes[from, to), read as convertDouble reads it
+     * from a string: -1.0 if it is empty or just whitespace. Plain decimals
+     * with up to 15 or so digits, such as every latitude and longitude, are
+     * worked out from the bytes without allocating; anything else is decoded
+     * and handed to convertDouble, so the result is always the same.
+     */
+    static double parseDouble(byte[] bytes, int from, int to) {
+        if (isBlank(bytes, from, to)) {
+            return -1.0;
+        }
+        int i = from;
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            int c = bytes[i];
+            if (c >= '0' && c <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (point) {
+                    decimals++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return convertDouble(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+            }
+        }
+        // both are exact doubles, so the one rounding of the division gives the nearest double
+        if (digits == 0 || mantissa >= 1L << 53 || decimals >= POWERS_OF_TEN.length) {
+            return convertDouble(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        }
+        double value = decimals == 0 ? mantissa : mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Return the whole number in bytes[from, to), read as convertInt reads it
+     * from a string: -1 if it is empty or just whitespace. Numbers of up to 9
+     * digits are worked out from the bytes without allocating; anything else
+     * is decoded and handed to convertInt, so the result is always the same.
+     */
+    static int parseInt(byte[] bytes, int from, int to) {
+        if (isBlank(bytes, from, to)) {
+            return -1;
+        }
+        int i = from;
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+') {
+            i++;
+        }
+        if (i == to || to - i > 9) {
+            return convertInt(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return convertInt(new String(bytes, from, to - from, StandardCharsets.UTF_8));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Returns true if bytes[from, to) holds nothing but the whitespace String.trim removes.
+     */
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((bytes[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     *
+     * @param doubleString the string to be converted to Double type
+     * @return the Double value of the string, or -1.0 if the string is
+     * either empty or just whitespace
+     */
+    static double convertDouble(String doubleString) {
+        if(doubleString != null && !doubleString.trim().equals("")){
+            return Double.parseDouble(doubleString);
+        }
+        return -1.0;
+    }
+
+
+    /**
+     *
+     * @param intString the string to be converted to Integer type
+     * @return the Integer value of the string, or -1 if the string is
+     * either empty or just whitespace
+     */
+    static int convertInt(String intString) {
+        if(intString != null && !intString.trim().equals("")){
+            return Integer.parseInt(intString);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * PointQuadtree is a region quadtree over the latitude and longitude of every
+ * property, used to draw the portfolio on a map. Each node covers a quarter
+ * of its parent's box and knows how many properties it holds and where their
+ * centre lies, so at a low zoom level a whole node can be drawn as a single
+ * cluster instead of visiting every property inside it.
+ *
+ * The nodes are kept in flat arrays, four siblings next to each other, and
+ * the rows of every node are kept together in one array, as GeoGrid does.
+ * Rows whose latitude or longitude is missing cannot be placed on the map
+ * and are left out, as they are from GeoGrid.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PointQuadtree {
+
+    /**
+     * Receives the clusters and single properties found by a query.
+     */
+    public interface ClusterVisitor {
+        /**
+         * Called with the centre of a cluster of count properties, one of
+         * which is row. When count is 1 the position is that of the property.
+         */
+        void visit(double latitude, double longitude, int count, int row);
+    }
+
+    private static final int ROWS_PER_LEAF = 16;
+    private static final int MAX_DEPTH = 24;
+
+    private final PropertyStore store;
+    private final int[] rows;
+
+    private int nodes;
+    private int[] firstChild = new int[64];
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private double[] souths = new double[64];
+    private double[] wests = new double[64];
+    private double[] norths = new double[64];
+    private double[] easts = new double[64];
+    private double[] centreLatitudes = new double[64];
+    private double[] centreLongitudes = new double[64];
+
+    public PointQuadtree(PropertyStore store) {
+        this.store = store;
+        int size = store.size();
+        int located = 0;
+        for (int row = 0; row < size; row++) {
+            if (store.hasLocation(row)) {
+                located++;
+            }
+        }
+        rows = new int[located];
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        int next = 0;
+        for (int row = 0; row < size; row++) {
+            if (!store.hasLocation(row)) {
+                continue;
+            }
+            rows[next++] = row;
+            south = Math.min(south, store.getLatitude(row));
+            north = Math.max(north, store.getLatitude(row));
+            west = Math.min(west, store.getLongitude(row));
+            east = Math.max(east, store.getLongitude(row));
+        }
+        if (located == 0) {
+            south = north = west = east = 0;
+        }
+        build(reserve(1), 0, located, south, west, north, east, 0);
+    }
+
+
+    /**
+     * Return the number of properties in the tree, those with a location.
+     */
+    public int size() {
+        return rows.length;
+    }
+
+
+    /**
+     * Return the southern edge of the box holding every property.
+     */
+    public double getSouth() {
+        return souths[0];
+    }
+
+
+    /**
+     * Return the western edge of the box holding every property.
+     */
+    public double getWest() {
+        return wests[0];
+    }
+
+
+    /**
+     * Return the northern edge of the box holding every property.
+     */
+    public double getNorth() {
+        return norths[0];
+    }
+
+
+    /**
+     * Return the eastern edge of the box holding every property.
+     */
+    public double getEast() {
+        return easts[0];
+    }
+
+
+    /**
+     * Visit the properties inside a latitude/longitude box. A node no larger
+     * than the given resolution in both directions is visited as one cluster;
+     * otherwise its properties are visited one by one. Clusters near the edge
+     * of the box may hold properties just outside it.
+     */
+    public void clusters(double south, double west, double north, double east,
+            double latitudeResolution, double longitudeResolution, ClusterVisitor visitor) {
+        if (rows.length > 0) {
+            visit(0, south, west, north, east, latitudeResolution, longitudeResolution, visitor);
+        }
+    }
+
+
+    private void visit(int node, double south, double west, double north, double east,
+            double latitudeResolution, double longitudeResolution, ClusterVisitor visitor) {
+        int count = ends[node] - starts[node];
+        if (count == 0 || souths[node] > north || norths[node] < south
+                || wests[node] > east || easts[node] < west) {
+            return;
+        }
+        boolean small = norths[node] - souths[node] <= latitudeResolution
+            && easts[node] - wests[node] <= longitudeResolution;
+        if (small || count == 1) {
+            visitor.visit(centreLatitudes[node], centreLongitudes[node], count, rows[starts[node]]);
+        } else if (firstChild[node] < 0) {
+            for (int i = starts[node]; i < ends[node]; i++) {
+                int row = rows[i];
+                double latitude = store.getLatitude(row);
+                double longitude = store.getLongitude(row);
+                if (latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+                    visitor.visit(latitude, longitude, 1, row);
+                }
+            }
+        } else {
+            for (int child = firstChild[node]; child < firstChild[node] + 4; child++) {
+                visit(child, south, west, north, east, latitudeResolution, longitudeResolution, visitor);
+            }
+        }
+    }
+
+
+    /**
+     * Fill in the given node for rows[start, end) inside the given box, and
+     * split it into four children while it holds more than ROWS_PER_LEAF rows.
+     */
+    private void build(int node, int start, int end, double south, double west, double north, double east,
+            int depth) {
+        double latitudeSum = 0;
+        double longitudeSum = 0;
+        for (int i = start; i < end; i++) {
+            latitudeSum += store.getLatitude(rows[i]);
+            longitudeSum += store.getLongitude(rows[i]);
+        }
+        int count = Math.max(end - start, 1);
+        starts[node] = start;
+        ends[node] = end;
+        souths[node] = south;
+        wests[node] = west;
+        norths[node] = north;
+        easts[node] = east;
+        centreLatitudes[node] = latitudeSum / count;
+        centreLongitudes[node] = longitudeSum / count;
+        firstChild[node] = -1;
+        if (end - start <= ROWS_PER_LEAF || depth == MAX_DEPTH) {
+            return;
+        }
+
+        double middleLatitude = (south + north) / 2;
+        double middleLongitude = (west + east) / 2;
+        int northStart = partition(start, end, row -> store.getLatitude(row) < middleLatitude);
+        int southEastStart = partition(start, northStart, row -> store.getLongitude(row) < middleLongitude);
+        int northEastStart = partition(northStart, end, row -> store.getLongitude(row) < middleLongitude);
+
+        // the arrays may grow while the children are built, so they are not held in locals
+        int child = reserve(4);
+        firstChild[node] = child;
+        build(child, start, southEastStart, south, west, middleLatitude, middleLongitude, depth + 1);
+        build(child + 1, southEastStart, northStart, south, middleLongitude, middleLatitude, east, depth + 1);
+        build(child + 2, northStart, northEastStart, middleLatitude, west, north, middleLongitude, depth + 1);
+        build(child + 3, northEastStart, end, middleLatitude, middleLongitude, north, east, depth + 1);
+    }
+
+
+    /**
+     * Move the rows of rows[start, end) that match the test to the front and
+     * return where the others start.
+     */
+    private int partition(int start, int end, IntPredicate test) {
+        int low = start;
+        int high = end - 1;
+        while (low <= high) {
+            if (test.test(rows[low])) {
+                low++;
+            } else {
+                int row = rows[low];
+                rows[low] = rows[high];
+                rows[high--] = row;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Return the index of the first of count new nodes.
+     */
+    private int reserve(int count) {
+        if (nodes + count > starts.length) {
+            int capacity = Math.max(starts.length * 2, nodes + count);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            souths = Arrays.copyOf(souths, capacity);
+            wests = Arrays.copyOf(wests, capacity);
+            norths = Arrays.copyOf(norths, capacity);
+            easts = Arrays.copyOf(easts, capacity);
+            centreLatitudes = Arrays.copyOf(centreLatitudes, capacity);
+            centreLongitudes = Arrays.copyOf(centreLongitudes, capacity);
+        }
+        int first = nodes;
+        nodes += count;
+        return first;
+    }
+}
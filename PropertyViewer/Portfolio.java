@@ -1,18 +1,55 @@
-import com.opencsv.CSVReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 
 /**
  * A portfolio is a collection of properties. It reads properties from a file on disk,
  * and it can be used to retrieve single properties.
  *
- * The file name to read from is passed in at construction.
+ * The file name to read from is passed in at construction. Rows are held
+ * column by column in a PropertyStore; Property objects are views made on demand.
+ *
+ * When the file changes, the portfolio can be reloaded incrementally: the
+ * bytes of every record are hashed as it is loaded, so only records whose
+ * bytes changed since are parsed again, and the new rows and their
+ * indexes are built beside the current ones and swapped in at once. Every
+ * query reads one version from start to finish, so readers never see a
+ * half-applied reload, and Property objects from an older version stay valid.
+ *
+ * A portfolio can also be opened lazily, for files too large for the heap.
+ * Only an index of where each page of rows starts is built; rows are read a
+ * page at a time as they are asked for and kept in a bounded cache. A lazy
+ * portfolio answers neighbour queries by scanning the file, and has no
+ * filters, statistics, geographic queries or reloads.
+ *
+ * The k nearest neighbours of every property can be worked out at load
+ * time, by setting the system property propertyviewer.neighbours to k or
+ * calling useNeighbourGraph. Neighbour queries about a property asking for
+ * no more than k are then answered from this NeighbourGraph by a lookup. The
+ * graph is saved next to the file and only built again when the file or
+ * the feature weights change.
+ *
+ * For portfolios too large for a KdTree, neighbour queries can instead be
+ * answered approximately from an LshIndex, by setting the system property
+ * propertyviewer.approximate or calling useApproximateIndex. Queries are
+ * then much cheaper to index for, but may miss some of the true neighbours.
+ *
+ * Finally, a portfolio can be loaded in the background. It is returned at
+ * once and its rows can be read as soon as they are parsed, in file order;
+ * numberOfProperties grows as they arrive. Other queries become available
+ * when loading is finished and the indexes are built.
  *
  * @author Michael Kölling and Josh Murphy
  * 
@@ -21,10 +58,292 @@ import java.util.List;
  */
 public class Portfolio {
     
-    private List<Property> properties;
+    private final boolean buildNearestNeighbourIndex;
+    private volatile Version current;
+    // the number of reloads applied, so results kept from an earlier version can be told apart
+    private volatile int versionNumber;
+    private PagedProperties pages;
+    private Path file;
+    // the hash of the record each row was read from by the last loadProperties call
+    private long[] loadedHashes;
+    // the attributes the file had when the last loadProperties call started reading it
+    private BasicFileAttributes loadedAttributes;
+    // whether the file could not be read, so the portfolio is empty
+    private volatile boolean loadFailed;
+    private volatile LoadedChunks loadedChunks;
+    private volatile double[] featureWeights = FeatureScaling.defaultWeights();
+    private volatile int neighbourGraphSize = Integer.getInteger("propertyviewer.neighbours", 0);
+    private volatile LshIndex.Settings approximateSettings = LshIndex.Settings.configured();
+    // the scaling shared with other portfolios, or null to standardise over this one
+    private volatile FeatureScaling sharedScaling;
+    // whether features are left unscaled until a shared scaling is set
+    private volatile boolean awaitingScaling;
 
     public Portfolio(String fileName) {
-        properties = loadProperties(fileName);
+        this(fileName, true);
+    }
+
+    
+    /**
+     * Create a portfolio, optionally without a nearest neighbour index. Without
+     * one, neighbour queries fall back to a parallel scan of every property.
+     */
+    public Portfolio(String fileName, boolean buildNearestNeighbourIndex) {
+        this.buildNearestNeighbourIndex = buildNearestNeighbourIndex;
+        PropertyStore listings = loadProperties(fileName);
+        current = new Version(listings, loadedHashes, loadedAttributes);
+    }
+
+    
+    /**
+     * Create a portfolio whose features are not scaled, nor indexed, until
+     * setFeatureScaling is called, so that a ShardedPortfolio can measure
+     * all its shards first. Neighbour queries fail until then.
+     */
+    Portfolio(String fileName, boolean buildNearestNeighbourIndex, boolean awaitScaling) {
+        this.buildNearestNeighbourIndex = buildNearestNeighbourIndex;
+        this.awaitingScaling = awaitScaling;
+        PropertyStore listings = loadProperties(fileName);
+        current = new Version(listings, loadedHashes, loadedAttributes);
+    }
+
+    
+    private Portfolio(PagedProperties pages) {
+        this.buildNearestNeighbourIndex = false;
+        this.pages = pages;
+    }
+
+    
+    /**
+     * Open a portfolio lazily, keeping at most cachedPages pages of rows in
+     * memory. Throws IOException if the file cannot be read.
+     */
+    public static Portfolio openLazily(String fileName, int cachedPages) throws IOException {
+        try {
+            Path file = resolveFile(fileName);
+            System.out.print("Indexing Airbnb london dataset...");
+            PagedProperties pages = PagedProperties.open(file, PagedProperties.DEFAULT_PAGE_SIZE, cachedPages);
+            System.out.println("Success! Number of indexed records: " + pages.size());
+            return new Portfolio(pages);
+        } catch (URISyntaxException e) {
+            throw new IOException("Failure! Could not locate " + fileName, e);
+        }
+    }
+
+    
+    /**
+     * Told how loading a portfolio in the background is going.
+     */
+    public interface LoadListener {
+        /**
+         * Called, on the loading thread, each time more rows can be read:
+         * rowsAvailable properties, and fractionDone of the file parsed.
+         */
+        void rowsLoaded(int rowsAvailable, double fractionDone);
+
+        /**
+         * Called, on the loading thread, once every query is available.
+         */
+        void loaded();
+    }
+
+    
+    private Portfolio(boolean buildNearestNeighbourIndex, LoadedChunks loadedChunks) {
+        this.buildNearestNeighbourIndex = buildNearestNeighbourIndex;
+        this.loadedChunks = loadedChunks;
+    }
+
+    
+    /**
+     * Start loading a portfolio, with a nearest neighbour index, on a
+     * background thread and return it at once. The listener is told as rows
+     * arrive and when loading is finished.
+     */
+    public static Portfolio loadInBackground(String fileName, LoadListener listener) {
+        Portfolio portfolio = new Portfolio(true, new LoadedChunks(new PropertyStore[0], new int[0], 0));
+        Thread loader = new Thread(() -> portfolio.finishLoading(fileName, listener), "portfolio-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return portfolio;
+    }
+
+    
+    /**
+     * Load the file on the calling thread, publishing each chunk of rows as
+     * it is parsed, then switch to the fully indexed version.
+     */
+    private void finishLoading(String fileName, LoadListener listener) {
+        PropertyStore listings;
+        try {
+            listings = loadProperties(fileName, (chunk, firstRow, fractionDone) -> {
+                LoadedChunks chunks = loadedChunks.append(chunk, firstRow);
+                loadedChunks = chunks;
+                listener.rowsLoaded(chunks.size, fractionDone);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("Failure! Something went wrong when loading the property file");
+            e.printStackTrace();
+            listings = new PropertyStore();
+            loadedHashes = null;
+            loadFailed = true;
+        }
+        // with the lock held, so that weights set while loading are not lost
+        synchronized (this) {
+            current = new Version(listings, loadedHashes, loadedAttributes);
+        }
+        loadedChunks = null;
+        listener.loaded();
+    }
+
+    
+    /**
+     * The chunks of rows parsed so far while loading in the background.
+     */
+    private static class LoadedChunks {
+        final PropertyStore[] chunks;
+        final int[] firstRows;
+        final int size;
+
+        LoadedChunks(PropertyStore[] chunks, int[] firstRows, int size) {
+            this.chunks = chunks;
+            this.firstRows = firstRows;
+            this.size = size;
+        }
+
+        LoadedChunks append(PropertyStore chunk, int firstRow) {
+            int n = chunks.length;
+            PropertyStore[] moreChunks = Arrays.copyOf(chunks, n + 1);
+            int[] moreFirstRows = Arrays.copyOf(firstRows, n + 1);
+            moreChunks[n] = chunk;
+            moreFirstRows[n] = firstRow;
+            return new LoadedChunks(moreChunks, moreFirstRows, firstRow + chunk.size());
+        }
+
+        Property getProperty(int row) {
+            Objects.checkIndex(row, size);
+            int chunk = Arrays.binarySearch(firstRows, row);
+            if (chunk < 0) {
+                chunk = -chunk - 2;
+            }
+            // an empty chunk shares its first row with the next one
+            while (chunk + 1 < firstRows.length && firstRows[chunk + 1] == row) {
+                chunk++;
+            }
+            return chunks[chunk].getProperty(row - firstRows[chunk]);
+        }
+    }
+
+    
+    /**
+     * One version of the rows of the portfolio, with the indexes built over them.
+     */
+    private class Version {
+        final PropertyStore properties;
+        volatile Features features;
+        final GeoGrid geographicIndex;
+        final PointQuadtree mapIndex;
+        final SecondaryIndexes secondaryIndexes;
+        final StatisticsEngine statistics;
+        final SortOrders sortOrders;
+        private Map<String, Integer> rowsByID;
+        // hash of the record each row was read from, or null if they are not known
+        final long[] recordHashes;
+        // the attributes the file had before the rows were read from it, or null if they are not known
+        final BasicFileAttributes fileAttributes;
+
+        Version(PropertyStore properties, long[] recordHashes, BasicFileAttributes fileAttributes) {
+            this.properties = properties;
+            this.recordHashes = recordHashes;
+            this.fileAttributes = fileAttributes;
+            geographicIndex = new GeoGrid(properties);
+            mapIndex = new PointQuadtree(properties);
+            secondaryIndexes = new SecondaryIndexes(properties);
+            statistics = new StatisticsEngine(properties, secondaryIndexes.getHostIndex());
+            sortOrders = new SortOrders(properties);
+            FeatureScaling scaling = sharedScaling;
+            features = scaling != null ? new Features(this, scaling.withWeights(featureWeights))
+                : awaitingScaling ? null
+                : new Features(this, FeatureScaling.standardise(properties, featureWeights));
+        }
+
+        /**
+         * Return the row of every listing id, built the first time it is asked for.
+         */
+        synchronized Map<String, Integer> rowsByID() {
+            if (rowsByID == null) {
+                rowsByID = new HashMap<>(properties.size() * 4 / 3 + 1);
+                for (int row = 0; row < properties.size(); row++) {
+                    rowsByID.putIfAbsent(properties.getID(row), row);
+                }
+            }
+            return rowsByID;
+        }
+    }
+
+    
+    /**
+     * The scaled features of the rows of a version, the nearest neighbour
+     * index over them, exact or approximate, and the neighbour graph, if
+     * there is one, replaced together when the feature weights change.
+     */
+    private class Features {
+        final FeatureMatrix matrix;
+        final KdTree nearestNeighbourIndex;
+        final LshIndex approximateIndex;
+        final NeighbourGraph neighbourGraph;
+
+        Features(Version version, FeatureScaling scaling) {
+            matrix = new FeatureMatrix(version.properties, scaling);
+            LshIndex.Settings settings = approximateSettings;
+            approximateIndex = settings != null ? new LshIndex(matrix, settings) : null;
+            nearestNeighbourIndex = buildNearestNeighbourIndex && settings == null ? new KdTree(matrix) : null;
+            neighbourGraph = neighbourGraph(matrix, nearestNeighbourIndex, neighbourGraphSize, version.fileAttributes);
+        }
+
+        /**
+         * Keep the features and indexes of a version, with a neighbour graph of k neighbours.
+         */
+        Features(Version version, int k) {
+            Features features = version.features;
+            matrix = features.matrix;
+            nearestNeighbourIndex = features.nearestNeighbourIndex;
+            approximateIndex = features.approximateIndex;
+            neighbourGraph = neighbourGraph(matrix, nearestNeighbourIndex, k, version.fileAttributes);
+        }
+    }
+
+    
+    /**
+     * Return the graph of the k nearest neighbours of every row, read from
+     * next to the file if it is up to date and built and saved otherwise, or
+     * null if k is 0. The graph is stamped with the given attributes, those
+     * the file had before the rows were read from it; if they are not known
+     * it is neither read nor saved.
+     */
+    private NeighbourGraph neighbourGraph(FeatureMatrix matrix, KdTree index, int k,
+            BasicFileAttributes fileAttributes) {
+        if (k == 0) {
+            return null;
+        }
+        double[] scales = matrix.getScaling().getScales();
+        boolean saved = file != null && fileAttributes != null;
+        try {
+            NeighbourGraph graph = saved ? NeighbourGraph.read(file, fileAttributes, matrix.size(), k, scales) : null;
+            if (graph != null) {
+                return graph;
+            }
+        } catch (IOException e) {
+            // built again below
+        }
+        NeighbourGraph graph = NeighbourGraph.build(matrix, index != null ? index : new KdTree(matrix), k);
+        if (saved) {
+            try {
+                graph.write(file, fileAttributes, scales);
+            } catch (IOException e) {
+                System.out.println("Could not write neighbour graph: " + e.getMessage());
+            }
+        }
+        return graph;
     }
 
     
@@ -32,7 +351,19 @@ public class Portfolio {
      * Return a property from this Portfolio.
      */
     public Property getProperty(int propertyNumber) {
-        return properties.get(propertyNumber);
+        if (pages != null) {
+            return pages.getProperty(propertyNumber);
+        }
+        Version version = current;
+        if (version == null) {
+            LoadedChunks chunks = loadedChunks;
+            if (chunks != null) {
+                return chunks.getProperty(propertyNumber);
+            }
+            // loading finished since current was read
+            version = current;
+        }
+        return version.properties.getProperty(propertyNumber);
     }
 
     
@@ -40,73 +371,781 @@ public class Portfolio {
      * Return the number of Properties in this Portfolio.
      */
     public int numberOfProperties() {
-        return properties.size();
+        if (pages != null) {
+            return pages.size();
+        }
+        Version version = current;
+        if (version == null) {
+            LoadedChunks chunks = loadedChunks;
+            if (chunks != null) {
+                return chunks.size;
+            }
+            version = current;
+        }
+        return version.properties.size();
+    }
+
+    
+    /**
+     * Returns false while a portfolio loaded in the background is still
+     * loading, and true once every query is available.
+     */
+    public boolean isLoaded() {
+        return pages != null || current != null;
+    }
+
+    
+    /**
+     * Returns true if this portfolio was opened lazily and reads its rows a page at a time.
+     */
+    public boolean isLazy() {
+        return pages != null;
+    }
+
+    
+    /**
+     * Return the number of the version of the rows being served, which
+     * changes whenever a reload is applied. Property numbers, and anything
+     * else kept from one version, should not be used with another.
+     */
+    public int getVersionNumber() {
+        return versionNumber;
+    }
+
+    
+    /**
+     * Return the number of property lookups answered from the page cache of a
+     * lazy portfolio; always 0 for one held in memory.
+     */
+    public long getPageCacheHits() {
+        return pages != null ? pages.getHits() : 0;
+    }
+
+    
+    /**
+     * Return the number of property lookups that had to read a page from the
+     * file in a lazy portfolio; always 0 for one held in memory.
+     */
+    public long getPageCacheMisses() {
+        return pages != null ? pages.getMisses() : 0;
+    }
+
+    
+    /**
+     * Return the number of the property with the given listing id, or -1 if
+     * there is none. If several properties share the id, the first is returned.
+     */
+    public int findByID(String id) {
+        Integer row = loadedVersion("Lookups by id").rowsByID().get(id);
+        return row == null ? -1 : row;
+    }
+
+    
+    /**
+     * Return the properties matching a filter.
+     */
+    public PropertySelection filter(Filter filter) {
+        return new PropertySelection(filter.evaluate(loadedVersion("Filters").secondaryIndexes));
+    }
+
+    
+    /**
+     * Return the at most limit properties whose descriptions contain every
+     * word of a keyword query, best match first, among those matching the
+     * filter, or every property if the filter is null. A word ending in *
+     * matches every word starting with it.
+     */
+    public TextIndex.Matches searchDescriptions(String query, Filter filter, int limit) {
+        SecondaryIndexes indexes = loadedVersion("Keyword searches").secondaryIndexes;
+        return indexes.getTextIndex().search(query, filter == null ? null : filter.evaluate(indexes), limit);
+    }
+
+    
+    /**
+     * Return the numbers of every property listed by the given host, in
+     * portfolio order, looked up in the host index rather than scanned for.
+     */
+    public int[] findByHost(String hostID) {
+        return loadedVersion("Host lookups").secondaryIndexes.getHostIndex().rowsOf(hostID);
+    }
+
+    
+    /**
+     * Return the at most limit hosts with the most listings, most first.
+     */
+    public HostIndex.TopHosts topHosts(int limit) {
+        return loadedVersion("Host lookups").secondaryIndexes.getHostIndex().topHosts(limit);
+    }
+
+    
+    /**
+     * Return price, availability and room type statistics for every
+     * neighbourhood or host, largest group first.
+     */
+    public List<GroupStatistics> statisticsBy(StatisticsEngine.Grouping grouping) {
+        return loadedVersion("Statistics").statistics.byGroup(grouping);
+    }
+
+    
+    /**
+     * Return price, availability and room type statistics over the whole portfolio.
+     */
+    public GroupStatistics overallStatistics() {
+        return loadedVersion("Statistics").statistics.overall();
+    }
+
+    
+    /**
+     * Return the property numbers in ascending order of the given column,
+     * ties in portfolio order. The array is shared and must not be modified.
+     */
+    public int[] sortedBy(SortOrders.Column column) {
+        return loadedVersion("Sorting").sortOrders.ascending(column);
+    }
+
+    
+    /**
+     * Return the number of the property closest to the given one, comparing
+     * their features as scaled by getFeatureScaling(), or -1 if there is no
+     * other property. The property itself is never returned.
+     */
+    public int findNearest(int propertyNumber) {
+        Neighbours nearest = findNearest(propertyNumber, 1);
+        return nearest.size() == 0 ? -1 : nearest.getPropertyNumber(0);
+    }
+
+    
+    /**
+     * Return the k properties closest to the given one, nearest first.
+     * The property itself is never returned.
+     */
+    public Neighbours findNearest(int propertyNumber, int k) {
+        Version version = neighbourVersion();
+        return search(version, featureVector(version, propertyNumber), propertyNumber, k,
+            Double.POSITIVE_INFINITY);
+    }
+
+    
+    /**
+     * Return the k properties closest to a feature vector laid out like
+     * Property.getVector(), nearest first.
+     */
+    public Neighbours findNearest(double[] vector, int k) {
+        return search(neighbourVersion(), checkVector(vector), -1, k, Double.POSITIVE_INFINITY);
+    }
+
+    
+    /**
+     * Return every property no further than distance from the given one, nearest first.
+     * Distances are between scaled features. The property itself is never returned.
+     */
+    public Neighbours findWithinDistance(int propertyNumber, double distance) {
+        Version version = neighbourVersion();
+        return search(version, featureVector(version, propertyNumber), propertyNumber, Integer.MAX_VALUE,
+            distance);
     }
 
     
     /**
-     * Return an ArrayList containing the rows in the AirBnB London data set csv file.
+     * Return every property no further than distance from a feature vector laid
+     * out like Property.getVector(), nearest first. Distances are between scaled features.
      */
-    public List<Property> loadProperties(String fileName) {
+    public Neighbours findWithinDistance(double[] vector, double distance) {
+        return search(neighbourVersion(), checkVector(vector), -1, Integer.MAX_VALUE, distance);
+    }
+
+    
+    /**
+     * Return every property within the given number of metres of another,
+     * measured along the earth's surface, nearest first. Distances are in metres.
+     */
+    public Neighbours findWithinMetres(int propertyNumber, double metres) {
+        Version version = loadedVersion("Distance queries");
+        Neighbours result = new Neighbours(Integer.MAX_VALUE);
+        version.geographicIndex.withinMetres(version.properties.getLatitude(propertyNumber),
+            version.properties.getLongitude(propertyNumber), metres, propertyNumber, result);
+        return result;
+    }
+
+    
+    /**
+     * Return every property within the given number of metres of a point,
+     * measured along the earth's surface, nearest first. Distances are in metres.
+     */
+    public Neighbours findWithinMetres(double latitude, double longitude, double metres) {
+        Version version = loadedVersion("Distance queries");
+        Neighbours result = new Neighbours(Integer.MAX_VALUE);
+        version.geographicIndex.withinMetres(latitude, longitude, metres, -1, result);
+        return result;
+    }
+
+    
+    /**
+     * Return the numbers of the properties inside a map viewport, in portfolio order.
+     */
+    public int[] findInViewport(double south, double west, double north, double east) {
+        return loadedVersion("Viewport queries").geographicIndex.inBoundingBox(south, west, north, east);
+    }
+
+    
+    /**
+     * Visit the properties inside a map viewport, merging those closer
+     * together than the given resolution into clusters, as PointQuadtree does.
+     */
+    public void clustersInViewport(double south, double west, double north, double east,
+            double latitudeResolution, double longitudeResolution, PointQuadtree.ClusterVisitor visitor) {
+        loadedVersion("Maps").mapIndex.clusters(south, west, north, east,
+            latitudeResolution, longitudeResolution, visitor);
+    }
+
+    
+    /**
+     * Return the smallest box holding every property with a location, as
+     * {south, west, north, east}.
+     */
+    public double[] mapBounds() {
+        PointQuadtree mapIndex = loadedVersion("Maps").mapIndex;
+        return new double[] {mapIndex.getSouth(), mapIndex.getWest(), mapIndex.getNorth(), mapIndex.getEast()};
+    }
+
+    
+    /**
+     * Returns true if nearest neighbour queries are answered from an index
+     * rather than by scanning every property.
+     */
+    public boolean hasNearestNeighbourIndex() {
+        Features features = current == null ? null : current.features;
+        return features != null && (features.nearestNeighbourIndex != null || features.approximateIndex != null);
+    }
+
+    
+    /**
+     * Answer neighbour queries approximately from an LshIndex built with the
+     * given settings, now and whenever the portfolio is reloaded, instead of
+     * from a KdTree. Pass null to go back to exact answers. Not available for
+     * a lazily loaded portfolio.
+     */
+    public synchronized void useApproximateIndex(LshIndex.Settings settings) {
+        if (pages != null) {
+            throw new IllegalStateException("Approximate indexes are not available for a lazily loaded portfolio");
+        }
+        approximateSettings = settings;
+        Version version = current;
+        if (version != null && version.features != null) {
+            version.features = new Features(version, version.features.matrix.getScaling());
+        }
+    }
+
+    
+    /**
+     * Returns true if neighbour queries may be answered approximately.
+     */
+    public boolean isApproximate() {
+        Features features = current == null ? null : current.features;
+        return features != null && features.approximateIndex != null;
+    }
+
+    
+    /**
+     * Work out the k nearest neighbours of every property, now and whenever
+     * the portfolio is reloaded, so that neighbour queries asking for no more
+     * than k are answered by a lookup. Pass 0 to stop. Not available for a
+     * lazily loaded portfolio.
+     */
+    public synchronized void useNeighbourGraph(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        if (pages != null) {
+            throw new IllegalStateException("Neighbour graphs are not available for a lazily loaded portfolio");
+        }
+        neighbourGraphSize = k;
+        Version version = current;
+        if (version != null && version.features != null) {
+            version.features = new Features(version, k);
+        }
+    }
+
+    
+    /**
+     * Return the number of neighbours kept for each property by the neighbour
+     * graph, or 0 if there is none.
+     */
+    public int getNeighbourGraphSize() {
+        Features features = current == null ? null : current.features;
+        NeighbourGraph graph = features == null ? null : features.neighbourGraph;
+        return graph == null ? 0 : graph.getK();
+    }
+
+    
+    /**
+     * Return how features are standardised and weighed against each other
+     * by neighbour queries.
+     */
+    public FeatureScaling getFeatureScaling() {
+        if (pages != null) {
+            return pages.getFeatureScaling();
+        }
+        return scaledFeatures(loadedVersion("Neighbour queries")).matrix.getScaling();
+    }
+
+    
+    /**
+     * Weigh the features compared by neighbour queries with the given weights,
+     * one for each feature of Property.getVector(), rebuilding the nearest
+     * neighbour index. Versions loaded later keep the weights.
+     */
+    public synchronized void setFeatureWeights(double... weights) {
+        double[] checked = FeatureScaling.checkWeights(weights.clone());
+        featureWeights = checked;
+        if (pages != null) {
+            pages.setFeatureWeights(checked);
+            return;
+        }
+        Version version = current;
+        if (version != null && version.features != null) {
+            version.features = new Features(version, version.features.matrix.getScaling().withWeights(checked));
+        }
+    }
+
+    
+    /**
+     * Standardise features with the given scaling, now and whenever the
+     * portfolio is reloaded, instead of one measured over this portfolio's
+     * own properties, so that distances can be compared with those of other
+     * portfolios using the same scaling. Its weights become the feature
+     * weights. Pass null to measure this portfolio's own again. Not available
+     * for a lazily loaded portfolio.
+     */
+    public synchronized void setFeatureScaling(FeatureScaling scaling) {
+        if (pages != null) {
+            throw new IllegalStateException("Shared feature scalings are not available for a lazily loaded portfolio");
+        }
+        sharedScaling = scaling;
+        awaitingScaling = false;
+        if (scaling != null) {
+            featureWeights = scaling.getWeights();
+        }
+        Version version = current;
+        if (version != null) {
+            version.features = new Features(version, scaling != null ? scaling
+                : FeatureScaling.standardise(version.properties, featureWeights));
+        }
+    }
+
+    
+    /**
+     * Return the moments of the features of every property, for a scaling
+     * shared with other portfolios to be measured from.
+     */
+    FeatureScaling.Moments measureFeatures() {
+        FeatureScaling.Moments moments = new FeatureScaling.Moments();
+        moments.add(loadedVersion("Feature measurements").properties);
+        return moments;
+    }
+
+    
+    /**
+     * Read the file again and apply its changes at once. Throws IOException
+     * if the file cannot be read or changes while it is being read.
+     */
+    public Reload reload() throws IOException {
+        Reload reload = prepareReload();
+        reload.apply();
+        return reload;
+    }
+
+    
+    /**
+     * Read the file again and build the next version of the portfolio from
+     * it, without applying it yet. Listings are matched by id: a record whose
+     * bytes are unchanged is copied from the current version, and only runs
+     * of new or changed records are parsed. Favourites are kept for listings
+     * that are still present. Throws IOException if the file cannot be read
+     * or changes while it is being read.
+     */
+    public synchronized Reload prepareReload() throws IOException {
+        Version base = loadedVersion("Reloads");
+        PropertyStore old = base.properties;
+        long[] oldHashes = base.recordHashes;
+        BasicFileAttributes attributes = attributes(file);
+        String stamp = stamp(attributes);
+        ListingsDigest digest = ListingsDigest.of(file);
+
+        Map<String, Integer> oldRows = new HashMap<>(old.size() * 2);
+        for (int row = 0; row < old.size(); row++) {
+            oldRows.put(old.getID(row), row);
+        }
+        Reload reload = new Reload(base, old.size());
+        PropertyStore next = new PropertyStore(digest.size());
+        long[] nextHashes = new long[digest.size()];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int runStart = -1;
+            for (int i = 0; i <= digest.size(); i++) {
+                Integer oldRow = i < digest.size() ? oldRows.get(digest.getID(i)) : null;
+                boolean unchanged = oldRow != null && oldHashes != null && oldHashes[oldRow] == digest.getHash(i);
+                if (i < digest.size() && !unchanged) {
+                    if (runStart < 0) {
+                        runStart = i;
+                    }
+                    continue;
+                }
+                if (runStart >= 0) {
+                    parseRun(channel, digest, runStart, i, old, oldRows, next, nextHashes, reload);
+                    runStart = -1;
+                }
+                if (i < digest.size()) {
+                    int row = next.addRow(old, oldRow);
+                    nextHashes[row] = digest.getHash(i);
+                    reload.newRows[oldRow] = row;
+                    reload.unchanged++;
+                }
+            }
+        }
+        if (!stamp(file).equals(stamp)) {
+            throw new IOException("Failure! The property file changed while it was being reloaded");
+        }
+
+        for (int row = 0; row < old.size(); row++) {
+            if (reload.newRows[row] < 0) {
+                reload.deleted++;
+            }
+        }
+        next.trimToSize();
+        long[] hashes = Arrays.copyOf(nextHashes, next.size());
+        reload.next = new Version(next, hashes, attributes);
+        writeSnapshot(next, hashes, file, attributes);
+        return reload;
+    }
+
+    
+    /**
+     * Parse the changed records digest[from, to) and append them to next,
+     * keeping the favourite state of the listings they update.
+     */
+    private void parseRun(FileChannel channel, ListingsDigest digest, int from, int to,
+            PropertyStore old, Map<String, Integer> oldRows, PropertyStore next, long[] nextHashes,
+            Reload reload) throws IOException {
+        // include the line break after the last record so that a \r before it is dropped
+        long end = Math.min(digest.getEnd(to - 1) + 1, channel.size());
+        PropertyStore parsed = ParallelCsvLoader.parseRange(channel, digest.getStart(from), end, false);
+        Map<String, Long> hashes = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            hashes.put(digest.getID(i), digest.getHash(i));
+        }
+        for (int parsedRow = 0; parsedRow < parsed.size(); parsedRow++) {
+            String id = parsed.getID(parsedRow);
+            int row = next.addRow(parsed, parsedRow);
+            nextHashes[row] = hashes.getOrDefault(id, 0L);
+            Integer oldRow = oldRows.get(id);
+            if (oldRow == null) {
+                reload.inserted++;
+                continue;
+            }
+            reload.updated++;
+            reload.newRows[oldRow] = row;
+            if (old.isFavourite(oldRow)) {
+                next.toggleFavourite(row);
+            }
+            if (old.getFavouriteId(oldRow) != 0) {
+                next.setFavouriteId(row, old.getFavouriteId(oldRow));
+            }
+        }
+    }
+
+    
+    /**
+     * A new version of the portfolio, read from the changed file but not yet
+     * visible, together with what changed. Applying it makes every query see
+     * the new version at once.
+     */
+    public class Reload {
+        private final Version base;
+        private final int[] newRows;
+        private Version next;
+        private int inserted;
+        private int updated;
+        private int deleted;
+        private int unchanged;
+
+        private Reload(Version base, int oldSize) {
+            this.base = base;
+            this.newRows = new int[oldSize];
+            Arrays.fill(newRows, -1);
+        }
+
+        /**
+         * Make the new version visible. Throws IllegalStateException if the
+         * portfolio was reloaded again since this reload was prepared.
+         */
+        public void apply() {
+            synchronized (Portfolio.this) {
+                if (current != base) {
+                    throw new IllegalStateException("The portfolio changed since this reload was prepared");
+                }
+                current = next;
+                versionNumber++;
+            }
+        }
+
+        /**
+         * Return the number in the new version of a property of the previous
+         * version, or -1 if it was deleted.
+         */
+        public int newPropertyNumber(int oldPropertyNumber) {
+            return newRows[oldPropertyNumber];
+        }
+
+        /**
+         * Return the number of listings that are new in the file.
+         */
+        public int getInserted() {
+            return inserted;
+        }
+
+        /**
+         * Return the number of listings whose record in the file changed.
+         */
+        public int getUpdated() {
+            return updated;
+        }
+
+        /**
+         * Return the number of listings no longer in the file.
+         */
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * Return the number of listings copied unchanged.
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + deleted + " deleted, "
+                + unchanged + " unchanged";
+        }
+    }
+
+    
+    /**
+     * Return the current version, or throw IllegalStateException if this
+     * portfolio was opened lazily or has not finished loading.
+     */
+    private Version loadedVersion(String feature) {
+        if (pages != null) {
+            throw new IllegalStateException(feature + " are not available for a lazily loaded portfolio");
+        }
+        Version version = current;
+        if (version == null) {
+            throw new IllegalStateException(feature + " are not available until the portfolio has loaded");
+        }
+        return version;
+    }
+
+    
+    /**
+     * Return the version to answer a neighbour query from: none for a lazy
+     * portfolio, which scans its pages instead.
+     */
+    private Version neighbourVersion() {
+        return pages != null ? null : loadedVersion("Neighbour queries");
+    }
+
+    
+    /**
+     * Scale an unscaled feature vector and run a neighbour query with it
+     * against the approximate or exact index, or by a parallel scan if there
+     * is none. A query about a property is answered from the neighbour graph
+     * if it holds every neighbour asked for.
+     */
+    private Neighbours search(Version version, double[] vector, int excludedRow, int limit, double maxDistance) {
+        Neighbours result = new Neighbours(limit);
+        if (pages != null) {
+            pages.search(vector, excludedRow, maxDistance, limit, result);
+            return result;
+        }
+        Features features = scaledFeatures(version);
+        if (features.neighbourGraph != null && excludedRow >= 0
+                && features.neighbourGraph.search(features.matrix, excludedRow, limit, maxDistance, result)) {
+            return result;
+        }
+        double[] query = new double[KdTree.DIMENSIONS];
+        features.matrix.getScaling().scale(vector, query);
+        if (features.approximateIndex != null) {
+            features.approximateIndex.search(query, excludedRow, maxDistance, result);
+        } else if (features.nearestNeighbourIndex != null) {
+            features.nearestNeighbourIndex.search(query, excludedRow, maxDistance, result);
+        } else {
+            NeighbourScan.search(features.matrix, 0, query, excludedRow, maxDistance, limit, result);
+        }
+        return result;
+    }
+
+    
+    /**
+     * Return the features of a version, or throw IllegalStateException if
+     * they are still waiting for a scaling shared with other portfolios.
+     */
+    private static Features scaledFeatures(Version version) {
+        Features features = version.features;
+        if (features == null) {
+            throw new IllegalStateException("Neighbour queries are not available until the feature scaling is set");
+        }
+        return features;
+    }
+
+    
+    /**
+     * Return the unscaled feature vector of a property, for a ShardedPortfolio
+     * to ask other shards for its neighbours.
+     */
+    double[] featureVector(int propertyNumber) {
+        return featureVector(loadedVersion("Neighbour queries"), propertyNumber);
+    }
+
+    
+    private double[] featureVector(Version version, int propertyNumber) {
+        double[] vector = new double[KdTree.DIMENSIONS];
+        if (pages != null) {
+            pages.featureVector(propertyNumber, vector);
+        } else {
+            FeatureMatrix.featureVector(version.properties, propertyNumber, vector, 0);
+        }
+        return vector;
+    }
+
+    
+    private double[] checkVector(double[] vector) {
+        if (vector.length != KdTree.DIMENSIONS) {
+            throw new IllegalArgumentException("Expected a vector of " + KdTree.DIMENSIONS
+                + " features but got " + vector.length);
+        }
+        return vector;
+    }
+
+    
+    /**
+     * Return a PropertyStore containing the rows in the AirBnB London data set csv file.
+     * A binary snapshot next to the file is used when it is up to date; otherwise
+     * the file is parsed in parallel by a ParallelCsvLoader and a new snapshot is written.
+     */
+    public PropertyStore loadProperties(String fileName) {
+        return loadProperties(fileName, null);
+    }
+
+    
+    /**
+     * Return a PropertyStore containing the rows in the AirBnB London data set
+     * csv file, handing the rows to listener, if it is not null, as they are
+     * parsed. A snapshot is handed over as a single chunk.
+     */
+    public PropertyStore loadProperties(String fileName, ParallelCsvLoader.ChunkListener listener) {
         System.out.print("Begin loading Airbnb london dataset...");
-        ArrayList<Property> listings = new ArrayList<Property>();
+        PropertyStore listings = new PropertyStore();
+        loadedHashes = null;
+        loadedAttributes = null;
+        loadFailed = false;
         try{
-            URL url = getClass().getResource(fileName);
-            CSVReader reader = new CSVReader(new FileReader(new File(url.toURI()).getAbsolutePath()));
-            String [] line;
-            //skip the first row (column headers)
-            reader.readNext();
-            while ((line = reader.readNext()) != null) {
-                String id = line[0];
-                String name = line[1];
-                String host_id = line[2];
-                String host_name = line[3];
-                String neighbourhood = line[4];
-                double latitude = convertDouble(line[5]);
-                double longitude = convertDouble(line[6]);
-                String room_type = line[7];
-                int price = convertInt(line[8]);
-                int minimumNights = convertInt(line[9]);
-                int availability365 = convertInt(line[13]);
-
-                Property currentProperty = new Property(id, name, host_id, host_name,
-                    neighbourhood, latitude,longitude, room_type, price,
-                    minimumNights, availability365);
-                listings.add(currentProperty);
+            file = resolveFile(fileName);
+            // taken before the file is read, so that a snapshot of rows from a file rewritten meanwhile is out of date
+            BasicFileAttributes attributes = attributes(file);
+            loadedAttributes = attributes;
+            PropertySnapshot snapshot = PropertySnapshot.read(file);
+            if (snapshot != null) {
+                listings = snapshot.getStore();
+                loadedHashes = snapshot.getRecordHashes();
+                System.out.print("Read snapshot. ");
+                if (listener != null) {
+                    listener.chunkLoaded(listings, 0, 1.0);
+                }
+            } else {
+                ParallelCsvLoader loader = new ParallelCsvLoader();
+                listings = loader.load(file, listener);
+                loadedHashes = loader.getRecordHashes();
+                System.out.printf("Loaded %d rows at %.0f rows/sec, %d malformed rows skipped. ",
+                    loader.getRowsLoaded(), loader.getRowsPerSecond(), loader.getMalformedRows());
+                writeSnapshot(listings, loadedHashes, file, attributes);
             }
         } catch(IOException | URISyntaxException e){
             System.out.println("Failure! Something went wrong when loading the property file");
             e.printStackTrace();
+            loadFailed = true;
+        }
+        listings.trimToSize();
+        if (!loadFailed) {
+            System.out.println("Success! Number of loaded records: " + listings.size());
         }
-        System.out.println("Success! Number of loaded records: " + listings.size());
         return listings;
     }
 
+
+    /**
+     * Returns true if the file could not be read when this portfolio was
+     * loaded, so that it is empty because loading failed rather than because
+     * the file holds no listings.
+     */
+    public boolean hasLoadFailed() {
+        return loadFailed;
+    }
+
+    
+    /**
+     * Return the file an in-memory portfolio was read from, or null for a lazy one.
+     */
+    public Path getFile() {
+        return pages != null ? null : file;
+    }
+
+    
+    /**
+     * Return the size and modification time of a file, to tell whether it has changed.
+     */
+    private static String stamp(Path file) throws IOException {
+        return stamp(attributes(file));
+    }
+
+
+    private static String stamp(BasicFileAttributes attributes) {
+        return attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+    }
+
+
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
     
     /**
-     *
-     * @param doubleString the string to be converted to Double type
-     * @return the Double value of the string, or -1.0 if the string is
-     * either empty or just whitespace
+     * Save a snapshot for the next start-up, stamped with the attributes the
+     * file had before the rows were read from it. Failing to do so, for
+     * example in a read-only directory, only costs start-up time later, so
+     * it is not fatal.
      */
-    private Double convertDouble(String doubleString) {
-        if(doubleString != null && !doubleString.trim().equals("")){
-            return Double.parseDouble(doubleString);
+    private void writeSnapshot(PropertyStore listings, long[] recordHashes, Path file,
+            BasicFileAttributes attributes) {
+        try {
+            PropertySnapshot.write(listings, recordHashes, file, attributes);
+        } catch (IOException e) {
+            System.out.print("Could not write snapshot: " + e.getMessage() + ". ");
         }
-        return -1.0;
     }
 
     
     /**
-     *
-     * @param intString the string to be converted to Integer type
-     * @return the Integer value of the string, or -1 if the string is
-     * either empty or just whitespace
+     * Return the path of the given file, looked up next to this class first
+     * and otherwise treated as a path on disk.
      */
-    private Integer convertInt(String intString) {
-        if(intString != null && !intString.trim().equals("")){
-            return Integer.parseInt(intString);
+    static Path resolveFile(String fileName) throws URISyntaxException {
+        URL url = Portfolio.class.getResource(fileName);
+        if (url != null) {
+            return Paths.get(url.toURI());
         }
-        return -1;
+        return Paths.get(fileName);
     }
-}
\ No newline at end of file
+}
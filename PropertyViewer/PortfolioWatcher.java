@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * PortfolioWatcher reloads a portfolio whenever its listings file changes
+ * on disk. It runs on a daemon thread: each change is read and the next
+ * version of the portfolio built there, then applied on the given executor,
+ * such as the JavaFX application thread, so that whoever reads the portfolio
+ * on that thread switches versions between two of its own reads.
+ *
+ * Writers rarely replace a file in one step, so the watcher waits until the
+ * file has been quiet for a moment before reloading it.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PortfolioWatcher implements AutoCloseable {
+
+    private static final long QUIET_MILLIS = 500;
+
+    private final Portfolio portfolio;
+    private final Executor applier;
+    private final Consumer<Portfolio.Reload> onReload;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Watch the file of the given in-memory portfolio. Each reload is applied
+     * on applier, which then passes it to onReload.
+     */
+    public PortfolioWatcher(Portfolio portfolio, Executor applier, Consumer<Portfolio.Reload> onReload)
+            throws IOException {
+        if (portfolio.getFile() == null) {
+            throw new IllegalArgumentException("Only a portfolio held in memory can be watched");
+        }
+        this.portfolio = portfolio;
+        this.applier = applier;
+        this.onReload = onReload;
+        Path directory = portfolio.getFile().toAbsolutePath().getParent();
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "portfolio-watcher");
+        thread.setDaemon(true);
+    }
+
+
+    /**
+     * Start watching.
+     */
+    public void start() {
+        thread.start();
+    }
+
+
+    /**
+     * Stop watching. A reload already being read is abandoned.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = isOurFile(key);
+                // let the writer finish, collecting any further events meanwhile
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isOurFile(key);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+
+    /**
+     * Returns true if any event of the key is about the portfolio's file; the key is reset.
+     */
+    private boolean isOurFile(WatchKey key) {
+        boolean ours = false;
+        Path name = portfolio.getFile().getFileName();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            ours |= name.equals(event.context());
+        }
+        key.reset();
+        return ours;
+    }
+
+
+    /**
+     * Read the changed file and wait for the result to be applied, so the
+     * next reload is prepared from the version this one produced.
+     */
+    private void reload() {
+        try {
+            Portfolio.Reload reload = portfolio.prepareReload();
+            CompletableFuture.runAsync(() -> {
+                reload.apply();
+                onReload.accept(reload);
+            }, applier).join();
+            System.out.println("Reloaded the property file: " + reload);
+        } catch (IOException | RuntimeException e) {
+            // a half-written file is retried when the writer's next event arrives
+            System.out.println("Failure! Could not reload the property file: " + e.getMessage());
+        }
+    }
+}
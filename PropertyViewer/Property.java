@@ -3,6 +3,10 @@ import java.util.ArrayList;
 /**
  * Property is a class that defines a property for display.
  * 
+ * A property made with the public constructor holds its own values. The
+ * properties of a portfolio are instead views onto a row of its
+ * PropertyStore, made on demand; two views of the same row are equal.
+ * 
  * @author  Michael Kölling and Josh Murphy
  * @version 2.0
  */
@@ -43,6 +47,23 @@ public class Property {
     }
     
     
+    /**
+     * Creates a property whose fields are left empty, for a view onto a row
+     * of a PropertyStore, which overrides every method that reads them.
+     */
+    Property() {
+    }
+    
+    
+    /**
+     * Return the row number of this property within its portfolio, or -1
+     * if it was made on its own.
+     */
+    public int getRow() {
+        return -1;
+    }
+    
+    
     /**
      * Return the Id of this property.
      */
@@ -119,7 +140,23 @@ public class Property {
      * Return the minimum number of nights this property can be booked for.
      */
     public String getMinNights() {
-        return "" + minimumNights;
+        return "" + getMinimumNights();
+    }
+    
+    
+    /**
+     * Return the minimum number of nights this property can be booked for, as a number.
+     */
+    int getMinimumNights() {
+        return minimumNights;
+    }
+    
+    
+    /**
+     * Return the number of days in the year this property is available.
+     */
+    int getAvailability365() {
+        return availability365;
     }
     
     
@@ -162,11 +199,11 @@ public class Property {
         
         ArrayList<Double> vector = new ArrayList<Double>();
     
-        vector.add(this.latitude);
-        vector.add(this.longitude);
-        vector.add((double)this.price);
-        vector.add((double)this.minimumNights);
-        vector.add((double)this.availability365);
+        vector.add(getLatitude());
+        vector.add(getLongitude());
+        vector.add((double)getPrice());
+        vector.add((double)getMinimumNights());
+        vector.add((double)getAvailability365());
         
         return vector;
     }
@@ -0,0 +1,631 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Benchmarks for the load and query paths of the viewer: loading listings
+ * files of several synthetic sizes from CSV and from a snapshot, getVector,
+ * the Euclidean distance the viewer used to compare vectors against the
+ * FeatureMatrix distance kernel, a full nearClick-style scan against the
+ * indexed nearest neighbour query and the neighbour graph, approximate
+ * nearest neighbour queries with several LshIndex settings, and toggling
+ * favourites in an ArrayList and in a FavouritesIndex. For the
+ * approximate queries, the recall@k against the exact answer found with
+ * calculateEuclideanDistance, and the time to build the index, are reported
+ * after their timing. Keyword searches of the descriptions through the
+ * TextIndex are compared with a substring scan of every description, and
+ * a host's listings and the hosts with the most listings, found through the
+ * HostIndex, with a scan of every row. Parsing the numeric cells of a
+ * listing straight from their bytes is compared with making strings of them.
+ * Loading several city files as a ShardedPortfolio is compared with
+ * loading them one after another, and queries across its shards are timed.
+ *
+ * Each benchmark is warmed up and then run for a number of timed
+ * iterations. For each it reports throughput, average time per operation
+ * with the spread between iterations, bytes allocated per operation and
+ * per second, and the garbage collections during measurement. Allocation is
+ * counted over every live thread, so the parallel loader's workers are
+ * included. Results are written on standard output; run main with
+ * <pre>
+ *     [--sizes 10000,100000,1000000] [--warmup 2] [--iterations 5] [--millis 1000] [name filter]
+ * </pre>
+ * where the name filter runs only the benchmarks whose name contains it.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyBenchmarks {
+
+    private static final String HEADER = "id,name,host_id,host_name,neighbourhood,latitude,longitude,room_type,"
+        + "price,minimum_nights,number_of_reviews,last_review,reviews_per_month,availability_365";
+    private static final String[] NEIGHBOURHOODS = {"Camden", "Hackney", "Haringey", "Merton", "Newham"};
+    private static final String[] ROOM_TYPES = {"Entire home/apt", "Private room", "Shared room"};
+    private static final String[] ADJECTIVES = {"Cosy", "Modern", "Bright", "Spacious", "Charming", "Stylish",
+        "Quiet", "Luxury"};
+    private static final String[] PLACES = {"double room", "single room", "studio", "flat", "apartment", "house",
+        "loft", "maisonette"};
+    private static final String[] LANDMARKS = {"the station", "the park", "the market", "Central London",
+        "the river", "the tube"};
+    private static final int FAVOURITES = 1000;
+    private static final int TOP_HOSTS = 10;
+    private static final int NUMBER_ROWS = 10_000;
+    private static final int SHARDS = 4;
+    private static final int NEIGHBOUR_GRAPH_SIZE = 10;
+    private static final int RECALL_K = 10;
+    private static final int RECALL_QUERIES = 200;
+    private static final LshIndex.Settings[] APPROXIMATE_SETTINGS = {
+        new LshIndex.Settings(4, 5, 2.0, 16), LshIndex.Settings.DEFAULT, new LshIndex.Settings(8, 6, 2.5, 8)};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // results are folded in here so that the work producing them cannot be optimised away
+    private static volatile long sink;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final String nameFilter;
+
+    private PropertyBenchmarks(int warmupIterations, int iterations, long iterationMillis, String nameFilter) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.nameFilter = nameFilter;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        int warmup = 2;
+        int iterations = 5;
+        long millis = 1000;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--millis":
+                    millis = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    filter = args[i];
+            }
+        }
+        new PropertyBenchmarks(warmup, iterations, millis, filter).runAll(sizes);
+    }
+
+
+    private void runAll(int[] sizes) throws IOException {
+        Path directory = Files.createTempDirectory("property-benchmarks");
+        try {
+            System.out.printf("%-40s %14s %31s %12s %10s %5s %8s%n",
+                "Benchmark", "ops/s", "ns/op", "B/op", "MB/s", "GCs", "GC ms");
+            numberParsingBenchmarks();
+            for (int size : sizes) {
+                Path file = directory.resolve("listings-" + size + ".csv");
+                writeListings(file, size);
+                loadBenchmarks(file, size);
+            }
+            // the query benchmarks use the second largest size, as the largest can make a scan too slow to repeat
+            int querySize = sizes.length > 1 ? sizes[sizes.length - 2] : sizes[0];
+            queryBenchmarks(directory.resolve("listings-" + querySize + ".csv"), querySize);
+            shardBenchmarks(directory, querySize);
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+
+    /**
+     * Time parsing the latitude, longitude, price, minimum nights and
+     * availability cells of NUMBER_ROWS rows the way the loader used to, by
+     * making a string of each cell first, against parsing them straight from
+     * their bytes, and compare what each allocates.
+     */
+    private void numberParsingBenchmarks() {
+        Random random = new Random(42);
+        byte[][] cells = new byte[NUMBER_ROWS * 5][];
+        for (int row = 0; row < NUMBER_ROWS; row++) {
+            cells[5 * row] = String.format(Locale.ROOT, "%.8f", 51.3 + random.nextDouble() * 0.4)
+                .getBytes(StandardCharsets.UTF_8);
+            cells[5 * row + 1] = String.format(Locale.ROOT, "%.8f", -0.5 + random.nextDouble() * 0.7)
+                .getBytes(StandardCharsets.UTF_8);
+            // one cell in ten is left empty, as in the real listings
+            cells[5 * row + 2] = random.nextInt(10) == 0 ? new byte[0]
+                : Integer.toString(20 + random.nextInt(300)).getBytes(StandardCharsets.UTF_8);
+            cells[5 * row + 3] = Integer.toString(1 + random.nextInt(14)).getBytes(StandardCharsets.UTF_8);
+            cells[5 * row + 4] = Integer.toString(random.nextInt(366)).getBytes(StandardCharsets.UTF_8);
+        }
+        String rows = " (" + NUMBER_ROWS + " rows)";
+        benchmark("parse numbers via strings" + rows, () -> {
+            long sum = 0;
+            for (int cell = 0; cell < cells.length; cell++) {
+                String text = new String(cells[cell], StandardCharsets.UTF_8);
+                sum += cell % 5 < 2 ? Double.doubleToRawLongBits(ParallelCsvLoader.convertDouble(text))
+                    : ParallelCsvLoader.convertInt(text);
+            }
+            return sum;
+        });
+        benchmark("parse numbers from bytes" + rows, () -> {
+            long sum = 0;
+            for (int cell = 0; cell < cells.length; cell++) {
+                byte[] bytes = cells[cell];
+                sum += cell % 5 < 2 ? Double.doubleToRawLongBits(ParallelCsvLoader.parseDouble(bytes, 0, bytes.length))
+                    : ParallelCsvLoader.parseInt(bytes, 0, bytes.length);
+            }
+            return sum;
+        });
+    }
+
+
+    private void loadBenchmarks(Path file, int size) throws IOException {
+        benchmark("load csv (" + size + " rows)", () -> {
+            try {
+                return new ParallelCsvLoader().load(file).size();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // the first load writes a snapshot, which every load after it reads
+        Portfolio portfolio = quietly(() -> new Portfolio(file.toString(), false));
+        benchmark("load snapshot (" + size + " rows)",
+            () -> quietly(() -> portfolio.loadProperties(file.toString())).size());
+    }
+
+
+    private void queryBenchmarks(Path file, int size) throws IOException {
+        Portfolio indexed = quietly(() -> new Portfolio(file.toString(), true));
+        Portfolio unindexed = quietly(() -> new Portfolio(file.toString(), false));
+        Random random = new Random(42);
+        String rows = " (" + size + " rows)";
+
+        benchmark("getVector", () -> indexed.getProperty(random.nextInt(size)).getVector().size());
+
+        List<?> first = indexed.getProperty(0).getVector();
+        List<?> second = indexed.getProperty(1).getVector();
+        benchmark("calculateEuclideanDistance", () ->
+            Double.doubleToRawLongBits(calculateEuclideanDistance(first, second)));
+
+        PropertyStore store = quietly(() -> indexed.loadProperties(file.toString()));
+        FeatureMatrix features = new FeatureMatrix(store, indexed.getFeatureScaling());
+        double[] query = new double[KdTree.DIMENSIONS];
+        double[] distances = new double[FeatureMatrix.BLOCK_SIZE];
+        benchmark("FeatureMatrix.distances" + rows, () ->
+            distanceScan(features, random.nextInt(size), query, distances));
+
+        approximateBenchmarks(features, random);
+
+        benchmark("nearClick scan" + rows, () -> nearClickScan(indexed, random.nextInt(size)));
+        benchmark("findNearest, parallel scan" + rows, () -> unindexed.findNearest(random.nextInt(size)));
+        benchmark("findNearest, KdTree" + rows, () -> indexed.findNearest(random.nextInt(size)));
+        Portfolio graph = quietly(() -> new Portfolio(file.toString(), true));
+        graph.useNeighbourGraph(NEIGHBOUR_GRAPH_SIZE);
+        benchmark("findNearest, neighbour graph" + rows, () -> graph.findNearest(random.nextInt(size)));
+
+        benchmark("description substring scan" + rows, () -> descriptionScan(store, "cosy", "flat"));
+        benchmark("keyword search 'cosy flat'" + rows, () ->
+            indexed.searchDescriptions("cosy flat", null, 10).getTotal());
+        benchmark("keyword search 'lux* stud*'" + rows, () ->
+            indexed.searchDescriptions("lux* stud*", null, 10).getTotal());
+        Filter cheap = Filter.parse("price < 100 and roomType = 'Private room'");
+        benchmark("keyword search 'cosy flat' with filter" + rows, () ->
+            indexed.searchDescriptions("cosy flat", cheap, 10).getTotal());
+
+        benchmark("host listings scan" + rows, () -> hostScan(store, store.getHostID(random.nextInt(size))));
+        benchmark("host listings, index" + rows, () ->
+            indexed.findByHost(store.getHostID(random.nextInt(size))).length);
+        benchmark("top " + TOP_HOSTS + " hosts, count and sort" + rows, () -> topHostsScan(store, TOP_HOSTS));
+        benchmark("top " + TOP_HOSTS + " hosts, index" + rows, () -> indexed.topHosts(TOP_HOSTS).size());
+
+        List<Property> favourites = new ArrayList<>();
+        while (favourites.size() < FAVOURITES) {
+            Property property = indexed.getProperty(random.nextInt(size));
+            if (!property.isFavourite()) {
+                property.toggleFavourite();
+                favourites.add(property);
+            }
+        }
+        benchmark("toggle favourite (" + FAVOURITES + " favourites)", () -> toggleFavourite(favourites,
+            favourites.get(random.nextInt(favourites.size()))));
+
+        FavouritesIndex index = new FavouritesIndex();
+        try (FavouritesIndex logged = FavouritesIndex.open(FavouritesIndex.logPath(file))) {
+            for (Property favourite : favourites) {
+                index.add(favourite.getID());
+                logged.add(favourite.getID());
+            }
+            benchmark("toggle favourite, index", () -> toggleFavourite(index,
+                favourites.get(random.nextInt(favourites.size())).getID()));
+            benchmark("toggle favourite, logged index", () -> toggleFavourite(logged,
+                favourites.get(random.nextInt(favourites.size())).getID()));
+        }
+    }
+
+
+    /**
+     * Time loading SHARDS city files of size / SHARDS rows each one after
+     * another against loading them as a ShardedPortfolio, and queries fanned
+     * out across its shards.
+     */
+    private void shardBenchmarks(Path directory, int size) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            Path file = directory.resolve("city-" + shard + ".csv");
+            writeListings(file, size / SHARDS);
+            files.add(file);
+        }
+        String shards = " (" + SHARDS + " x " + size / SHARDS + " rows)";
+        benchmark("load shards one by one" + shards, () -> {
+            long rows = 0;
+            for (Path file : files) {
+                rows += quietly(() -> new Portfolio(file.toString(), true)).numberOfProperties();
+            }
+            return rows;
+        });
+        benchmark("load shards in parallel" + shards, () ->
+            quietly(() -> new ShardedPortfolio(files, true)).numberOfProperties());
+
+        ShardedPortfolio portfolio = quietly(() -> new ShardedPortfolio(files, true));
+        Random random = new Random(42);
+        int properties = portfolio.numberOfProperties();
+        benchmark("sharded findNearest" + shards, () -> portfolio.findNearest(random.nextInt(properties)));
+        Filter filter = Filter.parse("price < 100 and roomType = 'Private room'");
+        benchmark("sharded filter" + shards, () -> portfolio.filter(filter).size());
+        benchmark("sharded overall statistics" + shards, () -> portfolio.overallStatistics().getCount());
+    }
+
+
+    /**
+     * Time approximate k nearest neighbour queries with each of the
+     * APPROXIMATE_SETTINGS, and report their recall@k: the fraction of the
+     * true k nearest neighbours of RECALL_QUERIES rows, found by comparing
+     * each with every row with calculateEuclideanDistance, that they return.
+     */
+    private void approximateBenchmarks(FeatureMatrix features, Random random) {
+        List<String> names = new ArrayList<>();
+        for (LshIndex.Settings settings : APPROXIMATE_SETTINGS) {
+            names.add("LshIndex k=" + RECALL_K + " (" + settings + ")");
+        }
+        if (names.stream().noneMatch(name -> name.contains(nameFilter))) {
+            return;
+        }
+
+        int size = features.size();
+        List<ArrayList<Double>> vectors = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            ArrayList<Double> vector = new ArrayList<>(KdTree.DIMENSIONS);
+            for (int i = 0; i < KdTree.DIMENSIONS; i++) {
+                vector.add(features.get(row, i));
+            }
+            vectors.add(vector);
+        }
+        int[] queries = new int[RECALL_QUERIES];
+        List<Set<Integer>> exact = new ArrayList<>();
+        for (int q = 0; q < queries.length; q++) {
+            queries[q] = random.nextInt(size);
+            Neighbours nearest = new Neighbours(RECALL_K);
+            for (int row = 0; row < size; row++) {
+                if (row != queries[q]) {
+                    nearest.offer(row, calculateEuclideanDistance(vectors.get(queries[q]), vectors.get(row)));
+                }
+            }
+            Set<Integer> rows = new HashSet<>();
+            for (int row : nearest.getPropertyNumbers()) {
+                rows.add(row);
+            }
+            exact.add(rows);
+        }
+
+        double[] query = new double[KdTree.DIMENSIONS];
+        for (int s = 0; s < APPROXIMATE_SETTINGS.length; s++) {
+            if (!names.get(s).contains(nameFilter)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            LshIndex index = new LshIndex(features, APPROXIMATE_SETTINGS[s]);
+            long buildNanos = System.nanoTime() - start;
+            benchmark(names.get(s), () -> {
+                int row = random.nextInt(size);
+                features.copyRow(row, query, 0);
+                Neighbours nearest = new Neighbours(RECALL_K);
+                index.search(query, row, Double.POSITIVE_INFINITY, nearest);
+                return nearest.size();
+            });
+
+            int found = 0;
+            for (int q = 0; q < queries.length; q++) {
+                features.copyRow(queries[q], query, 0);
+                Neighbours nearest = new Neighbours(RECALL_K);
+                index.search(query, queries[q], Double.POSITIVE_INFINITY, nearest);
+                for (int row : nearest.getPropertyNumbers()) {
+                    if (exact.get(q).contains(row)) {
+                        found++;
+                    }
+                }
+            }
+            System.out.printf(Locale.ROOT, "%-40s recall@%d %.3f, index built in %.0f ms%n", "",
+                RECALL_K, (double) found / (RECALL_K * queries.length), buildNanos / 1e6);
+        }
+    }
+
+
+    /**
+     * Toggle a property twice, as two clicks on Toggle Favourite do, leaving
+     * the favourites as they were.
+     */
+    private static long toggleFavourite(List<Property> favourites, Property property) {
+        long result = 0;
+        for (int click = 0; click < 2; click++) {
+            property.toggleFavourite();
+            if (property.isFavourite()) {
+                favourites.add(property);
+            } else {
+                favourites.remove(property);
+            }
+            result += favourites.indexOf(property) + 1;
+        }
+        return result;
+    }
+
+
+    /**
+     * Count the descriptions containing both words, the way a search without
+     * an index would: by lower-casing every description and looking for them.
+     */
+    private static long descriptionScan(PropertyStore store, String first, String second) {
+        long matches = 0;
+        for (int row = 0; row < store.size(); row++) {
+            String description = store.getDescription(row).toLowerCase(Locale.ROOT);
+            if (description.contains(first) && description.contains(second)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+
+    /**
+     * Count the listings of a host by comparing the host of every row with it.
+     */
+    private static long hostScan(PropertyStore store, String hostID) {
+        long listings = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if (store.getHostID(row).equals(hostID)) {
+                listings++;
+            }
+        }
+        return listings;
+    }
+
+
+    /**
+     * Find the hosts with the most listings by counting the listings of every
+     * host in a map and sorting all the hosts by their count.
+     */
+    private static long topHostsScan(PropertyStore store, int limit) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int row = 0; row < store.size(); row++) {
+            counts.merge(store.getHostID(row), 1, Integer::sum);
+        }
+        List<Map.Entry<String, Integer>> hosts = new ArrayList<>(counts.entrySet());
+        hosts.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        return hosts.subList(0, Math.min(limit, hosts.size())).size();
+    }
+
+
+    /**
+     * Toggle a listing id twice in a favourites index, as favClick does.
+     */
+    private static long toggleFavourite(FavouritesIndex favourites, String id) {
+        long result = 0;
+        for (int click = 0; click < 2; click++) {
+            if (!favourites.remove(id)) {
+                favourites.add(id);
+            }
+            result += favourites.rankOf(id);
+        }
+        return result;
+    }
+
+
+    /**
+     * Find the property nearest to the given one the way nearClick did before
+     * the nearest neighbour index: compare its vector with every other.
+     */
+    private static long nearClickScan(Portfolio portfolio, int currentIndex) {
+        List<?> currentVector = portfolio.getProperty(currentIndex).getVector();
+        double minDistance = Double.MAX_VALUE;
+        int nearest = -1;
+        for (int i = 0; i < portfolio.numberOfProperties(); i++) {
+            if (i != currentIndex) {
+                Double distance = calculateEuclideanDistance(currentVector, portfolio.getProperty(i).getVector());
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    nearest = i;
+                }
+            }
+        }
+        return nearest;
+    }
+
+
+    /**
+     * Compute the distance of every row from the given one with the
+     * FeatureMatrix kernel, a block at a time, and count the rows closer than 1.
+     */
+    private static long distanceScan(FeatureMatrix features, int row, double[] query, double[] distances) {
+        features.copyRow(row, query, 0);
+        long close = 0;
+        for (int start = 0; start < features.size(); start += distances.length) {
+            int end = Math.min(start + distances.length, features.size());
+            features.distances(query, start, end, distances);
+            for (int i = 0; i < end - start; i++) {
+                if (distances[i] < 1) {
+                    close++;
+                }
+            }
+        }
+        return close;
+    }
+
+
+    /**
+     * The distance between two vectors as the viewer used to calculate it.
+     * Property.getVector() returns a raw list, so its elements are read as Numbers.
+     */
+    private static double calculateEuclideanDistance(List<?> vector1, List<?> vector2) {
+        double sum = 0.0;
+        for (int i = 0; i < vector1.size(); i++) {
+            sum += Math.pow(((Number) vector1.get(i)).doubleValue() - ((Number) vector2.get(i)).doubleValue(), 2);
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /**
+     * Warm up and measure one benchmark, and print its results, if its name passes the filter.
+     */
+    private void benchmark(String name, LongSupplier operation) {
+        if (!name.contains(nameFilter)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation);
+        }
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        double[] nanosPerOperation = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = allocatedBytes();
+            long[] iteration = runIteration(operation);
+            bytes += allocatedBytes() - allocatedBefore;
+            operations += iteration[0];
+            nanos += iteration[1];
+            nanosPerOperation[i] = (double) iteration[1] / iteration[0];
+        }
+        double mean = (double) nanos / operations;
+        double variance = 0;
+        for (double value : nanosPerOperation) {
+            variance += (value - mean) * (value - mean);
+        }
+        double spread = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        System.out.printf(Locale.ROOT, "%-40s %14.1f %15.1f +- %12.1f %12d %10.1f %5d %8d%n",
+            name, operations * 1e9 / nanos, mean, spread, bytes / operations,
+            bytes / 1e6 / (nanos / 1e9), gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+    }
+
+
+    /**
+     * Run the operation until the iteration time is up, at least once.
+     * Return the number of operations and the nanoseconds they took.
+     */
+    private long[] runIteration(LongSupplier operation) {
+        long result = 0;
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            result += operation.getAsLong();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+        return new long[] {operations, elapsed};
+    }
+
+
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+
+    /**
+     * Run the given code with the loader's progress messages turned off.
+     */
+    private static <T> T quietly(java.util.function.Supplier<T> code) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return code.get();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+
+    /**
+     * Write a listings file of synthetic rows in the layout of the London file.
+     */
+    private static void writeListings(Path file, int rows) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (int i = 0; i < rows; i++) {
+                out.write(String.format(Locale.ROOT, "%d,\"%s %s %d, near %s\",%d,Host%d,%s,%.8f,%.8f,%s,"
+                    + "%d,%d,%d,2019-01-01,0.5,%d%n",
+                    1_000_000 + i, ADJECTIVES[random.nextInt(ADJECTIVES.length)],
+                    PLACES[random.nextInt(PLACES.length)], i, LANDMARKS[random.nextInt(LANDMARKS.length)],
+                    random.nextInt(rows), random.nextInt(5000),
+                    NEIGHBOURHOODS[random.nextInt(NEIGHBOURHOODS.length)],
+                    51.3 + random.nextDouble() * 0.4, -0.5 + random.nextDouble() * 0.7,
+                    ROOM_TYPES[random.nextInt(ROOM_TYPES.length)],
+                    20 + random.nextInt(300), 1 + random.nextInt(14), random.nextInt(200), random.nextInt(366)));
+            }
+        }
+    }
+}
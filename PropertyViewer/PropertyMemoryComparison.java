@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap used by the original ArrayList-of-objects layout of a
+ * portfolio with the columnar PropertyStore. Both layouts are filled with the
+ * same synthetic rows; run main with an optional row count.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyMemoryComparison {
+
+    private static final String[] NEIGHBOURHOODS = {"Camden", "Hackney", "Haringey", "Merton", "Newham"};
+    private static final String[] ROOM_TYPES = {"Entire home/apt", "Private room", "Shared room"};
+
+    /**
+     * The eleven-field, one-object-per-listing layout Portfolio used before PropertyStore.
+     */
+    private static class RowProperty {
+        private String id;
+        private String description;
+        private String hostID;
+        private String hostName;
+        private String neighbourhood;
+        private double latitude;
+        private double longitude;
+        private String roomType;
+        private int price;
+        private int minimumNights;
+        private int availability365;
+        private boolean isFavourite;
+        private int favouriteId;
+
+        RowProperty(String id, String description, String hostID, String hostName,
+                String neighbourhood, double latitude, double longitude, String roomType,
+                int price, int minimumNights, int availability365) {
+            this.id = id;
+            this.description = description;
+            this.hostID = hostID;
+            this.hostName = hostName;
+            this.neighbourhood = neighbourhood;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.roomType = roomType;
+            this.price = price;
+            this.minimumNights = minimumNights;
+            this.availability365 = availability365;
+        }
+    }
+
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        compare(rows, true);
+        compare(rows, false);
+    }
+
+
+    /**
+     * Measure both layouts. With distinctStrings false every row shares the same
+     * String instances, which isolates the cost of the layout itself.
+     */
+    private static void compare(int rows, boolean distinctStrings) {
+        System.out.println(distinctStrings ? "Rows with their own strings:" : "Rows sharing strings:");
+
+        long before = usedMemory();
+        List<RowProperty> objects = fillObjects(rows, distinctStrings);
+        long objectBytes = usedMemory() - before;
+        System.out.println("  ArrayList<Property>: " + objects.size() + " rows, " + format(objectBytes));
+        objects = null;
+
+        before = usedMemory();
+        PropertyStore store = fillStore(rows, distinctStrings);
+        long storeBytes = usedMemory() - before;
+        System.out.println("  PropertyStore:       " + store.size() + " rows, " + format(storeBytes));
+
+        System.out.printf("  Columnar layout uses %.1f%% of the object layout%n",
+            100.0 * storeBytes / Math.max(objectBytes, 1));
+    }
+
+
+    /**
+     * Fill the original layout with synthetic rows.
+     */
+    private static List<RowProperty> fillObjects(int rows, boolean distinctStrings) {
+        Random random = new Random(42);
+        List<RowProperty> listings = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            listings.add(new RowProperty(id(i, distinctStrings), description(i, distinctStrings),
+                hostID(random.nextInt(rows), distinctStrings), hostName(random.nextInt(5000), distinctStrings),
+                NEIGHBOURHOODS[random.nextInt(NEIGHBOURHOODS.length)],
+                51.3 + random.nextDouble() * 0.4, -0.5 + random.nextDouble() * 0.7,
+                ROOM_TYPES[random.nextInt(ROOM_TYPES.length)],
+                20 + random.nextInt(300), 1 + random.nextInt(14), random.nextInt(366)));
+        }
+        return listings;
+    }
+
+
+    /**
+     * Fill a PropertyStore with the same synthetic rows as fillObjects.
+     */
+    private static PropertyStore fillStore(int rows, boolean distinctStrings) {
+        Random random = new Random(42);
+        PropertyStore store = new PropertyStore();
+        for (int i = 0; i < rows; i++) {
+            store.add(id(i, distinctStrings), description(i, distinctStrings),
+                hostID(random.nextInt(rows), distinctStrings), hostName(random.nextInt(5000), distinctStrings),
+                NEIGHBOURHOODS[random.nextInt(NEIGHBOURHOODS.length)],
+                51.3 + random.nextDouble() * 0.4, -0.5 + random.nextDouble() * 0.7,
+                ROOM_TYPES[random.nextInt(ROOM_TYPES.length)],
+                20 + random.nextInt(300), 1 + random.nextInt(14), random.nextInt(366));
+        }
+        store.trimToSize();
+        return store;
+    }
+
+
+    private static String id(int i, boolean distinct) {
+        return distinct ? String.valueOf(1_000_000 + i) : "1000000";
+    }
+
+
+    private static String description(int i, boolean distinct) {
+        return distinct ? "Listing " + i : "Listing";
+    }
+
+
+    private static String hostID(int i, boolean distinct) {
+        return distinct ? String.valueOf(i) : "0";
+    }
+
+
+    private static String hostName(int i, boolean distinct) {
+        return distinct ? "Host" + i : "Host";
+    }
+
+
+    /**
+     * Return the heap currently in use after asking for a collection.
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    private static String format(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,486 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * PropertyQuery runs queries against a portfolio without a display or a
+ * JavaFX runtime, for batch jobs. It loads the portfolio with the same loader
+ * and answers queries with the same indexes as the viewer, and writes the
+ * results to standard output as CSV or JSON. Loading messages and failures
+ * go to standard error, so standard output holds only results.
+ *
+ * <pre>
+ *     java PropertyQuery [--file listings.csv] [--format csv|json] [--script queries.txt] [query]
+ * </pre>
+ * The query is given either as the remaining arguments or, one per line, in
+ * a script file ("-" reads standard input); blank lines and lines starting
+ * with # are skipped. The queries are
+ * <pre>
+ *     filter &lt;filter&gt;                       properties matching a filter, as Filter.parse reads it
+ *     search &lt;words&gt; [where &lt;filter&gt;]        properties whose descriptions contain the words, best first
+ *     nearest &lt;id&gt; [k]                      the k (default 5) properties most like a listing
+ *     within &lt;latitude&gt; &lt;longitude&gt; &lt;metres&gt; properties within a distance of a point
+ *     host &lt;hostID&gt;                        every property listed by a host
+ *     hosts [n]                             the n (default 10) hosts with the most listings
+ *     stats neighbourhood|host|all          price, availability and room type statistics
+ * </pre>
+ * In CSV each query's results are a header and rows, followed by a blank
+ * line. In JSON each query's results are one object on one line, holding the
+ * query and an array of results. Rows are written as they are found, so a
+ * large result is never held in memory as text.
+ *
+ * The exit status is 0 if every query succeeded, 1 if any failed and 2 if
+ * the arguments were wrong or the file could not be loaded.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyQuery {
+
+    private static final int DEFAULT_NEIGHBOURS = 5;
+    private static final int DEFAULT_HOSTS = 10;
+    private static final String[] PROPERTY_COLUMNS = {"id", "hostID", "hostName", "neighbourhood", "roomType",
+        "latitude", "longitude", "price", "minimumNights", "description"};
+
+    private final Portfolio portfolio;
+    private final ResultWriter writer;
+
+    private PropertyQuery(Portfolio portfolio, ResultWriter writer) {
+        this.portfolio = portfolio;
+        this.writer = writer;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        // the loader reports progress on standard output, which is kept for results
+        PrintStream results = System.out;
+        System.setOut(System.err);
+
+        String fileName = "airbnb-london.csv";
+        String format = "csv";
+        String script = null;
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("--"); i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "--file":
+                        fileName = args[i + 1];
+                        break;
+                    case "--format":
+                        format = args[i + 1];
+                        break;
+                    case "--script":
+                        script = args[i + 1];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (!format.equals("csv") && !format.equals("json")) {
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Failure! " + e.getMessage());
+            System.exit(2);
+        }
+
+        List<String> queries = new ArrayList<>();
+        if (script != null) {
+            List<String> lines = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    .lines().collect(Collectors.toList())
+                : Files.readAllLines(Paths.get(script), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    queries.add(line);
+                }
+            }
+        }
+        if (i < args.length) {
+            queries.add(String.join(" ", Arrays.copyOfRange(args, i, args.length)));
+        }
+        if (queries.isEmpty()) {
+            System.err.println("Failure! No query given");
+            System.exit(2);
+        }
+
+        // the nearest neighbour index is only worth building if it will be used
+        boolean nearestQueries = queries.stream().anyMatch(query -> command(query).equals("nearest"));
+        Portfolio portfolio = new Portfolio(fileName, nearestQueries);
+        if (portfolio.hasLoadFailed()) {
+            System.err.println("Failure! Could not load " + fileName);
+            System.exit(2);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8), 1 << 16);
+        ResultWriter writer = format.equals("json") ? new JsonResultWriter(out) : new CsvResultWriter(out);
+        boolean failed = new PropertyQuery(portfolio, writer).runAll(queries);
+        out.flush();
+        System.exit(failed ? 1 : 0);
+    }
+
+
+    /**
+     * Run every query, reporting those that fail. Returns true if any failed.
+     */
+    private boolean runAll(List<String> queries) throws IOException {
+        boolean failed = false;
+        for (String query : queries) {
+            try {
+                run(query);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println("Failure! " + e.getMessage() + ": " + query);
+                failed = true;
+            }
+        }
+        return failed;
+    }
+
+
+    /**
+     * Run one query and write its results. Throws IllegalArgumentException if
+     * the query is not valid; nothing is written for it then.
+     */
+    private void run(String query) throws IOException {
+        String argument = query.substring(command(query).length()).trim();
+        switch (command(query)) {
+            case "filter":
+                filter(query, Filter.parse(argument));
+                break;
+            case "search":
+                search(query, argument);
+                break;
+            case "nearest":
+                nearest(query, argument.split("\\s+"));
+                break;
+            case "within":
+                within(query, argument.split("\\s+"));
+                break;
+            case "host":
+                host(query, argument);
+                break;
+            case "hosts":
+                topHosts(query, argument);
+                break;
+            case "stats":
+                statistics(query, argument);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query '" + command(query) + "'");
+        }
+    }
+
+
+    private static String command(String query) {
+        int space = query.indexOf(' ');
+        return space < 0 ? query : query.substring(0, space);
+    }
+
+
+    private void filter(String query, Filter filter) throws IOException {
+        BitSet rows = portfolio.filter(filter).toBitSet();
+        writer.begin(query, PROPERTY_COLUMNS);
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            writer.row(propertyValues(portfolio.getProperty(row), null));
+        }
+        writer.end();
+    }
+
+
+    private void search(String query, String argument) throws IOException {
+        int where = argument.indexOf(" where ");
+        String words = where < 0 ? argument : argument.substring(0, where);
+        Filter filter = where < 0 ? null : Filter.parse(argument.substring(where + " where ".length()));
+        TextIndex.Matches matches = portfolio.searchDescriptions(words, filter, Integer.MAX_VALUE);
+        String[] columns = Arrays.copyOf(PROPERTY_COLUMNS, PROPERTY_COLUMNS.length + 1);
+        columns[PROPERTY_COLUMNS.length] = "score";
+        writer.begin(query, columns);
+        for (int i = 0; i < matches.size(); i++) {
+            writer.row(propertyValues(portfolio.getProperty(matches.getPropertyNumber(i)), matches.getScore(i)));
+        }
+        writer.end();
+    }
+
+
+    private void nearest(String query, String[] arguments) throws IOException {
+        if (arguments.length < 1 || arguments.length > 2 || arguments[0].isEmpty()) {
+            throw new IllegalArgumentException("Expected nearest <id> [k]");
+        }
+        int k = arguments.length == 2 ? parseInt(arguments[1]) : DEFAULT_NEIGHBOURS;
+        writeNeighbours(query, portfolio.findNearest(propertyNumber(arguments[0]), k), "distance");
+    }
+
+
+    private void within(String query, String[] arguments) throws IOException {
+        if (arguments.length != 3) {
+            throw new IllegalArgumentException("Expected within <latitude> <longitude> <metres>");
+        }
+        writeNeighbours(query, portfolio.findWithinMetres(parseDouble(arguments[0]), parseDouble(arguments[1]),
+            parseDouble(arguments[2])), "metres");
+    }
+
+
+    private void writeNeighbours(String query, Neighbours neighbours, String distanceColumn) throws IOException {
+        String[] columns = Arrays.copyOf(PROPERTY_COLUMNS, PROPERTY_COLUMNS.length + 1);
+        columns[PROPERTY_COLUMNS.length] = distanceColumn;
+        writer.begin(query, columns);
+        for (int i = 0; i < neighbours.size(); i++) {
+            writer.row(propertyValues(portfolio.getProperty(neighbours.getPropertyNumber(i)),
+                neighbours.getDistance(i)));
+        }
+        writer.end();
+    }
+
+
+    private void host(String query, String hostID) throws IOException {
+        if (hostID.isEmpty()) {
+            throw new IllegalArgumentException("Expected host <hostID>");
+        }
+        writer.begin(query, PROPERTY_COLUMNS);
+        for (int row : portfolio.findByHost(hostID)) {
+            writer.row(propertyValues(portfolio.getProperty(row), null));
+        }
+        writer.end();
+    }
+
+
+    private void topHosts(String query, String argument) throws IOException {
+        int limit = argument.isEmpty() ? DEFAULT_HOSTS : parseInt(argument);
+        if (limit < 1) {
+            throw new IllegalArgumentException("Expected hosts [n] with n at least 1");
+        }
+        HostIndex.TopHosts hosts = portfolio.topHosts(limit);
+        writer.begin(query, new String[] {"hostID", "hostName", "listings"});
+        for (int i = 0; i < hosts.size(); i++) {
+            int firstListing = portfolio.findByHost(hosts.getHostID(i))[0];
+            writer.row(new Object[] {hosts.getHostID(i), portfolio.getProperty(firstListing).getHostName(),
+                hosts.getCount(i)});
+        }
+        writer.end();
+    }
+
+
+    private void statistics(String query, String grouping) throws IOException {
+        List<GroupStatistics> groups;
+        switch (grouping) {
+            case "neighbourhood":
+                groups = portfolio.statisticsBy(StatisticsEngine.Grouping.NEIGHBOURHOOD);
+                break;
+            case "host":
+                groups = portfolio.statisticsBy(StatisticsEngine.Grouping.HOST);
+                break;
+            case "all":
+                groups = List.of(portfolio.overallStatistics());
+                break;
+            default:
+                throw new IllegalArgumentException("Expected stats neighbourhood, host or all");
+        }
+        int buckets = GroupStatistics.AVAILABILITY_BUCKETS.length;
+        String[] columns = new String[7 + buckets];
+        String[] fixed = {"name", "count", "meanPrice", "medianPrice", "price25", "price75"};
+        System.arraycopy(fixed, 0, columns, 0, fixed.length);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            columns[fixed.length + bucket] = "availability " + GroupStatistics.getAvailabilityBucketLabel(bucket);
+        }
+        columns[columns.length - 1] = "roomTypeMix";
+
+        writer.begin(query, columns);
+        for (GroupStatistics group : groups) {
+            Object[] values = new Object[columns.length];
+            values[0] = group.getName();
+            values[1] = group.getCount();
+            values[2] = group.getMeanPrice();
+            values[3] = group.getMedianPrice();
+            values[4] = group.getPricePercentile(25);
+            values[5] = group.getPricePercentile(75);
+            int[] histogram = group.getAvailabilityHistogram();
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                values[fixed.length + bucket] = histogram[bucket];
+            }
+            StringBuilder mix = new StringBuilder();
+            for (Map.Entry<String, Integer> roomType : group.getRoomTypeMix().entrySet()) {
+                mix.append(mix.length() == 0 ? "" : "; ").append(roomType.getKey()).append('=')
+                    .append(roomType.getValue());
+            }
+            values[columns.length - 1] = mix.toString();
+            writer.row(values);
+        }
+        writer.end();
+    }
+
+
+    /**
+     * Return the number of the property with the given listing id.
+     */
+    private int propertyNumber(String id) {
+        int propertyNumber = portfolio.findByID(id);
+        if (propertyNumber < 0) {
+            throw new IllegalArgumentException("No property with id " + id);
+        }
+        return propertyNumber;
+    }
+
+
+    private static Object[] propertyValues(Property property, Double distance) {
+        Object[] values = new Object[distance == null ? PROPERTY_COLUMNS.length : PROPERTY_COLUMNS.length + 1];
+        values[0] = property.getID();
+        values[1] = property.getHostID();
+        values[2] = property.getHostName();
+        values[3] = property.getNeighbourhood();
+        values[4] = property.getRoomType();
+        values[5] = property.getLatitude();
+        values[6] = property.getLongitude();
+        values[7] = property.getPrice();
+        values[8] = parseIntOrText(property.getMinNights());
+        values[9] = property.getDescription();
+        if (distance != null) {
+            values[10] = distance;
+        }
+        return values;
+    }
+
+
+    private static Object parseIntOrText(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return text;
+        }
+    }
+
+
+    private static int parseInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + text + "' is not a whole number");
+        }
+    }
+
+
+    private static double parseDouble(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + text + "' is not a number");
+        }
+    }
+
+
+    /**
+     * Writes the results of one query after another.
+     */
+    private interface ResultWriter {
+        void begin(String query, String[] columns) throws IOException;
+
+        void row(Object[] values) throws IOException;
+
+        void end() throws IOException;
+    }
+
+
+    /**
+     * Writes each query's results as a CSV header and rows, then a blank line.
+     */
+    private static class CsvResultWriter implements ResultWriter {
+        private final Writer out;
+
+        CsvResultWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void begin(String query, String[] columns) throws IOException {
+            row(columns);
+        }
+
+        @Override
+        public void row(Object[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeField(values[i]);
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write('\n');
+        }
+
+        private void writeField(Object value) throws IOException {
+            String text = value == null ? "" : value.toString();
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0
+                    && text.indexOf('\r') < 0) {
+                out.write(text);
+                return;
+            }
+            out.write('"');
+            out.write(text.replace("\"", "\"\""));
+            out.write('"');
+        }
+    }
+
+
+    /**
+     * Writes each query's results as one line holding a JSON object with the
+     * query and an array of result objects.
+     */
+    private static class JsonResultWriter implements ResultWriter {
+        private final Writer out;
+        private final JsonWriter json;
+        private String[] columns;
+
+        JsonResultWriter(Writer out) {
+            this.out = out;
+            json = new JsonWriter(out);
+        }
+
+        @Override
+        public void begin(String query, String[] columns) throws IOException {
+            this.columns = columns;
+            json.beginObject().name("query").value(query).name("results").beginArray();
+        }
+
+        @Override
+        public void row(Object[] values) throws IOException {
+            json.beginObject();
+            for (int i = 0; i < values.length; i++) {
+                json.name(columns[i]);
+                if (values[i] instanceof Integer) {
+                    json.value((Integer) values[i]);
+                } else if (values[i] instanceof Number) {
+                    json.value(((Number) values[i]).doubleValue());
+                } else {
+                    json.value(values[i] == null ? null : values[i].toString());
+                }
+            }
+            json.endObject();
+        }
+
+        @Override
+        public void end() throws IOException {
+            json.endArray().endObject();
+            out.write('\n');
+        }
+    }
+}
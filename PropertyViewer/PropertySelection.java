@@ -0,0 +1,80 @@
+import java.util.BitSet;
+
+/**
+ * A PropertySelection is the set of properties matched by a Filter, held as
+ * a bitmap of property numbers. It can be walked forwards and backwards in
+ * portfolio order without copying any properties.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertySelection {
+
+    private final BitSet rows;
+    private final int size;
+
+    public PropertySelection(BitSet rows) {
+        this.rows = rows;
+        this.size = rows.cardinality();
+    }
+
+
+    /**
+     * Return the number of properties selected.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Returns true if no property is selected.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     * Returns true if the given property is selected.
+     */
+    public boolean contains(int propertyNumber) {
+        return rows.get(propertyNumber);
+    }
+
+
+    /**
+     * Return the first selected property, or -1 if none is selected.
+     */
+    public int first() {
+        return rows.nextSetBit(0);
+    }
+
+
+    /**
+     * Return the selected property after the given one, looping back to the
+     * first at the end. Returns -1 if none is selected.
+     */
+    public int next(int propertyNumber) {
+        int next = rows.nextSetBit(propertyNumber + 1);
+        return next >= 0 ? next : rows.nextSetBit(0);
+    }
+
+
+    /**
+     * Return the selected property before the given one, looping round to the
+     * last at the start. Returns -1 if none is selected.
+     */
+    public int previous(int propertyNumber) {
+        int previous = propertyNumber > 0 ? rows.previousSetBit(propertyNumber - 1) : -1;
+        return previous >= 0 ? previous : rows.previousSetBit(rows.length() - 1);
+    }
+
+
+    /**
+     * Return a copy of the selected property numbers as a bitmap.
+     */
+    public BitSet toBitSet() {
+        return (BitSet) rows.clone();
+    }
+}
@@ -0,0 +1,377 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PropertyService answers queries over HTTP from one shared in-memory
+ * portfolio, so that other tools need not load the listings themselves.
+ * Every answer is JSON:
+ * <pre>
+ *     GET /properties?filter=price &lt; 100&amp;offset=0&amp;limit=100   a page of the properties matching a filter
+ *     GET /properties/{id}                                  one property
+ *     GET /properties/{id}/nearest?k=10                     the k properties most like it, nearest first
+ * </pre>
+ * The filter is written as Filter.parse reads it and may be left out to page
+ * through every property. Pages hold at most MAX_PAGE_SIZE properties. The
+ * rows matched by recently used filters are cached, and the cache is
+ * emptied whenever a reload of the portfolio is applied.
+ *
+ * Responses are encoded while they are sent, in chunks, so no answer is held
+ * in memory whole. If a request fails once its answer has begun, the
+ * connection is dropped before the answer is ended, so the client sees it
+ * is incomplete rather than a truncated answer with status 200.
+ *
+ * Requests run on a fixed pool of a few threads per core: queries are
+ * short and mostly use the CPU, so more threads would only queue for the
+ * same cores.
+ *
+ * Run main with [--file listings.csv] [--host 127.0.0.1] [--port 8080].
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyService implements AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int DEFAULT_NEIGHBOURS = 10;
+
+    private static final int BACKLOG = 1024;
+    private static final int RESPONSE_BUFFER_CHARS = 8192;
+    private static final int CACHED_FILTERS = 64;
+
+    private final Portfolio portfolio;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // the rows matched by recently used filters, so that paging through them does not evaluate them again
+    private final Map<String, BitSet> filterCache = new LinkedHashMap<String, BitSet>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BitSet> eldest) {
+            return size() > CACHED_FILTERS;
+        }
+    };
+    // the portfolio version the cached filters were evaluated on, guarded by filterCache
+    private int cachedVersion;
+
+    /**
+     * Serve the given portfolio on the given address. Call start to begin answering.
+     */
+    public PropertyService(Portfolio portfolio, InetSocketAddress address) throws IOException {
+        this.portfolio = portfolio;
+        server = HttpServer.create(address, BACKLOG);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/properties", this::handle);
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        String fileName = "airbnb-london.csv";
+        String host = "127.0.0.1";
+        int port = 8080;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--file":
+                    fileName = args[i + 1];
+                    break;
+                case "--host":
+                    host = args[i + 1];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Failure! Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        Portfolio portfolio = new Portfolio(fileName);
+        if (portfolio.hasLoadFailed()) {
+            System.out.println("Failure! Could not load " + fileName + ", not serving it");
+            System.exit(2);
+        }
+        PropertyService service = new PropertyService(portfolio, new InetSocketAddress(host, port));
+        service.start();
+        System.out.println("Serving " + fileName + " on http://" + host + ":" + service.getPort() + "/properties");
+    }
+
+
+    /**
+     * Start answering requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+
+    /**
+     * Return the port the service listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Stop answering requests, letting those in progress finish for up to a second.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+
+    /**
+     * Return an executor with four daemon threads per core to answer requests
+     * on. A few more threads than cores keep every core busy while some
+     * requests wait to send their responses.
+     */
+    static ExecutorService newRequestExecutor() {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4, task -> {
+            Thread thread = new Thread(task, "property-service-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Answer a request under /properties.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean answered = true;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.length < 2 || !path[1].equals("properties")) {
+                sendError(exchange, 404, "No such resource");
+            } else if (path.length == 2) {
+                sendPage(exchange, parameters);
+            } else if (path.length == 3) {
+                sendProperty(exchange, propertyNumber(path[2]));
+            } else if (path.length == 4 && path[3].equals("nearest")) {
+                sendNearest(exchange, propertyNumber(path[2]), intParameter(parameters, "k", DEFAULT_NEIGHBOURS));
+            } else {
+                sendError(exchange, 404, "No such resource");
+            }
+        } catch (NotFoundException e) {
+            answered = sendError(exchange, 404, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            answered = sendError(exchange, 400, e.getMessage());
+        } catch (IllegalStateException e) {
+            answered = sendError(exchange, 503, e.getMessage());
+        } catch (IOException e) {
+            // the client went away while its answer was being sent
+        } catch (RuntimeException e) {
+            System.out.println("Failure! Could not answer " + exchange.getRequestURI());
+            e.printStackTrace();
+            answered = sendError(exchange, 500, "Internal error");
+        }
+        if (!answered) {
+            // closing the exchange would end the body as if it were whole; a handler that throws
+            // instead has its connection closed by the server, cutting the body short
+            throw new IOException("Gave up the answer to " + exchange.getRequestURI() + " after it had begun");
+        }
+        exchange.close();
+    }
+
+
+    /**
+     * Send a page of the properties matching the filter parameter, if any.
+     */
+    private void sendPage(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        String filterText = parameters.getOrDefault("filter", "").trim();
+        int offset = intParameter(parameters, "offset", 0);
+        int limit = intParameter(parameters, "limit", DEFAULT_PAGE_SIZE);
+        if (offset < 0 || limit < 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("offset must be at least 0 and limit between 0 and " + MAX_PAGE_SIZE);
+        }
+        BitSet rows = matches(filterText);
+        int total = rows.cardinality();
+
+        JsonWriter json = startResponse(exchange);
+        json.beginObject().name("total").value(total).name("offset").value(offset).name("limit").value(limit);
+        json.name("properties").beginArray();
+        int row = rows.nextSetBit(0);
+        for (int skipped = 0; skipped < offset && row >= 0; skipped++) {
+            row = rows.nextSetBit(row + 1);
+        }
+        for (int sent = 0; sent < limit && row >= 0; sent++) {
+            writeProperty(json, portfolio.getProperty(row));
+            row = rows.nextSetBit(row + 1);
+        }
+        json.endArray().endObject();
+        json.flush();
+    }
+
+
+    /**
+     * Return the rows matching the given filter text, which must not be modified.
+     */
+    private BitSet matches(String filterText) {
+        int version = portfolio.getVersionNumber();
+        synchronized (filterCache) {
+            if (cachedVersion != version) {
+                filterCache.clear();
+                cachedVersion = version;
+            }
+            BitSet rows = filterCache.get(filterText);
+            if (rows != null) {
+                return rows;
+            }
+        }
+        // evaluated outside the lock, so a slow filter does not hold up the others
+        Filter filter = filterText.isEmpty() ? Filter.all() : Filter.parse(filterText);
+        BitSet rows = portfolio.filter(filter).toBitSet();
+        synchronized (filterCache) {
+            // not kept if a reload was applied meanwhile, as the rows may belong to either version
+            if (cachedVersion == version && portfolio.getVersionNumber() == version) {
+                filterCache.put(filterText, rows);
+            }
+        }
+        return rows;
+    }
+
+
+    private void sendProperty(HttpExchange exchange, int propertyNumber) throws IOException {
+        JsonWriter json = startResponse(exchange);
+        writeProperty(json, portfolio.getProperty(propertyNumber));
+        json.flush();
+    }
+
+
+    private void sendNearest(HttpExchange exchange, int propertyNumber, int k) throws IOException {
+        if (k < 1 || k > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("k must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Neighbours nearest = portfolio.findNearest(propertyNumber, k);
+        JsonWriter json = startResponse(exchange);
+        json.beginObject().name("id").value(portfolio.getProperty(propertyNumber).getID());
+        json.name("nearest").beginArray();
+        for (int i = 0; i < nearest.size(); i++) {
+            json.beginObject().name("distance").value(nearest.getDistance(i)).name("property");
+            writeProperty(json, portfolio.getProperty(nearest.getPropertyNumber(i)));
+            json.endObject();
+        }
+        json.endArray().endObject();
+        json.flush();
+    }
+
+
+    private static void writeProperty(JsonWriter json, Property property) throws IOException {
+        json.beginObject()
+            .name("id").value(property.getID())
+            .name("hostID").value(property.getHostID())
+            .name("hostName").value(property.getHostName())
+            .name("neighbourhood").value(property.getNeighbourhood())
+            .name("roomType").value(property.getRoomType())
+            .name("latitude").value(property.getLatitude())
+            .name("longitude").value(property.getLongitude())
+            .name("price").value(property.getPrice())
+            .name("minimumNights").value(Integer.parseInt(property.getMinNights()))
+            .name("description").value(property.getDescription())
+            .endObject();
+    }
+
+
+    /**
+     * Send the headers of a successful JSON answer, to be followed by a body
+     * of unknown length, and return a writer for the body.
+     */
+    private static JsonWriter startResponse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer body = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8),
+            RESPONSE_BUFFER_CHARS);
+        return new JsonWriter(body);
+    }
+
+
+    /**
+     * Send an error answer and return true, or return false if an answer
+     * had already begun, which can then only be abandoned.
+     */
+    private static boolean sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return false;
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, 0);
+            JsonWriter json = new JsonWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+            json.beginObject().name("error").value(message).endObject();
+            json.flush();
+        } catch (IOException e) {
+            // the client went away
+        }
+        return true;
+    }
+
+
+    private int propertyNumber(String id) {
+        int propertyNumber = portfolio.findByID(URLDecoder.decode(id, StandardCharsets.UTF_8));
+        if (propertyNumber < 0) {
+            throw new NotFoundException("No property with id " + id);
+        }
+        return propertyNumber;
+    }
+
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number: " + value);
+        }
+    }
+
+
+    /**
+     * Thrown when a request names a property that does not exist.
+     */
+    private static class NotFoundException extends IllegalArgumentException {
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+}
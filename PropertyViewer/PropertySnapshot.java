@@ -0,0 +1,296 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * PropertySnapshot saves a loaded PropertyStore as a compact binary file next
+ * to the CSV it came from, and reads it back by memory-mapping it. Numeric
+ * columns are copied out of the mapping in bulk, so a later start-up skips
+ * the CSV parsing altogether.
+ *
+ * The snapshot records the size and modification time the CSV had before
+ * it was parsed. If either has changed, or the snapshot was written by a
+ * different format version, it is ignored and the caller should parse the
+ * CSV and write a new one.
+ *
+ * Each row's record hash, which lets a reload tell which rows changed, is
+ * saved with it, so a snapshot start-up can still reload incrementally.
+ *
+ * Layout (big-endian): magic, version, CSV size, CSV modification time,
+ * row count, the record hash of every row, then the double columns, the
+ * int columns, the plain string columns and the dictionary-encoded columns.
+ * A string column is the byte length of each value, -1 for null, followed
+ * by all the UTF-8 bytes. A dictionary-encoded column is its dictionary,
+ * written as a count and a string column, followed by the code of every row.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertySnapshot {
+
+    private static final int MAGIC = 0x50565350; // "PVSP"
+    private static final int VERSION = 3;
+    private static final String SUFFIX = ".snapshot";
+
+    private final PropertyStore store;
+    private final long[] recordHashes;
+
+    private PropertySnapshot(PropertyStore store, long[] recordHashes) {
+        this.store = store;
+        this.recordHashes = recordHashes;
+    }
+
+
+    /**
+     * Return the path of the snapshot belonging to the given CSV file.
+     */
+    public static Path snapshotPath(Path csvFile) {
+        return csvFile.resolveSibling(csvFile.getFileName() + SUFFIX);
+    }
+
+
+    /**
+     * Read the snapshot of the given CSV file, or return null if there is no
+     * usable snapshot: it is missing, out of date, or of another version.
+     */
+    public static PropertySnapshot read(Path csvFile) throws IOException {
+        ByteBuffer buffer = map(csvFile);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            int size = buffer.getInt();
+            long[] recordHashes = new long[size];
+            buffer.asLongBuffer().get(recordHashes);
+            buffer.position(buffer.position() + size * Long.BYTES);
+
+            double[] latitudes = new double[size];
+            double[] longitudes = new double[size];
+            int[] prices = new int[size];
+            int[] minimumNights = new int[size];
+            int[] availability365 = new int[size];
+            readDoubles(buffer, latitudes);
+            readDoubles(buffer, longitudes);
+            readInts(buffer, prices);
+            readInts(buffer, minimumNights);
+            readInts(buffer, availability365);
+
+            String[] ids = readStrings(buffer, size);
+            String[] descriptions = readStrings(buffer, size);
+            String[] hostIDs = readStrings(buffer, size);
+
+            StringDictionary hostNameDictionary = readDictionary(buffer);
+            int[] hostNames = new int[size];
+            readInts(buffer, hostNames);
+            StringDictionary neighbourhoodDictionary = readDictionary(buffer);
+            int[] neighbourhoods = new int[size];
+            readInts(buffer, neighbourhoods);
+            StringDictionary roomTypeDictionary = readDictionary(buffer);
+            int[] roomTypes = new int[size];
+            readInts(buffer, roomTypes);
+
+            return new PropertySnapshot(new PropertyStore(size, ids, descriptions, hostIDs,
+                hostNames, hostNameDictionary, neighbourhoods, neighbourhoodDictionary,
+                roomTypes, roomTypeDictionary, latitudes, longitudes,
+                prices, minimumNights, availability365), recordHashes);
+        } catch (RuntimeException e) {
+            // a truncated or corrupt snapshot is treated like a missing one
+            return null;
+        }
+    }
+
+
+    /**
+     * Return the rows read from the snapshot.
+     */
+    public PropertyStore getStore() {
+        return store;
+    }
+
+
+    /**
+     * Return the hash of the record each row was read from, one per row.
+     */
+    public long[] getRecordHashes() {
+        return recordHashes;
+    }
+
+
+    /**
+     * Map the snapshot of the given CSV file and return it positioned at the
+     * row count, or null if it is missing, out of date, or of another version.
+     */
+    private static ByteBuffer map(Path csvFile) throws IOException {
+        Path snapshot = snapshotPath(csvFile);
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 28 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != Files.size(csvFile)
+                    || buffer.getLong() != Files.getLastModifiedTime(csvFile).toMillis()) {
+                return null;
+            }
+            return buffer;
+        }
+    }
+
+
+    /**
+     * Write a snapshot of the store, and the hash of the record each row was
+     * read from, for the given CSV file, stamped with the attributes the file
+     * had before the rows were parsed from it: if it was rewritten meanwhile,
+     * the snapshot is out of date from the start. Missing hashes, or null,
+     * are saved as 0, which a reload takes for a changed record. The snapshot
+     * is written to a temporary file first and then moved into place, so a
+     * reader never sees a half-written snapshot.
+     */
+    public static void write(PropertyStore store, long[] recordHashes, Path csvFile,
+            BasicFileAttributes csvAttributes) throws IOException {
+        Path snapshot = snapshotPath(csvFile);
+        Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        int size = store.size();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(csvAttributes.size());
+            out.writeLong(csvAttributes.lastModifiedTime().toMillis());
+            out.writeInt(size);
+
+            for (int row = 0; row < size; row++) {
+                out.writeLong(recordHashes != null && row < recordHashes.length ? recordHashes[row] : 0);
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeDouble(store.getLatitude(row));
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeDouble(store.getLongitude(row));
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getPrice(row));
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getMinimumNights(row));
+            }
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getAvailability365(row));
+            }
+
+            String[] values = new String[size];
+            for (int column = 0; column < 3; column++) {
+                for (int row = 0; row < size; row++) {
+                    values[row] = stringColumn(store, column, row);
+                }
+                writeStrings(out, values, size);
+            }
+
+            writeDictionary(out, store.getHostNameDictionary());
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getHostNameCode(row));
+            }
+            writeDictionary(out, store.getNeighbourhoodDictionary());
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getNeighbourhoodCode(row));
+            }
+            writeDictionary(out, store.getRoomTypeDictionary());
+            for (int row = 0; row < size; row++) {
+                out.writeInt(store.getRoomTypeCode(row));
+            }
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * Return the value of one of the three plain string columns, in the order they are written.
+     */
+    private static String stringColumn(PropertyStore store, int column, int row) {
+        switch (column) {
+            case 0:
+                return store.getID(row);
+            case 1:
+                return store.getDescription(row);
+            default:
+                return store.getHostID(row);
+        }
+    }
+
+
+    private static void writeStrings(DataOutputStream out, String[] values, int count) throws IOException {
+        byte[][] bytes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes[i] == null ? -1 : bytes[i].length);
+        }
+        for (int i = 0; i < count; i++) {
+            if (bytes[i] != null) {
+                out.write(bytes[i]);
+            }
+        }
+    }
+
+
+    private static void writeDictionary(DataOutputStream out, StringDictionary dictionary) throws IOException {
+        String[] values = new String[dictionary.size()];
+        for (int code = 0; code < values.length; code++) {
+            values[code] = dictionary.decode(code);
+        }
+        out.writeInt(values.length);
+        writeStrings(out, values, values.length);
+    }
+
+
+    private static StringDictionary readDictionary(ByteBuffer buffer) {
+        String[] values = readStrings(buffer, buffer.getInt());
+        StringDictionary dictionary = new StringDictionary();
+        for (String value : values) {
+            dictionary.encode(value);
+        }
+        return dictionary;
+    }
+
+
+    private static void readDoubles(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().get(column);
+        buffer.position(buffer.position() + column.length * Double.BYTES);
+    }
+
+
+    private static void readInts(ByteBuffer buffer, int[] column) {
+        buffer.asIntBuffer().get(column);
+        buffer.position(buffer.position() + column.length * Integer.BYTES);
+    }
+
+
+    private static String[] readStrings(ByteBuffer buffer, int size) {
+        int[] lengths = new int[size];
+        readInts(buffer, lengths);
+        String[] column = new String[size];
+        byte[] bytes = new byte[256];
+        for (int row = 0; row < size; row++) {
+            if (lengths[row] < 0) {
+                continue;
+            }
+            if (lengths[row] > bytes.length) {
+                bytes = new byte[Math.max(lengths[row], bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, lengths[row]);
+            column[row] = new String(bytes, 0, lengths[row], StandardCharsets.UTF_8);
+        }
+        return column;
+    }
+}
@@ -0,0 +1,578 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * PropertyStore holds the rows of a portfolio column by column. Numeric
+ * columns live in primitive arrays, so a loaded data set costs a handful of
+ * large arrays rather than one object per listing. Property objects are
+ * only created on demand, as lightweight views onto a single row.
+ *
+ * Host name, neighbourhood and room type repeat heavily, so they are
+ * dictionary-encoded: each row stores an int code and the strings are kept
+ * once, in a StringDictionary per column.
+ *
+ * A lazily loaded portfolio holds its rows as many small stores, one per
+ * page of the file. Such a page knows the portfolio number of its first row
+ * and shares its favourites with the other pages, so favourites survive the
+ * page being evicted and read again.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyStore {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int size;
+
+    private String[] ids;
+    private String[] descriptions;
+    private String[] hostIDs;
+    private int[] hostNames;
+    private int[] neighbourhoods;
+    private int[] roomTypes;
+    private StringDictionary hostNameDictionary;
+    private StringDictionary neighbourhoodDictionary;
+    private StringDictionary roomTypeDictionary;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] prices;
+    private int[] minimumNights;
+    private int[] availability365;
+
+    private int firstRow;
+    private Favourites favourites;
+
+    public PropertyStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PropertyStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new String[capacity];
+        descriptions = new String[capacity];
+        hostIDs = new String[capacity];
+        hostNames = new int[capacity];
+        neighbourhoods = new int[capacity];
+        roomTypes = new int[capacity];
+        hostNameDictionary = new StringDictionary();
+        neighbourhoodDictionary = new StringDictionary();
+        roomTypeDictionary = new StringDictionary();
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        prices = new int[capacity];
+        minimumNights = new int[capacity];
+        availability365 = new int[capacity];
+        favourites = new Favourites();
+        size = 0;
+    }
+
+
+    /**
+     * Wrap columns that were filled elsewhere, such as from a snapshot file.
+     * The arrays are used as they are, not copied.
+     */
+    PropertyStore(int size, String[] ids, String[] descriptions, String[] hostIDs,
+            int[] hostNames, StringDictionary hostNameDictionary,
+            int[] neighbourhoods, StringDictionary neighbourhoodDictionary,
+            int[] roomTypes, StringDictionary roomTypeDictionary,
+            double[] latitudes, double[] longitudes,
+            int[] prices, int[] minimumNights, int[] availability365) {
+        this.size = size;
+        this.ids = ids;
+        this.descriptions = descriptions;
+        this.hostIDs = hostIDs;
+        this.hostNames = hostNames;
+        this.neighbourhoods = neighbourhoods;
+        this.roomTypes = roomTypes;
+        this.hostNameDictionary = hostNameDictionary;
+        this.neighbourhoodDictionary = neighbourhoodDictionary;
+        this.roomTypeDictionary = roomTypeDictionary;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.prices = prices;
+        this.minimumNights = minimumNights;
+        this.availability365 = availability365;
+        this.favourites = new Favourites();
+    }
+
+
+    /**
+     * The favourite flags and ids of a store, keyed by portfolio row number.
+     */
+    static class Favourites {
+        private final BitSet flags = new BitSet();
+        private final Map<Integer, Integer> ids = new HashMap<>();
+    }
+
+
+    /**
+     * Make this store a page of a larger portfolio: its row 0 is portfolio row
+     * firstRow, and its favourites are kept in the given shared state.
+     */
+    void makePage(int firstRow, Favourites favourites) {
+        this.firstRow = firstRow;
+        this.favourites = favourites;
+    }
+
+
+    /**
+     * Append a row to the store and return its row number.
+     */
+    public int add(String id, String name, String hostID, String hostName,
+            String neighbourhood, double latitude, double longitude, String roomType,
+            int price, int minimumNights, int availability365) {
+        ensureCapacity(size + 1);
+        int row = size;
+        ids[row] = id;
+        descriptions[row] = name;
+        hostIDs[row] = hostID;
+        hostNames[row] = hostNameDictionary.encode(hostName);
+        neighbourhoods[row] = neighbourhoodDictionary.encode(neighbourhood);
+        latitudes[row] = latitude;
+        longitudes[row] = longitude;
+        roomTypes[row] = roomTypeDictionary.encode(roomType);
+        prices[row] = price;
+        this.minimumNights[row] = minimumNights;
+        this.availability365[row] = availability365;
+        size++;
+        return row;
+    }
+
+
+    /**
+     * Append every row of another store, in order, to the end of this one.
+     */
+    public void addAll(PropertyStore other) {
+        ensureCapacity(size + other.size);
+        int n = other.size;
+        System.arraycopy(other.ids, 0, ids, size, n);
+        System.arraycopy(other.descriptions, 0, descriptions, size, n);
+        System.arraycopy(other.hostIDs, 0, hostIDs, size, n);
+        copyCodes(other.hostNames, hostNameDictionary.merge(other.hostNameDictionary), hostNames, n);
+        copyCodes(other.neighbourhoods, neighbourhoodDictionary.merge(other.neighbourhoodDictionary),
+            neighbourhoods, n);
+        copyCodes(other.roomTypes, roomTypeDictionary.merge(other.roomTypeDictionary), roomTypes, n);
+        System.arraycopy(other.latitudes, 0, latitudes, size, n);
+        System.arraycopy(other.longitudes, 0, longitudes, size, n);
+        System.arraycopy(other.prices, 0, prices, size, n);
+        System.arraycopy(other.minimumNights, 0, minimumNights, size, n);
+        System.arraycopy(other.availability365, 0, availability365, size, n);
+        BitSet otherFlags = other.favourites.flags;
+        for (int row = otherFlags.nextSetBit(other.firstRow); row >= 0 && row < other.firstRow + n;
+                row = otherFlags.nextSetBit(row + 1)) {
+            favourites.flags.set(portfolioRow(size + row - other.firstRow));
+        }
+        for (int row = 0; row < n; row++) {
+            Integer id = other.favourites.ids.get(other.portfolioRow(row));
+            if (id != null) {
+                favourites.ids.put(portfolioRow(size + row), id);
+            }
+        }
+        size += n;
+    }
+
+
+    /**
+     * Append a copy of one row of another store, favourite state included, and return its row number.
+     */
+    public int addRow(PropertyStore other, int otherRow) {
+        int row = add(other.getID(otherRow), other.getDescription(otherRow), other.getHostID(otherRow),
+            other.getHostName(otherRow), other.getNeighbourhood(otherRow), other.getLatitude(otherRow),
+            other.getLongitude(otherRow), other.getRoomType(otherRow), other.getPrice(otherRow),
+            other.getMinimumNights(otherRow), other.getAvailability365(otherRow));
+        if (other.isFavourite(otherRow)) {
+            favourites.flags.set(portfolioRow(row));
+        }
+        Integer id = other.favourites.ids.get(other.portfolioRow(otherRow));
+        if (id != null) {
+            favourites.ids.put(portfolioRow(row), id);
+        }
+        return row;
+    }
+
+
+    /**
+     * Append n codes from another store, translated into this store's dictionary.
+     */
+    private void copyCodes(int[] source, int[] translation, int[] target, int n) {
+        for (int i = 0; i < n; i++) {
+            target[size + i] = translation[source[i]];
+        }
+    }
+
+
+    /**
+     * Return the number of rows held in this store.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the portfolio row number of the given row of this store. It
+     * differs from the row only for a page of a lazily loaded portfolio.
+     */
+    int portfolioRow(int row) {
+        return firstRow + row;
+    }
+
+
+    /**
+     * Returns true if the given row of this store and otherRow of the other
+     * store are the same row of the same portfolio.
+     */
+    boolean isSameRow(int row, PropertyStore other, int otherRow) {
+        return favourites == other.favourites && portfolioRow(row) == other.portfolioRow(otherRow);
+    }
+
+
+    /**
+     * Return a hash code for the given row, consistent with isSameRow.
+     */
+    int rowHashCode(int row) {
+        return 31 * System.identityHashCode(favourites) + portfolioRow(row);
+    }
+
+
+    /**
+     * Return a Property view onto the given row.
+     */
+    public Property getProperty(int row) {
+        Objects.checkIndex(row, size);
+        return new RowView(this, row);
+    }
+
+
+    /**
+     * Grow every column so that at least minCapacity rows fit.
+     */
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= ids.length) {
+            return;
+        }
+        resize(Math.max(minCapacity, ids.length + (ids.length >> 1)));
+    }
+
+
+    /**
+     * Shrink every column to the number of rows held, once loading is done.
+     */
+    public void trimToSize() {
+        int capacity = Math.max(size, 1);
+        if (capacity != ids.length) {
+            resize(capacity);
+        }
+    }
+
+
+    /**
+     * Copy every column into arrays of the given capacity.
+     */
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        hostIDs = Arrays.copyOf(hostIDs, capacity);
+        hostNames = Arrays.copyOf(hostNames, capacity);
+        neighbourhoods = Arrays.copyOf(neighbourhoods, capacity);
+        roomTypes = Arrays.copyOf(roomTypes, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        minimumNights = Arrays.copyOf(minimumNights, capacity);
+        availability365 = Arrays.copyOf(availability365, capacity);
+    }
+
+
+    /**
+     * Return the id of the given row.
+     */
+    public String getID(int row) {
+        return ids[row];
+    }
+
+
+    /**
+     * Return the description of the given row.
+     */
+    public String getDescription(int row) {
+        return descriptions[row];
+    }
+
+
+    /**
+     * Return the host id of the given row.
+     */
+    public String getHostID(int row) {
+        return hostIDs[row];
+    }
+
+
+    /**
+     * Return the host name of the given row.
+     */
+    public String getHostName(int row) {
+        return hostNameDictionary.decode(hostNames[row]);
+    }
+
+
+    /**
+     * Return the neighbourhood of the given row.
+     */
+    public String getNeighbourhood(int row) {
+        return neighbourhoodDictionary.decode(neighbourhoods[row]);
+    }
+
+
+    /**
+     * Return the room type of the given row.
+     */
+    public String getRoomType(int row) {
+        return roomTypeDictionary.decode(roomTypes[row]);
+    }
+
+
+    /**
+     * Return the dictionary code of the host name of the given row.
+     */
+    public int getHostNameCode(int row) {
+        return hostNames[row];
+    }
+
+
+    /**
+     * Return the dictionary code of the neighbourhood of the given row.
+     */
+    public int getNeighbourhoodCode(int row) {
+        return neighbourhoods[row];
+    }
+
+
+    /**
+     * Return the dictionary code of the room type of the given row.
+     */
+    public int getRoomTypeCode(int row) {
+        return roomTypes[row];
+    }
+
+
+    /**
+     * Return the dictionary of host names.
+     */
+    public StringDictionary getHostNameDictionary() {
+        return hostNameDictionary;
+    }
+
+
+    /**
+     * Return the dictionary of neighbourhoods.
+     */
+    public StringDictionary getNeighbourhoodDictionary() {
+        return neighbourhoodDictionary;
+    }
+
+
+    /**
+     * Return the dictionary of room types.
+     */
+    public StringDictionary getRoomTypeDictionary() {
+        return roomTypeDictionary;
+    }
+
+
+    /**
+     * Return the latitude of the given row.
+     */
+    public double getLatitude(int row) {
+        return latitudes[row];
+    }
+
+
+    /**
+     * Return the longitude of the given row.
+     */
+    public double getLongitude(int row) {
+        return longitudes[row];
+    }
+
+
+    /**
+     * Returns true if the given row has a latitude and a longitude. A missing
+     * one is stored as -1, like every other missing number.
+     */
+    public boolean hasLocation(int row) {
+        return latitudes[row] != -1.0 && longitudes[row] != -1.0;
+    }
+
+
+    /**
+     * Return the price of the given row.
+     */
+    public int getPrice(int row) {
+        return prices[row];
+    }
+
+
+    /**
+     * Return the minimum number of nights of the given row.
+     */
+    public int getMinimumNights(int row) {
+        return minimumNights[row];
+    }
+
+
+    /**
+     * Return the number of days per year the given row is available.
+     */
+    public int getAvailability365(int row) {
+        return availability365[row];
+    }
+
+
+    /**
+     * Returns true if the given row is marked as a favourite.
+     */
+    public boolean isFavourite(int row) {
+        return favourites.flags.get(portfolioRow(row));
+    }
+
+
+    /**
+     * Toggles whether the given row is marked as a favourite or not.
+     */
+    public void toggleFavourite(int row) {
+        favourites.flags.flip(portfolioRow(row));
+    }
+
+
+    /**
+     * Return the favourite id of the given row.
+     */
+    public int getFavouriteId(int row) {
+        return favourites.ids.getOrDefault(portfolioRow(row), 0);
+    }
+
+
+    /**
+     * Sets the favourite id of the given row.
+     */
+    public void setFavouriteId(int row, int id) {
+        favourites.ids.put(portfolioRow(row), id);
+    }
+
+
+    /**
+     * A Property that reads and writes one row of a store. Views are cheap
+     * and made on demand; two views of the same row are equal.
+     */
+    private static class RowView extends Property {
+        private final PropertyStore store;
+        private final int row;
+
+        RowView(PropertyStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public int getRow() {
+            return store.portfolioRow(row);
+        }
+
+        @Override
+        public String getID() {
+            return store.getID(row);
+        }
+
+        @Override
+        public String getHostID() {
+            return store.getHostID(row);
+        }
+
+        @Override
+        public double getLatitude() {
+            return store.getLatitude(row);
+        }
+
+        @Override
+        public double getLongitude() {
+            return store.getLongitude(row);
+        }
+
+        @Override
+        public int getPrice() {
+            return store.getPrice(row);
+        }
+
+        @Override
+        public boolean isFavourite() {
+            return store.isFavourite(row);
+        }
+
+        @Override
+        public String getHostName() {
+            return store.getHostName(row);
+        }
+
+        @Override
+        public String getNeighbourhood() {
+            return store.getNeighbourhood(row);
+        }
+
+        @Override
+        public String getRoomType() {
+            return store.getRoomType(row);
+        }
+
+        @Override
+        int getMinimumNights() {
+            return store.getMinimumNights(row);
+        }
+
+        @Override
+        int getAvailability365() {
+            return store.getAvailability365(row);
+        }
+
+        @Override
+        public String getDescription() {
+            return store.getDescription(row);
+        }
+
+        @Override
+        public void toggleFavourite() {
+            store.toggleFavourite(row);
+        }
+
+        @Override
+        public void setFavouriteId(int id) {
+            store.setFavouriteId(row, id);
+        }
+
+        @Override
+        public int getFavouriteId() {
+            return store.getFavouriteId(row);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof RowView)) {
+                return false;
+            }
+            RowView that = (RowView) other;
+            return store.isSameRow(row, that.store, that.row);
+        }
+
+        @Override
+        public int hashCode() {
+            return store.rowHashCode(row);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+/**
+ * PropertyTable shows every property of a portfolio as a row of a sortable
+ * table. The table holds no properties: its items are property numbers, and
+ * only the cells on screen read their property from the portfolio, so
+ * scrolling through a million rows costs no more than through a hundred.
+ *
+ * Sorting reads the property numbers through one of the portfolio's sort
+ * orders instead of sorting a list; a descending sort reads it backwards.
+ * Only the first column of the table's sort order is used.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class PropertyTable {
+
+    private static final double ROW_HEIGHT = 24;
+
+    private final PropertyViewer viewer;
+    private final PropertyNumbers rows = new PropertyNumbers();
+    private final TableView<Integer> table = new TableView<>(rows);
+    private final List<TableColumn<Integer, ?>> columns = new ArrayList<>();
+    private Portfolio portfolio;
+
+    public PropertyTable(PropertyViewer viewer) {
+        this.viewer = viewer;
+
+        addColumn("ID", SortOrders.Column.ID, Property::getID, 80);
+        addColumn("Host Name", SortOrders.Column.HOST_NAME, Property::getHostName, 100);
+        addColumn("Neighbourhood", SortOrders.Column.NEIGHBOURHOOD, Property::getNeighbourhood, 120);
+        addColumn("Room Type", SortOrders.Column.ROOM_TYPE, Property::getRoomType, 110);
+        addColumn("Price", SortOrders.Column.PRICE, Property::getPrice, 60);
+        addColumn("Min Nights", SortOrders.Column.MINIMUM_NIGHTS, Property::getMinNights, 75);
+
+        // a fixed row height lets the table work out which rows are on screen without measuring them
+        table.setFixedCellSize(ROW_HEIGHT);
+        table.setPlaceholder(new Label("Loading properties..."));
+        table.setSortPolicy(view -> sort());
+        table.getSelectionModel().selectedIndexProperty().addListener((observable, oldIndex, newIndex) -> {
+            int index = newIndex.intValue();
+            if (index >= 0 && index < rows.size()) {
+                viewer.selectProperty(rows.get(index));
+            }
+        });
+        setSortingEnabled(false);
+    }
+
+
+    /**
+     * Return the table, to be placed in a pane.
+     */
+    public TableView<Integer> getTable() {
+        return table;
+    }
+
+
+    /**
+     * Show the properties of the given portfolio, unsorted.
+     */
+    public void setPortfolio(Portfolio portfolio) {
+        this.portfolio = portfolio;
+        table.getSortOrder().clear();
+        rows.resize(portfolio.numberOfProperties());
+        table.refresh();
+    }
+
+
+    /**
+     * Show the first count properties of the portfolio, as more are loaded.
+     */
+    public void setRowCount(int count) {
+        rows.resize(count);
+    }
+
+
+    /**
+     * Show the portfolio again after it has been reloaded, keeping its sort column.
+     */
+    public void refresh() {
+        rows.resize(portfolio.numberOfProperties());
+        table.sort();
+    }
+
+
+    /**
+     * Allow or prevent sorting by clicking on column headers.
+     */
+    public void setSortingEnabled(boolean enabled) {
+        for (TableColumn<Integer, ?> column : columns) {
+            column.setSortable(enabled);
+        }
+    }
+
+
+    /**
+     * Add a column showing the given value of each property, sorted by sortColumn.
+     */
+    private <T> void addColumn(String title, SortOrders.Column sortColumn, Function<Property, T> value,
+            double width) {
+        TableColumn<Integer, T> column = new TableColumn<>(title);
+        column.setUserData(sortColumn);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell ->
+            new ReadOnlyObjectWrapper<>(value.apply(portfolio.getProperty(cell.getValue()))));
+        columns.add(column);
+        table.getColumns().add(column);
+    }
+
+
+    /**
+     * Sort the rows by the first column of the table's sort order. Returns
+     * false, so the table undoes the sort, if the portfolio cannot be sorted yet.
+     */
+    private boolean sort() {
+        if (table.getSortOrder().isEmpty()) {
+            rows.setOrder(null, false);
+        } else {
+            TableColumn<Integer, ?> column = table.getSortOrder().get(0);
+            try {
+                rows.setOrder(portfolio.sortedBy((SortOrders.Column) column.getUserData()),
+                    column.getSortType() == TableColumn.SortType.DESCENDING);
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        }
+        // the selected position now holds another property
+        table.getSelectionModel().clearSelection();
+        table.refresh();
+        return true;
+    }
+
+
+    /**
+     * The property numbers shown by the table, in portfolio order or read
+     * through a sort order.
+     */
+    private static class PropertyNumbers extends ObservableListBase<Integer> {
+        private int size;
+        private int[] order; // null in portfolio order
+        private boolean descending;
+
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, size);
+            if (order == null) {
+                return index;
+            }
+            return descending ? order[size - 1 - index] : order[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Read the property numbers through the given sort order, or in portfolio order if it is null.
+         */
+        void setOrder(int[] order, boolean descending) {
+            this.order = order;
+            this.descending = descending;
+        }
+
+        /**
+         * Change the number of rows, telling the table which were added or
+         * removed. The rows are put back in portfolio order until sorted again.
+         */
+        void resize(int newSize) {
+            if (newSize == size) {
+                return;
+            }
+            order = null;
+            beginChange();
+            if (newSize > size) {
+                nextAdd(size, newSize);
+            } else {
+                nextRemove(newSize, new ArrayList<>(subList(newSize, size)));
+            }
+            size = newSize;
+            endChange();
+        }
+    }
+}
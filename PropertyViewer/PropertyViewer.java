@@ -1,6 +1,7 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.Button;
@@ -23,9 +24,13 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
     private Portfolio portfolio;
     private PropertyViewerGUI gui;
     private int currentIndex = 0; // Tracks the current index of the property
-    private List<Property> favourites = new ArrayList<>(); // List to store favourite properties
+    private FavouritesIndex favourites = new FavouritesIndex(); // Listing ids of the favourite properties, in the order they were marked
     private int favouriteIndex = 0; // Index of the currently displayed favourite property
     private int totalFavourites = 0; // Total number of favourite properties
+    private PropertySelection selection = null; // Properties matched by the current filter, null when unfiltered
+    private Filter appliedFilter = null; // The filter selection was made from, re-applied after a reload
+    private PortfolioWatcher watcher = null; // Reloads the portfolio when its file changes, null when not watching
+    private boolean browsing = false; // Whether a property has been shown since loading started
     /**
      * The start method is the main entry point for every JavaFX application. 
      * It is called after the init() method has returned and after 
@@ -37,26 +42,208 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
     public void start(Stage stage) {
         
         gui = new PropertyViewerGUI(this);
-        portfolio = new Portfolio("airbnb-london.csv");
         
         // JavaFX must have a Scene (window content) inside a Stage (window)
-        Scene mainScene = new Scene(gui.getMainPane(), 500, 350); //width, height
+        Scene mainScene = new Scene(gui.getMainPane(), 1100, 420); //width, height
         
         stage.setTitle("Property Viewer");
         stage.setScene(mainScene);
-        stage.setWidth(500);
-        stage.setHeight(325);
+        stage.setWidth(1100);
+        stage.setHeight(420);
         stage.setResizable(false);
         
-        // Displays the first property in the portfolio automatically as the application is started
+        // The window is shown straight away and filled in while the portfolio loads
+        gui.setBrowsingEnabled(false);
+        gui.setSearchEnabled(false);
+        favourites = openFavourites("airbnb-london.csv");
+        portfolio = openPortfolio("airbnb-london.csv");
+        gui.showPortfolio(portfolio);
+        
+        // Show the Stage (window)
+        stage.show();
+    }    
+    
+    
+    /**
+     * Open the favourites saved next to the property file. If they cannot be
+     * opened, favourites are kept for this session only.
+     */
+    private FavouritesIndex openFavourites(String fileName) {
+        try {
+            return FavouritesIndex.open(FavouritesIndex.logPath(Portfolio.resolveFile(fileName)));
+        } catch (IOException | URISyntaxException e) {
+            System.out.println("Failure! Could not open the saved favourites, they will not be kept");
+            e.printStackTrace();
+            return new FavouritesIndex();
+        }
+    }
+    
+    
+    /**
+     * Open the portfolio. It is loaded into memory in the background unless
+     * the system property propertyviewer.cachedPages is set, in which case it
+     * is opened lazily with that many pages cached, for files too large for the heap.
+     */
+    private Portfolio openPortfolio(String fileName) {
+        Integer cachedPages = Integer.getInteger("propertyviewer.cachedPages");
+        if (cachedPages != null) {
+            try {
+                Portfolio lazy = Portfolio.openLazily(fileName, cachedPages);
+                browsing = true;
+                showFirstProperty(lazy);
+                gui.hideLoadingProgress();
+                gui.setBrowsingEnabled(true);
+                // a lazy portfolio scans for neighbours, but has no filters or host index
+                gui.setNearestEnabled(true);
+                return lazy;
+            } catch (IOException e) {
+                System.out.println("Failure! Could not open the property file lazily, loading it instead");
+                e.printStackTrace();
+            }
+        }
+        gui.showLoadingProgress(0, "Loading properties...");
+        return Portfolio.loadInBackground(fileName, new Portfolio.LoadListener() {
+            @Override
+            public void rowsLoaded(int rowsAvailable, double fractionDone) {
+                Platform.runLater(() -> showLoadingProgress(rowsAvailable, fractionDone));
+            }
+            
+            @Override
+            public void loaded() {
+                Platform.runLater(() -> finishedLoading());
+            }
+        });
+    }
+    
+    
+    /**
+     * Shows how far loading has got. Browsing starts as soon as the first
+     * rows have arrived; the rest are reached by Next and Previous as they load.
+     */
+    private void showLoadingProgress(int rowsAvailable, double fractionDone) {
+        if (portfolio.isLoaded()) {
+            return;
+        }
+        if (fractionDone < 1) {
+            gui.showLoadingProgress(fractionDone, "Loaded " + rowsAvailable + " properties");
+        } else {
+            gui.showLoadingProgress(1, "Building indexes...");
+        }
+        gui.showPropertyCount(rowsAvailable);
+        if (rowsAvailable > 0 && !browsing) {
+            browsing = true;
+            showFirstProperty(portfolio);
+            gui.setBrowsingEnabled(true);
+        }
+    }
+    
+    
+    /**
+     * Enables searching once the whole portfolio and its indexes are loaded,
+     * unless it is empty, marks the saved favourites and starts watching its file.
+     */
+    private void finishedLoading() {
+        markFavourites();
+        gui.hideLoadingProgress();
+        if (!browsing) {
+            browsing = true;
+            showFirstProperty(portfolio);
+        }
+        gui.setBrowsingEnabled(portfolio.numberOfProperties() > 0);
+        gui.setSearchEnabled(portfolio.numberOfProperties() > 0);
+        gui.refreshPortfolio();
+        gui.setSortingEnabled(true);
+        watchPortfolio();
+    }
+    
+    
+    /**
+     * Displays the first property in the given portfolio, if it has any.
+     */
+    private void showFirstProperty(Portfolio portfolio) {
         if (portfolio.numberOfProperties() > 0){
             Property firstProperty = portfolio.getProperty(0);
             gui.showProperty(firstProperty);
         }
+    }
+    
+    
+    /**
+     * Marks the properties whose listing ids are among the favourites.
+     * Favourites that are not in the file are kept, as the file may only be
+     * missing them for now, and nothing is marked if no properties loaded.
+     */
+    private void markFavourites() {
+        totalFavourites = favourites.size();
+        if (portfolio.numberOfProperties() == 0) {
+            return;
+        }
+        for (String id : favourites.toList()) {
+            int row = portfolio.findByID(id);
+            if (row >= 0 && !portfolio.getProperty(row).isFavourite()) {
+                portfolio.getProperty(row).toggleFavourite();
+            }
+        }
+    }
+    
+    
+    /**
+     * Stops watching the portfolio's file and closes the favourites when the application closes.
+     */
+    @Override
+    public void stop() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        favourites.close();
+    }
+    
+    
+    /**
+     * Reload the portfolio whenever its file changes, if the system property
+     * propertyviewer.watch is true. Reloads are applied on the JavaFX thread.
+     */
+    private void watchPortfolio() {
+        if (!Boolean.getBoolean("propertyviewer.watch") || portfolio.isLazy()) {
+            return;
+        }
+        try {
+            watcher = new PortfolioWatcher(portfolio, Platform::runLater, this::reloaded);
+            watcher.start();
+        } catch (IOException e) {
+            System.out.println("Failure! Could not watch the property file");
+            e.printStackTrace();
+        }
+    }
+    
+    
+    /**
+     * Move the favourites, the current property and the filter over to the
+     * reloaded portfolio. Favourites that were deleted from the file are
+     * kept, in case they come back.
+     */
+    private void reloaded(Portfolio.Reload reload) {
+        markFavourites();
         
-        // Show the Stage (window)
-        stage.show();
-    }    
+        int size = portfolio.numberOfProperties();
+        int row = reload.newPropertyNumber(currentIndex);
+        // if the current property was deleted, stay at the same position
+        currentIndex = row >= 0 ? row : Math.max(Math.min(currentIndex, size - 1), 0);
+        
+        // the controls act on the current property, so there must be one
+        gui.setBrowsingEnabled(size > 0);
+        gui.setSearchEnabled(size > 0);
+        gui.refreshPortfolio();
+        if (selection != null) {
+            selection = portfolio.filter(appliedFilter);
+            gui.showFilterStatus(selection.size() + " matches");
+        }
+        if (size > 0) {
+            Property property = portfolio.getProperty(currentIndex);
+            gui.showProperty(property);
+            updateFavouriteLabelForCurrentProperty(property);
+        }
+    }
     
     
     /**
@@ -79,23 +266,48 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
             case "Nearest Neighbour":
                 nearClick();
             break;
+            case "Apply Filter":
+                filterClick();
+            break;
+            case "Host's Listings":
+                hostClick();
+            break;
             default:
                 System.out.println("Unknown Button Press");
         }
     }
     
     
+    /**
+     * Displays the property selected in the table.
+     */
+    public void selectProperty(int propertyNumber) {
+        currentIndex = propertyNumber;
+        Property property = portfolio.getProperty(currentIndex);
+        gui.showProperty(property);
+        updateFavouriteLabelForCurrentProperty(property);
+    }
+    
+    
     /**
      * Displays the next property in the portfolio.
      * If reaches the end of the list, will loop back to the first property.
+     * When a filter is applied, only the properties it matches are visited.
      */
     private void nextClick() {
-        // increments to next index so can go to next property
-        currentIndex = currentIndex + 1;
-        
-        // Checks if we need to loop to first property
-        if (currentIndex >= portfolio.numberOfProperties()){
-            currentIndex = 0;
+        if (selection != null) {
+            if (selection.isEmpty()) {
+                return;
+            }
+            currentIndex = selection.next(currentIndex);
+        } else {
+            // increments to next index so can go to next property
+            currentIndex = currentIndex + 1;
+            
+            // Checks if we need to loop to first property
+            if (currentIndex >= portfolio.numberOfProperties()){
+                currentIndex = 0;
+            }
         }
         
         // Displays next property
@@ -111,14 +323,22 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
     /**
      * Displays the previous property in the portfolio.
      * If it reaches the begning of the list, will loop to the last property.
+     * When a filter is applied, only the properties it matches are visited.
      */    
     private void prevClick() {
-        // decrements to previous index so can go to previous property
-        currentIndex = currentIndex - 1;
-        
-        // Checks if we need to loop to last property
-        if (currentIndex < 0){
-            currentIndex = portfolio.numberOfProperties() - 1;
+        if (selection != null) {
+            if (selection.isEmpty()) {
+                return;
+            }
+            currentIndex = selection.previous(currentIndex);
+        } else {
+            // decrements to previous index so can go to previous property
+            currentIndex = currentIndex - 1;
+            
+            // Checks if we need to loop to last property
+            if (currentIndex < 0){
+                currentIndex = portfolio.numberOfProperties() - 1;
+            }
         }
         
         // Displays previous property
@@ -136,77 +356,83 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
      */    
     private void favClick() {
         Property currentProperty = portfolio.getProperty(currentIndex);
+        String id = currentProperty.getID();
 
-        // Toggle the favourite status on the property
-        currentProperty.toggleFavourite();
-
-        if (currentProperty.isFavourite()) {
-            // Add to favourites if it was not previously favourite
-            favourites.add(currentProperty);
-        } else {
+        // The favourites decide, as a lazily opened portfolio forgets the flags of pages it drops
+        if (favourites.contains(id)) {
             // Remove from favourites if it was previously favourite
-            favourites.remove(currentProperty);
+            favourites.remove(id);
+        } else {
+            // Add to favourites if it was not previously favourite
+            favourites.add(id);
+        }
+        if (currentProperty.isFavourite() != favourites.contains(id)) {
+            currentProperty.toggleFavourite();
         }
         
         updateFavouriteLabelForCurrentProperty(currentProperty);
-        
-        // Update the favourite index and total favourites
-        totalFavourites = favourites.size();
-        favouriteIndex = favourites.indexOf(currentProperty) + 1;// for 1-based index
-
-        // Update the favourite label only if the property is a favourite
-        if (currentProperty.isFavourite()) {
-            gui.updateFavouriteLabel("Favourite " + favouriteIndex + " of " + totalFavourites);
-        } else {
-            gui.updateFavouriteLabel(""); // Clear the label if not a favourite
-        }
     }
 
 
 
     
     /**
-     * Finds and displays propetry closest to current property using its location (longitude and latitude).
-     */    
-    private void nearClick() {
-        Property currentProperty = portfolio.getProperty(currentIndex);
-        ArrayList<Double> currentVector = currentProperty.getVector();
-        
-        Property nearestProperty = null;
-        double minDistance = Double.MAX_VALUE; //maximum value a double can hold
-        
-        for(int i=0 ; i < portfolio.numberOfProperties(); i ++){
-            if (i != currentIndex){ // so doesnt compare with itself
-                Property property = portfolio.getProperty(i);
-                ArrayList<Double> propertyVector = property.getVector();
-                Double distance = calculateEuclideanDistance(currentVector,propertyVector);
-                
-                if (distance < minDistance){
-                    minDistance = distance;
-                    nearestProperty = property;
-                }
-            }
+     * Applies the filter typed into the filter field, so that Next and Previous
+     * only visit matching properties, and displays the first match.
+     * An empty filter shows every property again.
+     */
+    private void filterClick() {
+        String text = gui.getFilterText().trim();
+        if (text.isEmpty()) {
+            selection = null;
+            appliedFilter = null;
+            gui.showFilterStatus("");
+            return;
+        }
+        
+        try {
+            Filter filter = Filter.parse(text);
+            selection = portfolio.filter(filter);
+            appliedFilter = filter;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            gui.showFilterStatus(e.getMessage());
+            return;
         }
         
-        if (nearestProperty != null){
-            gui.showProperty(nearestProperty);
+        gui.showFilterStatus(selection.size() + " matches");
+        if (!selection.isEmpty()) {
+            currentIndex = selection.first();
+            Property firstMatch = portfolio.getProperty(currentIndex);
+            gui.showProperty(firstMatch);
+            updateFavouriteLabelForCurrentProperty(firstMatch);
         }
     }
     
+    
     /**
-     *  Calculates the Euclidean distance between two vectors.
-     *  Will calculate the distance by iterating through each element in the vectors,
-     *  Calculating the squared difference for each corresponding pair of elements,
-     *  Summing these differences,then taking the square root of the sum.
+     * Filters the portfolio down to the listings of the host of the current
+     * property, which the host index finds without a scan. Next and Previous
+     * then walk through that host's listings.
      */
-    private double calculateEuclideanDistance(ArrayList<Double> vector1, ArrayList<Double> vector2 ){
-        double sum = 0.0;
+    private void hostClick() {
+        String hostID = portfolio.getProperty(currentIndex).getHostID();
+        // quote the id with whichever quote it does not contain
+        String quote = hostID.indexOf('\'') < 0 ? "'" : "\"";
+        gui.setFilterText("host = " + quote + hostID + quote);
+        filterClick();
+    }
+    
+    
+    /**
+     * Finds and displays propetry closest to current property using its location (longitude and latitude).
+     * The search uses the portfolio's nearest neighbour index rather than scanning every property.
+     */    
+    private void nearClick() {
+        int nearestIndex = portfolio.findNearest(currentIndex);
         
-        for(int i = 0 ; i < vector1.size() ; i++){
-            sum += Math.pow(vector1.get(i) - vector2.get(i), 2);
+        if (nearestIndex >= 0){
+            gui.showProperty(portfolio.getProperty(nearestIndex));
         }
-        
-        return Math.sqrt(sum);
     }
     
 
@@ -216,10 +442,10 @@ public class PropertyViewer extends Application implements EventHandler<ActionEv
      * If not, clears the label.
      */
     private void updateFavouriteLabelForCurrentProperty(Property property) {
-        if (property.isFavourite()) {
-            // Find position within favourites list
-            favouriteIndex = favourites.indexOf(property) + 1;
-            totalFavourites = favourites.size();
+        // Find position within favourites list, 0 if it is not a favourite
+        favouriteIndex = favourites.rankOf(property.getID());
+        totalFavourites = favourites.size();
+        if (favouriteIndex > 0) {
             gui.updateFavouriteLabel("Favourite " + favouriteIndex + " of " + totalFavourites);
         } else {
             // Clear the label if the property is not a favourite
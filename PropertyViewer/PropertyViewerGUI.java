@@ -1,6 +1,9 @@
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.*;
@@ -21,6 +24,16 @@ public class PropertyViewerGUI {
     private PropertyViewer viewer;
     private Label idLabel = new Label("default");
     private Label favouriteLabel = new Label("My Favourite");
+    private Label filterStatusLabel = new Label("");
+    private Label loadingLabel = new Label("");
+    private ProgressBar loadingBar = new ProgressBar(0);
+    
+    private Button nextButton;
+    private Button prevButton;
+    private Button favButton;
+    private Button nearButton;
+    private Button filterButton;
+    private Button hostButton;
     
     private TextField hostIDField;
     private TextField hostNameField;
@@ -28,10 +41,15 @@ public class PropertyViewerGUI {
     private TextField roomTypeField;
     private TextField priceField;
     private TextField minNightsField;
+    private TextField filterField;
+    private PropertyTable propertyTable;
+    private MapPane mapPane;
 
     public PropertyViewerGUI(PropertyViewer viewer) {
         
         this.viewer = viewer;
+        propertyTable = new PropertyTable(viewer);
+        mapPane = new MapPane(viewer);
         
         hostIDField = new TextField("default");
         hostIDField.setEditable(false);
@@ -50,6 +68,9 @@ public class PropertyViewerGUI {
         
         minNightsField = new TextField("default");   
         minNightsField.setEditable(false);
+        
+        filterField = new TextField();
+        filterField.setPromptText("e.g. price < 100");
     }
 
     
@@ -62,8 +83,9 @@ public class PropertyViewerGUI {
         mainPane.setTop(idLabel);
         mainPane.setMargin(idLabel, new Insets(5, 5, 5, 5));
 
-        mainPane.setBottom(favouriteLabel);
-        mainPane.setMargin(favouriteLabel, new Insets(5, 5, 5, 5));
+        GridPane statusPane = getStatusPane();
+        mainPane.setBottom(statusPane);
+        mainPane.setMargin(statusPane, new Insets(5, 5, 5, 5));
 
         GridPane buttonPane = getButtonPane();
         mainPane.setLeft(buttonPane);
@@ -73,6 +95,10 @@ public class PropertyViewerGUI {
         mainPane.setCenter(dataPane);
         mainPane.setMargin(dataPane, new Insets(5, 10, 10, 5));
         
+        TabPane browsePane = getBrowsePane();
+        mainPane.setRight(browsePane);
+        mainPane.setMargin(browsePane, new Insets(5, 10, 10, 5));
+        
         return mainPane;
     }
     
@@ -84,10 +110,11 @@ public class PropertyViewerGUI {
         GridPane buttonPane = new GridPane();
         buttonPane.setVgap(10);       
         
-        Button nextButton = new Button("Next");
-        Button prevButton = new Button("Previous");
-        Button favButton = new Button("Toggle Favourite");
-        Button nearButton = new Button("Nearest Neighbour");
+        nextButton = new Button("Next");
+        prevButton = new Button("Previous");
+        favButton = new Button("Toggle Favourite");
+        nearButton = new Button("Nearest Neighbour");
+        filterButton = new Button("Apply Filter");
 
         nextButton.setOnAction(viewer);
         nextButton.setMinWidth(125);
@@ -97,16 +124,53 @@ public class PropertyViewerGUI {
         favButton.setMinWidth(125);        
         nearButton.setOnAction(viewer);
         nearButton.setMinWidth(125); 
+        filterButton.setOnAction(viewer);
+        filterButton.setMinWidth(125);
+        filterField.setMaxWidth(125);
         
         buttonPane.add(nextButton, 0, 0);
         buttonPane.add(prevButton, 0, 1);
         buttonPane.add(favButton, 0, 2);
         buttonPane.add(nearButton, 0, 3);
+        buttonPane.add(filterField, 0, 4);
+        buttonPane.add(filterButton, 0, 5);
+        buttonPane.add(filterStatusLabel, 0, 6);
         
         return buttonPane;
     }
     
     
+    /**
+     * Creates a pane with the table of all properties and the map
+     */
+    private TabPane getBrowsePane() {
+        Tab tableTab = new Tab("Table", propertyTable.getTable());
+        tableTab.setClosable(false);
+        Tab mapTab = new Tab("Map", mapPane.getCanvas());
+        mapTab.setClosable(false);
+        
+        return new TabPane(tableTab, mapTab);
+    }
+    
+    
+    /**
+     * Creates a pane with the favourite label and, while the portfolio is
+     * loading, a progress bar
+     */
+    private GridPane getStatusPane() {
+        GridPane statusPane = new GridPane();
+        statusPane.setVgap(5);
+        statusPane.setHgap(10);
+        loadingBar.setPrefWidth(125);
+        
+        statusPane.add(favouriteLabel, 0, 0, 2, 1);
+        statusPane.add(loadingBar, 0, 1);
+        statusPane.add(loadingLabel, 1, 1);
+        
+        return statusPane;
+    }
+    
+    
     /**
      * Creates a pane containing labels & textfields ---to display
      * the property data
@@ -120,6 +184,10 @@ public class PropertyViewerGUI {
 
         dataPane.add(new Label("HostID:"), 1, 1);
         dataPane.add(hostIDField, 2, 1);
+        
+        hostButton = new Button("Host's Listings");
+        hostButton.setOnAction(viewer);
+        dataPane.add(hostButton, 3, 1);
 
         dataPane.add(new Label("Host Name:"), 1, 2);
         dataPane.add(hostNameField, 2, 2);      
@@ -152,6 +220,7 @@ public class PropertyViewerGUI {
         minNightsField.setText(property.getMinNights());
         
         idLabel.setText(property.getID());
+        mapPane.showSelected(property);
     } 
     
     /**
@@ -161,4 +230,100 @@ public class PropertyViewerGUI {
         favouriteLabel.setText(text);
     }
     
+    /**
+     * Returns the filter text typed in by the user.
+     */
+    public String getFilterText() {
+        return filterField.getText();
+    }
+    
+    /**
+     * Replaces the filter text, as if the user had typed it in.
+     */
+    public void setFilterText(String text) {
+        filterField.setText(text);
+    }
+    
+    /**
+     * Updates the label showing how many properties match the filter, or what is wrong with it.
+     */
+    public void showFilterStatus(String text) {
+        filterStatusLabel.setText(text);
+    }
+    
+    /**
+     * Shows how far loading has got, as a fraction between 0 and 1, with a message.
+     */
+    public void showLoadingProgress(double progress, String text) {
+        loadingBar.setVisible(true);
+        loadingBar.setProgress(progress);
+        loadingLabel.setText(text);
+    }
+    
+    /**
+     * Hides the loading progress once loading is finished.
+     */
+    public void hideLoadingProgress() {
+        loadingBar.setVisible(false);
+        loadingLabel.setText("");
+    }
+    
+    /**
+     * Enables or disables the buttons that move between and mark properties.
+     */
+    public void setBrowsingEnabled(boolean enabled) {
+        nextButton.setDisable(!enabled);
+        prevButton.setDisable(!enabled);
+        favButton.setDisable(!enabled);
+    }
+    
+    /**
+     * Enables or disables the nearest neighbour, filter and host listing
+     * controls, which need the whole portfolio to be loaded.
+     */
+    public void setSearchEnabled(boolean enabled) {
+        nearButton.setDisable(!enabled);
+        filterField.setDisable(!enabled);
+        filterButton.setDisable(!enabled);
+        hostButton.setDisable(!enabled);
+    }
+    
+    /**
+     * Enables or disables only the nearest neighbour button, for a portfolio
+     * that answers neighbour queries but not filters or host lookups.
+     */
+    public void setNearestEnabled(boolean enabled) {
+        nearButton.setDisable(!enabled);
+    }
+    
+    /**
+     * Lists the properties of the given portfolio in the table and plots them on the map.
+     */
+    public void showPortfolio(Portfolio portfolio) {
+        propertyTable.setPortfolio(portfolio);
+        mapPane.setPortfolio(portfolio);
+    }
+    
+    /**
+     * Lists the first count properties in the table, while the rest are loading.
+     */
+    public void showPropertyCount(int count) {
+        propertyTable.setRowCount(count);
+    }
+    
+    /**
+     * Lists and plots the properties again after the portfolio has loaded or been reloaded.
+     */
+    public void refreshPortfolio() {
+        propertyTable.refresh();
+        mapPane.refresh();
+    }
+    
+    /**
+     * Enables or disables sorting the table, which needs the whole portfolio to be loaded.
+     */
+    public void setSortingEnabled(boolean enabled) {
+        propertyTable.setSortingEnabled(enabled);
+    }
+    
 }
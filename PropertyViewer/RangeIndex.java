@@ -0,0 +1,93 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * RangeIndex answers "value between min and max" for one int column. It
+ * holds the row numbers sorted by value, so a range is found with two binary
+ * searches and only the matching rows are touched.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class RangeIndex {
+
+    private final int[] sortedValues;
+    private final int[] rowsByValue;
+
+    /**
+     * Index the given column of values, one per row.
+     */
+    public RangeIndex(int[] values, int size) {
+        // sort (value, row) pairs packed into longs; rows stay in order for equal values
+        long[] pairs = new long[size];
+        for (int row = 0; row < size; row++) {
+            pairs[row] = ((long) values[row] << 32) | row;
+        }
+        Arrays.parallelSort(pairs);
+        sortedValues = new int[size];
+        rowsByValue = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = (int) (pairs[i] >> 32);
+            rowsByValue[i] = (int) pairs[i];
+        }
+    }
+
+
+    /**
+     * Return the rows whose value lies between min and max, both included.
+     */
+    public BitSet between(int min, int max) {
+        BitSet rows = new BitSet(rowsByValue.length);
+        if (min > max) {
+            return rows;
+        }
+        int from = firstAtLeast(min);
+        int to = max == Integer.MAX_VALUE ? sortedValues.length : firstAtLeast(max + 1);
+        for (int i = from; i < to; i++) {
+            rows.set(rowsByValue[i]);
+        }
+        return rows;
+    }
+
+
+    /**
+     * Return the row with the i-th smallest value, ties in row order.
+     */
+    public int rowAt(int i) {
+        return rowsByValue[i];
+    }
+
+
+    /**
+     * Return the i-th smallest value.
+     */
+    public int valueAt(int i) {
+        return sortedValues[i];
+    }
+
+
+    /**
+     * Return the number of rows indexed.
+     */
+    public int size() {
+        return rowsByValue.length;
+    }
+
+
+    /**
+     * Return the position of the first value that is at least the given one.
+     */
+    private int firstAtLeast(int value) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedValues[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
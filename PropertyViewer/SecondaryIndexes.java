@@ -0,0 +1,154 @@
+import java.util.BitSet;
+
+/**
+ * SecondaryIndexes holds the indexes a Filter is evaluated against: one
+ * bitmap per neighbourhood and per room type, a RangeIndex each for price,
+ * minimum nights and availability, a TextIndex over the descriptions and a
+ * HostIndex of the listings of every host.
+ * They are built once, after the portfolio is loaded.
+ *
+ * Every method returns a new BitSet of row numbers that the caller may modify.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class SecondaryIndexes {
+
+    private final PropertyStore store;
+    private final BitSet[] byNeighbourhood;
+    private final BitSet[] byRoomType;
+    private final RangeIndex prices;
+    private final RangeIndex minimumNights;
+    private final RangeIndex availability365;
+    private final TextIndex descriptions;
+    private final HostIndex hosts;
+
+    public SecondaryIndexes(PropertyStore store) {
+        this.store = store;
+        int size = store.size();
+        byNeighbourhood = newBitmaps(store.getNeighbourhoodDictionary().size());
+        byRoomType = newBitmaps(store.getRoomTypeDictionary().size());
+        int[] priceColumn = new int[size];
+        int[] minimumNightsColumn = new int[size];
+        int[] availabilityColumn = new int[size];
+        for (int row = 0; row < size; row++) {
+            byNeighbourhood[store.getNeighbourhoodCode(row)].set(row);
+            byRoomType[store.getRoomTypeCode(row)].set(row);
+            priceColumn[row] = store.getPrice(row);
+            minimumNightsColumn[row] = store.getMinimumNights(row);
+            availabilityColumn[row] = store.getAvailability365(row);
+        }
+        prices = new RangeIndex(priceColumn, size);
+        minimumNights = new RangeIndex(minimumNightsColumn, size);
+        availability365 = new RangeIndex(availabilityColumn, size);
+        descriptions = new TextIndex(store);
+        hosts = new HostIndex(store);
+    }
+
+
+    private static BitSet[] newBitmaps(int count) {
+        BitSet[] bitmaps = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            bitmaps[i] = new BitSet();
+        }
+        return bitmaps;
+    }
+
+
+    /**
+     * Return the number of rows indexed.
+     */
+    public int size() {
+        return store.size();
+    }
+
+
+    /**
+     * Return every row.
+     */
+    public BitSet all() {
+        BitSet rows = new BitSet(size());
+        rows.set(0, size());
+        return rows;
+    }
+
+
+    /**
+     * Return the rows in the given neighbourhood.
+     */
+    public BitSet neighbourhood(String neighbourhood) {
+        return lookup(byNeighbourhood, store.getNeighbourhoodDictionary().codeOf(neighbourhood));
+    }
+
+
+    /**
+     * Return the rows with the given room type.
+     */
+    public BitSet roomType(String roomType) {
+        return lookup(byRoomType, store.getRoomTypeDictionary().codeOf(roomType));
+    }
+
+
+    /**
+     * Return the rows priced between min and max, both included.
+     */
+    public BitSet price(int min, int max) {
+        return prices.between(min, max);
+    }
+
+
+    /**
+     * Return the rows whose minimum stay lies between min and max nights, both included.
+     */
+    public BitSet minimumNights(int min, int max) {
+        return minimumNights.between(min, max);
+    }
+
+
+    /**
+     * Return the rows available between min and max days a year, both included.
+     */
+    public BitSet availability(int min, int max) {
+        return availability365.between(min, max);
+    }
+
+
+    /**
+     * Return the rows whose descriptions contain every word of a keyword query, as TextIndex reads it.
+     */
+    public BitSet keywords(String query) {
+        return descriptions.matching(query);
+    }
+
+
+    /**
+     * Return the rows listed by the given host.
+     */
+    public BitSet host(String hostID) {
+        return hosts.select(hostID);
+    }
+
+
+    /**
+     * Return the index over the descriptions.
+     */
+    public TextIndex getTextIndex() {
+        return descriptions;
+    }
+
+
+    /**
+     * Return the index of the listings of every host.
+     */
+    public HostIndex getHostIndex() {
+        return hosts;
+    }
+
+
+    private static BitSet lookup(BitSet[] bitmaps, int code) {
+        if (code == StringDictionary.MISSING) {
+            return new BitSet();
+        }
+        return (BitSet) bitmaps[code].clone();
+    }
+}
@@ -0,0 +1,406 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ShardedPortfolio holds the listings of several cities, one Portfolio, or
+ * shard, for each CSV file in a directory. The shards are loaded at the
+ * same time, each with its own parallel loader, and every query is sent to
+ * all of them at once on the common fork-join pool and their answers merged.
+ *
+ * Properties are numbered across the shards: those of the first shard,
+ * in file name order, come first, then those of the second, and so on.
+ * Property.getRow() is the number of a property within its own shard.
+ *
+ * So that the distances different shards return for neighbour queries can
+ * be compared, every shard standardises its features with the same scaling,
+ * measured over all the properties of every shard.
+ *
+ * The shards are loaded once; changes to their files are not picked up.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class ShardedPortfolio {
+
+    private final String[] names;
+    private final Portfolio[] shards;
+    // firstRows[s] is the number of the first property of shard s; the last entry is the total
+    private final int[] firstRows;
+
+    /**
+     * Load one shard from each of the given CSV files, in parallel.
+     */
+    public ShardedPortfolio(List<Path> files, boolean buildNearestNeighbourIndex) {
+        names = new String[files.size()];
+        for (int shard = 0; shard < names.length; shard++) {
+            String fileName = files.get(shard).getFileName().toString();
+            names[shard] = fileName.endsWith(".csv") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        }
+        shards = new Portfolio[files.size()];
+        // the features are scaled once every shard is measured, so the indexes over them are built once
+        List<Portfolio> loaded = scatter(shard -> new Portfolio(files.get(shard).toString(),
+            buildNearestNeighbourIndex, true));
+        firstRows = new int[shards.length + 1];
+        for (int shard = 0; shard < shards.length; shard++) {
+            shards[shard] = loaded.get(shard);
+            firstRows[shard + 1] = firstRows[shard] + shards[shard].numberOfProperties();
+        }
+        FeatureScaling.Moments moments = new FeatureScaling.Moments();
+        for (FeatureScaling.Moments shardMoments : scatter(shard -> shards[shard].measureFeatures())) {
+            moments.merge(shardMoments);
+        }
+        shareFeatureScaling(moments.scaling(FeatureScaling.defaultWeights()));
+    }
+
+
+    /**
+     * Load one shard from each CSV file in a directory, in order of file name.
+     */
+    public static ShardedPortfolio load(Path directory, boolean buildNearestNeighbourIndex) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(".csv") && Files.isRegularFile(file))
+                .sorted().collect(Collectors.toList());
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No CSV files in " + directory);
+        }
+        return new ShardedPortfolio(files, buildNearestNeighbourIndex);
+    }
+
+
+    /**
+     * Return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+
+    /**
+     * Return the name of a shard: its file name without ".csv".
+     */
+    public String getShardName(int shard) {
+        return names[shard];
+    }
+
+
+    /**
+     * Return a shard.
+     */
+    public Portfolio getShard(int shard) {
+        return shards[shard];
+    }
+
+
+    /**
+     * Return the shard holding a property.
+     */
+    public int shardOf(int propertyNumber) {
+        if (propertyNumber < 0 || propertyNumber >= numberOfProperties()) {
+            throw new IndexOutOfBoundsException("Property " + propertyNumber + " of " + numberOfProperties());
+        }
+        int shard = Arrays.binarySearch(firstRows, propertyNumber);
+        if (shard < 0) {
+            shard = -shard - 2;
+        }
+        // an empty shard shares its first number with the next one
+        while (firstRows[shard + 1] == propertyNumber) {
+            shard++;
+        }
+        return shard;
+    }
+
+
+    /**
+     * Return the number of the first property of a shard.
+     */
+    public int getFirstPropertyNumber(int shard) {
+        return firstRows[shard];
+    }
+
+
+    /**
+     * Return the number of properties in every shard together.
+     */
+    public int numberOfProperties() {
+        return firstRows[shards.length];
+    }
+
+
+    /**
+     * Return a property.
+     */
+    public Property getProperty(int propertyNumber) {
+        int shard = shardOf(propertyNumber);
+        return shards[shard].getProperty(propertyNumber - firstRows[shard]);
+    }
+
+
+    /**
+     * Return the number of the property with the given listing id, or -1 if
+     * there is none. If several share the id, the one in the first shard is returned.
+     */
+    public int findByID(String id) {
+        List<Integer> found = scatter(shard -> shards[shard].findByID(id));
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (found.get(shard) >= 0) {
+                return firstRows[shard] + found.get(shard);
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Return the properties of every shard matching a filter.
+     */
+    public PropertySelection filter(Filter filter) {
+        List<BitSet> matches = scatter(shard -> shards[shard].filter(filter).toBitSet());
+        BitSet rows = new BitSet(numberOfProperties());
+        for (int shard = 0; shard < shards.length; shard++) {
+            BitSet shardRows = matches.get(shard);
+            for (int row = shardRows.nextSetBit(0); row >= 0; row = shardRows.nextSetBit(row + 1)) {
+                rows.set(firstRows[shard] + row);
+            }
+        }
+        return new PropertySelection(rows);
+    }
+
+
+    /**
+     * Return the at most limit properties of every shard whose descriptions
+     * contain every word of a keyword query, best match first, among those
+     * matching the filter, or every property if the filter is null. Each
+     * shard scores its matches by how rare the words are in its own descriptions.
+     */
+    public TextIndex.Matches searchDescriptions(String query, Filter filter, int limit) {
+        List<TextIndex.Matches> matches = scatter(shard -> shards[shard].searchDescriptions(query, filter, limit));
+        Neighbours best = new Neighbours(limit);
+        int total = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            TextIndex.Matches shardMatches = matches.get(shard);
+            for (int i = 0; i < shardMatches.size(); i++) {
+                best.offer(firstRows[shard] + shardMatches.getPropertyNumber(i), -shardMatches.getScore(i));
+            }
+            total += shardMatches.getTotal();
+        }
+        return new TextIndex.Matches(best, total);
+    }
+
+
+    /**
+     * Return the numbers of every property listed by the given host in any
+     * shard, in order of property number.
+     */
+    public int[] findByHost(String hostID) {
+        List<int[]> found = scatter(shard -> shards[shard].findByHost(hostID));
+        int count = 0;
+        for (int[] rows : found) {
+            count += rows.length;
+        }
+        int[] propertyNumbers = new int[count];
+        int next = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            for (int row : found.get(shard)) {
+                propertyNumbers[next++] = firstRows[shard] + row;
+            }
+        }
+        return propertyNumbers;
+    }
+
+
+    /**
+     * Return the at most limit hosts with the most listings across the
+     * shards, most first. The listings of a host in several cities are counted together.
+     */
+    public HostIndex.TopHosts topHosts(int limit) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (HostIndex.TopHosts hosts : scatter(shard -> shards[shard].topHosts(Integer.MAX_VALUE))) {
+            for (int i = 0; i < hosts.size(); i++) {
+                counts.merge(hosts.getHostID(i), hosts.getCount(i), Integer::sum);
+            }
+        }
+        String[] hostIDs = counts.keySet().toArray(new String[0]);
+        Neighbours most = new Neighbours(limit);
+        int host = 0;
+        for (int count : counts.values()) {
+            most.offer(host++, -count);
+        }
+        return new HostIndex.TopHosts(most, hostIDs);
+    }
+
+
+    /**
+     * Return statistics for every neighbourhood or host across the shards,
+     * largest group first and then by name. Groups of the same name in
+     * different shards, such as a host with listings in several cities, are merged.
+     */
+    public List<GroupStatistics> statisticsBy(StatisticsEngine.Grouping grouping) {
+        Map<String, List<GroupStatistics>> byName = new LinkedHashMap<>();
+        for (List<GroupStatistics> groups : scatter(shard -> shards[shard].statisticsBy(grouping))) {
+            for (GroupStatistics group : groups) {
+                byName.computeIfAbsent(group.getName(), name -> new ArrayList<>()).add(group);
+            }
+        }
+        List<GroupStatistics> statistics = new ArrayList<>(byName.size());
+        for (Map.Entry<String, List<GroupStatistics>> groups : byName.entrySet()) {
+            statistics.add(groups.getValue().size() == 1 ? groups.getValue().get(0)
+                : GroupStatistics.merge(groups.getKey(), groups.getValue()));
+        }
+        statistics.sort((a, b) -> a.getCount() != b.getCount()
+            ? Integer.compare(b.getCount(), a.getCount())
+            : String.valueOf(a.getName()).compareTo(String.valueOf(b.getName())));
+        return statistics;
+    }
+
+
+    /**
+     * Return statistics over every property of every shard.
+     */
+    public GroupStatistics overallStatistics() {
+        return GroupStatistics.merge("All properties", scatter(shard -> shards[shard].overallStatistics()));
+    }
+
+
+    /**
+     * Return the number of the property most like the given one, in any
+     * shard, or -1 if there is no other property.
+     */
+    public int findNearest(int propertyNumber) {
+        Neighbours nearest = findNearest(propertyNumber, 1);
+        return nearest.size() == 0 ? -1 : nearest.getPropertyNumber(0);
+    }
+
+
+    /**
+     * Return the k properties most like the given one, from any shard,
+     * nearest first. The property itself is never returned.
+     */
+    public Neighbours findNearest(int propertyNumber, int k) {
+        int owner = shardOf(propertyNumber);
+        int row = propertyNumber - firstRows[owner];
+        double[] vector = shards[owner].featureVector(row);
+        return gather(k, scatter(shard -> shard == owner ? shards[shard].findNearest(row, k)
+            : shards[shard].findNearest(vector, k)));
+    }
+
+
+    /**
+     * Return the k properties, from any shard, closest to a feature vector
+     * laid out like Property.getVector(), nearest first.
+     */
+    public Neighbours findNearest(double[] vector, int k) {
+        return gather(k, scatter(shard -> shards[shard].findNearest(vector, k)));
+    }
+
+
+    /**
+     * Return every property, in any shard, within the given number of metres
+     * of a point, nearest first. Distances are in metres.
+     */
+    public Neighbours findWithinMetres(double latitude, double longitude, double metres) {
+        return gather(Integer.MAX_VALUE, scatter(shard -> shards[shard].findWithinMetres(latitude, longitude,
+            metres)));
+    }
+
+
+    /**
+     * Return how features are standardised and weighed against each other by
+     * neighbour queries, which is the same for every shard.
+     */
+    public FeatureScaling getFeatureScaling() {
+        return shards.length == 0 ? null : shards[0].getFeatureScaling();
+    }
+
+
+    /**
+     * Weigh the features compared by neighbour queries with the given
+     * weights, one for each feature of Property.getVector(), in every shard.
+     */
+    public void setFeatureWeights(double... weights) {
+        shareFeatureScaling(getFeatureScaling().withWeights(weights.clone()));
+    }
+
+
+    /**
+     * Have every shard standardise its features with the given scaling, in parallel.
+     */
+    private void shareFeatureScaling(FeatureScaling scaling) {
+        scatter(shard -> {
+            shards[shard].setFeatureScaling(scaling);
+            return null;
+        });
+    }
+
+
+    /**
+     * Merge the neighbours found in each shard into the limit nearest, numbered across the shards.
+     */
+    private Neighbours gather(int limit, List<Neighbours> found) {
+        Neighbours nearest = new Neighbours(limit);
+        for (int shard = 0; shard < shards.length; shard++) {
+            Neighbours neighbours = found.get(shard);
+            for (int i = 0; i < neighbours.size(); i++) {
+                nearest.offer(firstRows[shard] + neighbours.getPropertyNumber(i), neighbours.getDistance(i));
+            }
+        }
+        return nearest;
+    }
+
+
+    /**
+     * Run a query against every shard at once and return their answers in shard order.
+     */
+    private <T> List<T> scatter(IntFunction<T> query) {
+        Object[] results = new Object[shards.length];
+        ForkJoinPool.commonPool().invoke(new ScatterTask(query, results, 0, shards.length));
+        List<T> answers = new ArrayList<>(results.length);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            T answer = (T) result;
+            answers.add(answer);
+        }
+        return answers;
+    }
+
+
+    /**
+     * Queries a range of shards, splitting it in two while it holds more than one.
+     */
+    private static class ScatterTask extends RecursiveAction {
+        private final IntFunction<?> query;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+
+        ScatterTask(IntFunction<?> query, Object[] results, int from, int to) {
+            this.query = query;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScatterTask(query, results, from, middle), new ScatterTask(query, results, middle, to));
+            } else if (to > from) {
+                results[from] = query.apply(from);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * SortOrders holds, for each sortable column of a PropertyStore, the row
+ * numbers in ascending order of that column. A view sorts by reading rows
+ * through one of these permutations, so no list of properties is copied or
+ * reordered; a descending sort reads the same permutation backwards.
+ *
+ * Each order is built the first time it is asked for, by packing every
+ * (key, row) pair into a long and sorting the longs in parallel, and is then
+ * kept: the store of a portfolio version never changes. Text columns are
+ * sorted by the rank of their values, so ties keep row order just as numbers
+ * do. Values that are whole numbers, such as listing ids, rank before other
+ * text and in numeric order, so "4836957" comes before "10056569".
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class SortOrders {
+
+    /**
+     * The columns properties can be sorted by.
+     */
+    public enum Column {
+        ID, HOST_NAME, NEIGHBOURHOOD, ROOM_TYPE, PRICE, MINIMUM_NIGHTS, AVAILABILITY_365
+    }
+
+    private final PropertyStore store;
+    private final Map<Column, int[]> cache = new EnumMap<>(Column.class);
+
+    /**
+     * Create the sort orders of the given store, which must not change.
+     */
+    public SortOrders(PropertyStore store) {
+        this.store = store;
+    }
+
+
+    /**
+     * Return the row numbers in ascending order of the given column, ties in
+     * row order. The array is shared and must not be modified.
+     */
+    public synchronized int[] ascending(Column column) {
+        return cache.computeIfAbsent(column, c -> sort(keys(c)));
+    }
+
+
+    /**
+     * Return one int per row that orders the rows as the given column does.
+     */
+    private int[] keys(Column column) {
+        switch (column) {
+            case ID:
+                return ranks(store.size(), store::getID);
+            case HOST_NAME:
+                return dictionaryRanks(store.getHostNameDictionary(), store::getHostNameCode);
+            case NEIGHBOURHOOD:
+                return dictionaryRanks(store.getNeighbourhoodDictionary(), store::getNeighbourhoodCode);
+            case ROOM_TYPE:
+                return dictionaryRanks(store.getRoomTypeDictionary(), store::getRoomTypeCode);
+            case PRICE:
+                return column(store::getPrice);
+            case MINIMUM_NIGHTS:
+                return column(store::getMinimumNights);
+            case AVAILABILITY_365:
+                return column(store::getAvailability365);
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+
+    /**
+     * Return the rows sorted by key, ties in row order.
+     */
+    private static int[] sort(int[] keys) {
+        long[] pairs = new long[keys.length];
+        for (int row = 0; row < keys.length; row++) {
+            pairs[row] = ((long) keys[row] << 32) | row;
+        }
+        Arrays.parallelSort(pairs);
+        int[] rows = new int[keys.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (int) pairs[i];
+        }
+        return rows;
+    }
+
+
+    /**
+     * Return the values of an int column, one per row.
+     */
+    private int[] column(IntUnaryOperator values) {
+        int[] keys = new int[store.size()];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = values.applyAsInt(row);
+        }
+        return keys;
+    }
+
+
+    /**
+     * Return, for every row, the position of the first of its equal values
+     * among all the values in sorted order. The rows are sorted by value, and
+     * the ranks handed out in one pass along them. When every value is a
+     * whole number that fits in an int, as listing ids usually are, the rows
+     * are sorted by their numbers just as a number column is.
+     */
+    private static int[] ranks(int size, IntFunction<String> values) {
+        String[] text = new String[size];
+        long[] numbers = new long[size];
+        boolean allInts = true;
+        for (int row = 0; row < size; row++) {
+            text[row] = values.apply(row);
+            numbers[row] = wholeNumber(text[row]);
+            allInts &= numbers[row] >= 0 && numbers[row] <= Integer.MAX_VALUE
+                && (text[row].length() == 1 || text[row].charAt(0) != '0');
+        }
+        int[] rows;
+        if (allInts) {
+            int[] ints = new int[size];
+            for (int row = 0; row < size; row++) {
+                ints[row] = (int) numbers[row];
+            }
+            rows = sort(ints);
+        } else {
+            Integer[] boxed = new Integer[size];
+            for (int row = 0; row < size; row++) {
+                boxed[row] = row;
+            }
+            Arrays.parallelSort(boxed, (a, b) -> compare(text[a], numbers[a], text[b], numbers[b]));
+            rows = new int[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = boxed[i];
+            }
+        }
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            int previous = i > 0 ? rows[i - 1] : -1;
+            int row = rows[i];
+            keys[row] = previous >= 0 && compare(text[previous], numbers[previous], text[row], numbers[row]) == 0
+                ? keys[previous] : i;
+        }
+        return keys;
+    }
+
+
+    /**
+     * Compare two values: null first, then whole numbers in numeric order,
+     * then other text in natural order. Numbers written with different
+     * leading zeros are told apart as text.
+     */
+    private static int compare(String first, long firstNumber, String second, long secondNumber) {
+        if (first == null || second == null) {
+            return first == null ? (second == null ? 0 : -1) : 1;
+        }
+        if (firstNumber >= 0 && secondNumber >= 0) {
+            int byNumber = Long.compare(firstNumber, secondNumber);
+            return byNumber != 0 ? byNumber : first.compareTo(second);
+        }
+        if (firstNumber >= 0 || secondNumber >= 0) {
+            return firstNumber >= 0 ? -1 : 1;
+        }
+        return first.compareTo(second);
+    }
+
+
+    /**
+     * Return the value of text made of 1 to 18 decimal digits, or -1 if it is anything else.
+     */
+    private static long wholeNumber(String text) {
+        if (text == null || text.isEmpty() || text.length() > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+
+    /**
+     * Return, for every row, the rank of its dictionary value among the
+     * values of the dictionary in sorted order.
+     */
+    private int[] dictionaryRanks(StringDictionary dictionary, IntUnaryOperator codes) {
+        int[] rankOfCode = ranks(dictionary.size(), dictionary::decode);
+        int[] keys = new int[store.size()];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = rankOfCode[codes.applyAsInt(row)];
+        }
+        return keys;
+    }
+}
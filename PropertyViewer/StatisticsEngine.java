@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * StatisticsEngine computes GroupStatistics for every neighbourhood or every
+ * host of a PropertyStore, and over the whole store, on a fork-join pool.
+ *
+ * Rows are bucketed by neighbourhood with a parallel counting sort: each
+ * task counts the groups of a range of rows, the counts are turned into
+ * where each range writes each group, and the tasks then place their rows.
+ * Rows are bucketed by host already, in the portfolio's HostIndex. The groups
+ * are then summarised in parallel, each task owning a range of groups so no
+ * partial results need merging. Statistics over the whole store are a
+ * parallel reduction over ranges of rows, the prices being sorted in
+ * parallel afterwards.
+ *
+ * The store of a portfolio version never changes, so results are computed
+ * the first time they are asked for and kept.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class StatisticsEngine {
+
+    /**
+     * The ways properties can be grouped.
+     */
+    public enum Grouping {
+        NEIGHBOURHOOD, HOST
+    }
+
+    private static final int GROUPS_PER_TASK = 64;
+    private static final int ROWS_PER_TASK = 64 * 1024;
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+    private final PropertyStore store;
+    private final HostIndex hosts;
+    private final Map<Grouping, List<GroupStatistics>> cache = new EnumMap<>(Grouping.class);
+    private GroupStatistics overall;
+
+    /**
+     * Create an engine over the given store, which must not change, whose
+     * rows the given index buckets by host.
+     */
+    public StatisticsEngine(PropertyStore store, HostIndex hosts) {
+        this.store = store;
+        this.hosts = hosts;
+    }
+
+
+    /**
+     * Return statistics for every group, largest group first and then by name.
+     */
+    public synchronized List<GroupStatistics> byGroup(Grouping grouping) {
+        return cache.computeIfAbsent(grouping, g -> Collections.unmodifiableList(compute(g)));
+    }
+
+
+    /**
+     * Return statistics over every property in the store.
+     */
+    public synchronized GroupStatistics overall() {
+        if (overall == null) {
+            int size = store.size();
+            int[] prices = new int[size];
+            Totals totals = ForkJoinPool.commonPool().invoke(new TotalsTask(prices, 0, size));
+            // the rows without a price hold -1 and sort first
+            Arrays.parallelSort(prices);
+            int[] sortedPrices = Arrays.copyOfRange(prices, size - totals.priced, size);
+            overall = totals.toStatistics("All properties", size, sortedPrices);
+        }
+        return overall;
+    }
+
+
+    /**
+     * Bucket the rows by group and summarise every group.
+     */
+    private List<GroupStatistics> compute(Grouping grouping) {
+        List<String> names = new ArrayList<>();
+        int[] groupStarts;
+        int[] rowsByGroup;
+        if (grouping == Grouping.NEIGHBOURHOOD) {
+            StringDictionary neighbourhoods = store.getNeighbourhoodDictionary();
+            for (int code = 0; code < neighbourhoods.size(); code++) {
+                names.add(neighbourhoods.decode(code));
+            }
+            groupStarts = new int[names.size() + 1];
+            rowsByGroup = bucketByNeighbourhood(groupStarts);
+        } else {
+            for (int code = 0; code < hosts.getHostCount(); code++) {
+                names.add(hosts.getHostID(code));
+            }
+            groupStarts = hosts.getStarts();
+            rowsByGroup = hosts.getRows();
+        }
+
+        int groups = names.size();
+        GroupStatistics[] results = new GroupStatistics[groups];
+        ForkJoinPool.commonPool().invoke(new SummariseTask(names, groupStarts, rowsByGroup, results, 0, groups));
+
+        List<GroupStatistics> statistics = new ArrayList<>(Arrays.asList(results));
+        statistics.sort((a, b) -> a.getCount() != b.getCount()
+            ? Integer.compare(b.getCount(), a.getCount())
+            : String.valueOf(a.getName()).compareTo(String.valueOf(b.getName())));
+        return statistics;
+    }
+
+
+    /**
+     * Return the rows sorted by neighbourhood code, in row order within a
+     * neighbourhood, and fill groupStarts with where each code begins,
+     * followed by the number of rows.
+     */
+    private int[] bucketByNeighbourhood(int[] groupStarts) {
+        int size = store.size();
+        int groups = groupStarts.length - 1;
+        int ranges = Math.max(1, (size + ROWS_PER_TASK - 1) / ROWS_PER_TASK);
+        // counts[range][group] becomes where the range writes its next row of the group
+        int[][] counts = new int[ranges][groups];
+        int[] rowsByGroup = new int[size];
+        ForkJoinPool.commonPool().invoke(new BucketTask(counts, null, 0, ranges));
+
+        int position = 0;
+        for (int group = 0; group < groups; group++) {
+            groupStarts[group] = position;
+            for (int range = 0; range < ranges; range++) {
+                int count = counts[range][group];
+                counts[range][group] = position;
+                position += count;
+            }
+        }
+        groupStarts[groups] = position;
+        ForkJoinPool.commonPool().invoke(new BucketTask(counts, rowsByGroup, 0, ranges));
+        return rowsByGroup;
+    }
+
+
+    /**
+     * Counts the neighbourhoods of a range of ranges of ROWS_PER_TASK rows or,
+     * given rowsByGroup, places their rows there, splitting it while it holds
+     * more than one.
+     */
+    private class BucketTask extends RecursiveAction {
+        private final int[][] counts;
+        private final int[] rowsByGroup;
+        private final int from;
+        private final int to;
+
+        BucketTask(int[][] counts, int[] rowsByGroup, int from, int to) {
+            this.counts = counts;
+            this.rowsByGroup = rowsByGroup;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BucketTask(counts, rowsByGroup, from, middle),
+                    new BucketTask(counts, rowsByGroup, middle, to));
+                return;
+            }
+            int[] next = counts[from];
+            int end = Math.min(store.size(), (from + 1) * ROWS_PER_TASK);
+            for (int row = from * ROWS_PER_TASK; row < end; row++) {
+                if (rowsByGroup == null) {
+                    next[store.getNeighbourhoodCode(row)]++;
+                } else {
+                    rowsByGroup[next[store.getNeighbourhoodCode(row)]++] = row;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Summarises a range of groups, splitting it while it holds more than GROUPS_PER_TASK groups.
+     */
+    private class SummariseTask extends RecursiveAction {
+        private final List<String> names;
+        private final int[] groupStarts;
+        private final int[] rowsByGroup;
+        private final GroupStatistics[] results;
+        private final int from;
+        private final int to;
+
+        SummariseTask(List<String> names, int[] groupStarts, int[] rowsByGroup, GroupStatistics[] results,
+                int from, int to) {
+            this.names = names;
+            this.groupStarts = groupStarts;
+            this.rowsByGroup = rowsByGroup;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GROUPS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SummariseTask(names, groupStarts, rowsByGroup, results, from, middle),
+                    new SummariseTask(names, groupStarts, rowsByGroup, results, middle, to));
+                return;
+            }
+            for (int group = from; group < to; group++) {
+                results[group] = summarise(names.get(group), rowsByGroup, groupStarts[group], groupStarts[group + 1]);
+            }
+        }
+    }
+
+
+    /**
+     * Adds up the rows [from, to), copying their prices into prices, and
+     * splits the range while it holds more than ROWS_PER_TASK rows.
+     */
+    private class TotalsTask extends RecursiveTask<Totals> {
+        private final int[] prices;
+        private final int from;
+        private final int to;
+
+        TotalsTask(int[] prices, int from, int to) {
+            this.prices = prices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                TotalsTask second = new TotalsTask(prices, middle, to);
+                second.fork();
+                Totals totals = new TotalsTask(prices, from, middle).compute();
+                totals.add(second.join());
+                return totals;
+            }
+            Totals totals = new Totals();
+            for (int row = from; row < to; row++) {
+                totals.add(row);
+                prices[row] = store.getPrice(row);
+            }
+            return totals;
+        }
+    }
+
+
+    /**
+     * Summarise the rows listed in rows[from, to).
+     */
+    private GroupStatistics summarise(String name, int[] rows, int from, int to) {
+        Totals totals = new Totals();
+        int[] prices = new int[to - from];
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            totals.add(row);
+            int price = store.getPrice(row);
+            if (price >= 0) {
+                prices[totals.priced - 1] = price;
+            }
+        }
+        int[] sortedPrices = Arrays.copyOf(prices, totals.priced);
+        if (totals.priced > PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(sortedPrices);
+        } else {
+            Arrays.sort(sortedPrices);
+        }
+        return totals.toStatistics(name, to - from, sortedPrices);
+    }
+
+
+    /**
+     * The number of priced rows, price sum, availability histogram and room
+     * type counts of some rows.
+     */
+    private class Totals {
+        private final int[] roomTypeCounts = new int[store.getRoomTypeDictionary().size()];
+        private final int[] histogram = new int[GroupStatistics.AVAILABILITY_BUCKETS.length];
+        private int priced;
+        private long priceSum;
+
+        void add(int row) {
+            int price = store.getPrice(row);
+            if (price >= 0) {
+                priced++;
+                priceSum += price;
+            }
+            int bucket = GroupStatistics.availabilityBucket(store.getAvailability365(row));
+            if (bucket >= 0) {
+                histogram[bucket]++;
+            }
+            roomTypeCounts[store.getRoomTypeCode(row)]++;
+        }
+
+        void add(Totals other) {
+            priced += other.priced;
+            priceSum += other.priceSum;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += other.histogram[i];
+            }
+            for (int code = 0; code < roomTypeCounts.length; code++) {
+                roomTypeCounts[code] += other.roomTypeCounts[code];
+            }
+        }
+
+        GroupStatistics toStatistics(String name, int count, int[] sortedPrices) {
+            StringDictionary roomTypes = store.getRoomTypeDictionary();
+            Map<String, Integer> roomTypeMix = new LinkedHashMap<>();
+            for (int code = 0; code < roomTypeCounts.length; code++) {
+                if (roomTypeCounts[code] > 0) {
+                    roomTypeMix.put(roomTypes.decode(code), roomTypeCounts[code]);
+                }
+            }
+            return new GroupStatistics(name, count, sortedPrices, priceSum, histogram, roomTypeMix);
+        }
+    }
+}
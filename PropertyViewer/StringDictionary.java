@@ -0,0 +1,79 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * StringDictionary maps each distinct string of a column to a small int code,
+ * assigned in order of first appearance. Columns with few distinct values,
+ * such as neighbourhood or room type, then store one int per row and share a
+ * single copy of every string, and equality tests become int comparisons.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class StringDictionary {
+
+    /** The code returned for a string the dictionary does not contain. */
+    public static final int MISSING = -1;
+
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[16];
+    private int size;
+
+
+    /**
+     * Return the code of a value, adding it to the dictionary if it is new.
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+
+    /**
+     * Return the code of a value, or MISSING if the dictionary does not contain it.
+     */
+    public int codeOf(String value) {
+        Integer code = codes.get(value);
+        return code == null ? MISSING : code;
+    }
+
+
+    /**
+     * Return the value with the given code.
+     */
+    public String decode(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("No value with code " + code);
+        }
+        return values[code];
+    }
+
+
+    /**
+     * Return the number of distinct values in this dictionary.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return, for every code of another dictionary, the code of the same value
+     * in this one, adding values that are new.
+     */
+    public int[] merge(StringDictionary other) {
+        int[] translation = new int[other.size];
+        for (int code = 0; code < other.size; code++) {
+            translation[code] = encode(other.values[code]);
+        }
+        return translation;
+    }
+}
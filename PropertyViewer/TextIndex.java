@@ -0,0 +1,526 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * TextIndex is an inverted index over the descriptions of a PropertyStore,
+ * so that keyword searches look up the rows containing each word instead of
+ * scanning every description. Descriptions are split into words at every
+ * character that is not a letter or digit, and lower-cased.
+ *
+ * The words are held sorted, so that every word starting with a prefix is a
+ * contiguous range of them. The rows containing a word, its postings, are
+ * held in increasing order in one shared byte array, compressed: each row
+ * is written as the gap from the previous one in a variable-length integer
+ * of 7 bits a byte, with the lowest bit saying whether the number of times
+ * the word occurs follows. Most descriptions use a word once, so most
+ * postings take one or two bytes.
+ *
+ * A query is a list of words, every one of which must occur; a word ending
+ * in * matches every word starting with it. Matches are ranked by BM25,
+ * which favours rare words, words repeated in a description and short
+ * descriptions.
+ *
+ * @author Ayan Shaikh
+ * @version 1.0
+ */
+public class TextIndex {
+
+    // the usual BM25 parameters: how fast repeats stop counting, and how much length counts
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final int size;
+    private final String[] words;
+    // the postings of words[i] are postings[offsets[i], offsets[i + 1])
+    private final int[] offsets;
+    private final int[] rowCounts;
+    private final byte[] postings;
+    private final byte[] lengths;
+    private final double averageLength;
+    // the BM25 score, before idf, of a word occurring once in a description of each length
+    private final float[] onceScores = new float[256];
+
+    /**
+     * Index the descriptions of every row of a store.
+     */
+    public TextIndex(PropertyStore store) {
+        size = store.size();
+        lengths = new byte[size];
+        Map<String, Integer> wordNumbers = new HashMap<>();
+        List<String> wordList = new ArrayList<>();
+        IntList counts = new IntList();
+        // the distinct words of every row, in row order, with how often each occurs
+        IntList rowWords = new IntList();
+        IntList rowFrequencies = new IntList();
+        int[] rowEnds = new int[size];
+        List<String> tokens = new ArrayList<>();
+        long totalLength = 0;
+        for (int row = 0; row < size; row++) {
+            tokens.clear();
+            tokenize(store.getDescription(row), tokens);
+            lengths[row] = (byte) Math.min(tokens.size(), 255);
+            totalLength += tokens.size();
+            int first = rowWords.size();
+            for (String token : tokens) {
+                Integer number = wordNumbers.get(token);
+                if (number == null) {
+                    number = wordList.size();
+                    wordNumbers.put(token, number);
+                    wordList.add(token);
+                    counts.add(0);
+                }
+                int seen = rowWords.indexOf(number, first);
+                if (seen >= 0) {
+                    rowFrequencies.set(seen, rowFrequencies.get(seen) + 1);
+                } else {
+                    rowWords.add(number);
+                    rowFrequencies.add(1);
+                    counts.set(number, counts.get(number) + 1);
+                }
+            }
+            rowEnds[row] = rowWords.size();
+        }
+        averageLength = size == 0 ? 0 : (double) totalLength / size;
+        for (int length = 0; length < onceScores.length; length++) {
+            onceScores[length] = (float) score(1, length);
+        }
+
+        // number the words in sorted order
+        words = wordList.toArray(new String[0]);
+        Arrays.sort(words);
+        int[] sortedNumbers = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            sortedNumbers[wordNumbers.get(words[i])] = i;
+        }
+        rowCounts = new int[words.length];
+        for (int number = 0; number < words.length; number++) {
+            rowCounts[sortedNumbers[number]] = counts.get(number);
+        }
+
+        // measure the postings of every word, then write them all into one array
+        int[] lastRows = new int[words.length];
+        long[] bytes = new long[words.length];
+        Arrays.fill(lastRows, -1);
+        for (int row = 0, i = 0; row < size; row++) {
+            for (; i < rowEnds[row]; i++) {
+                int word = sortedNumbers[rowWords.get(i)];
+                bytes[word] += postingSize(row - lastRows[word] - 1, rowFrequencies.get(i));
+                lastRows[word] = row;
+            }
+        }
+        offsets = new int[words.length + 1];
+        for (int word = 0; word < words.length; word++) {
+            offsets[word + 1] = Math.toIntExact(offsets[word] + bytes[word]);
+        }
+        postings = new byte[offsets[words.length]];
+        int[] positions = Arrays.copyOf(offsets, words.length);
+        Arrays.fill(lastRows, -1);
+        for (int row = 0, i = 0; row < size; row++) {
+            for (; i < rowEnds[row]; i++) {
+                int word = sortedNumbers[rowWords.get(i)];
+                positions[word] = writePosting(row - lastRows[word] - 1, rowFrequencies.get(i), positions[word]);
+                lastRows[word] = row;
+            }
+        }
+    }
+
+
+    /**
+     * Return the number of rows indexed.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Return the number of distinct words.
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+
+    /**
+     * Return the number of bytes the compressed postings take.
+     */
+    public int postingBytes() {
+        return postings.length;
+    }
+
+
+    /**
+     * Return the rows whose descriptions contain every word of the query.
+     */
+    public BitSet matching(String query) {
+        BitSet rows = new BitSet(size);
+        Postings matches = match(query);
+        for (int i = 0; i < matches.size; i++) {
+            rows.set(matches.rows[i]);
+        }
+        return rows;
+    }
+
+
+    /**
+     * Return the at most limit rows, among those in within or every row if
+     * within is null, whose descriptions contain every word of the query,
+     * best first.
+     */
+    public Matches search(String query, BitSet within, int limit) {
+        Postings matches = match(query);
+        Neighbours best = new Neighbours(limit);
+        int total = 0;
+        for (int i = 0; i < matches.size; i++) {
+            if (within == null || within.get(matches.rows[i])) {
+                // the best score is kept as the nearest neighbour, so ties go to the lower row
+                best.offer(matches.rows[i], -matches.scores[i]);
+                total++;
+            }
+        }
+        return new Matches(best, total);
+    }
+
+
+    /**
+     * Split text into lower-case words at every character that is not a letter or digit.
+     */
+    static void tokenize(String text, List<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+
+    /**
+     * Return the rows containing every word of a query, in increasing order, with their scores.
+     */
+    private Postings match(String query) {
+        List<String> tokens = new ArrayList<>();
+        List<Boolean> prefixes = new ArrayList<>();
+        for (String part : query.trim().split("\\s+")) {
+            int before = tokens.size();
+            tokenize(part, tokens);
+            for (int i = before; i < tokens.size(); i++) {
+                // in "lond*" or "st.john*" the star applies to the last word
+                prefixes.add(part.endsWith("*") && i == tokens.size() - 1);
+            }
+        }
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("No words to search for");
+        }
+        Postings result = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            int from = lowerBound(token);
+            int to = prefixes.get(i) ? lowerBound(token + Character.MAX_VALUE)
+                : from < words.length && words[from].equals(token) ? from + 1 : from;
+            Postings postings = decode(from, to);
+            // intersecting the shorter list first keeps each step small
+            result = result == null ? postings : result.size <= postings.size
+                ? result.intersect(postings) : postings.intersect(result);
+            if (result.size == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Return the rows containing any of the words [from, to), with the best score of each.
+     */
+    private Postings decode(int from, int to) {
+        if (to - from == 1) {
+            Postings postings = new Postings(rowCounts[from]);
+            decode(from, postings);
+            return postings;
+        }
+        long total = 0;
+        for (int word = from; word < to; word++) {
+            total += rowCounts[word];
+        }
+        Postings all = new Postings(Math.toIntExact(total));
+        if (to - from == 0) {
+            return all;
+        }
+        for (int word = from; word < to; word++) {
+            decode(word, all);
+        }
+        // sort by row, then score; scores are positive, so their bits sort like them
+        long[] packed = new long[all.size];
+        for (int i = 0; i < all.size; i++) {
+            packed[i] = (long) all.rows[i] << 32 | Float.floatToRawIntBits(all.scores[i]);
+        }
+        Arrays.sort(packed);
+        Postings merged = new Postings(all.size);
+        for (int i = 0; i < packed.length; i++) {
+            if (i + 1 < packed.length && packed[i + 1] >>> 32 == packed[i] >>> 32) {
+                continue;
+            }
+            merged.add((int) (packed[i] >>> 32), Float.intBitsToFloat((int) packed[i]));
+        }
+        return merged;
+    }
+
+
+    /**
+     * Append the rows containing a word to target, scored by BM25.
+     */
+    private void decode(int word, Postings target) {
+        double idf = Math.log(1 + (size - rowCounts[word] + 0.5) / (rowCounts[word] + 0.5));
+        int position = offsets[word];
+        int end = offsets[word + 1];
+        byte[] postings = this.postings;
+        int[] rows = target.rows;
+        float[] scores = target.scores;
+        int count = target.size;
+        int row = -1;
+        while (position < end) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            int frequency = 1;
+            if ((value & 1) != 0) {
+                frequency = 0;
+                shift = 0;
+                do {
+                    b = postings[position++];
+                    frequency |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+            }
+            row += (value >>> 1) + 1;
+            int length = lengths[row] & 0xff;
+            rows[count] = row;
+            scores[count] = (float) (idf * (frequency == 1 ? onceScores[length] : score(frequency, length)));
+            count++;
+        }
+        target.size = count;
+    }
+
+
+    /**
+     * Return the BM25 score, before idf, of a word occurring frequency times in a description of the given length.
+     */
+    private double score(int frequency, int length) {
+        double relativeLength = averageLength == 0 ? 0 : length / averageLength;
+        return frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * relativeLength));
+    }
+
+
+    /**
+     * Return the index of the first word not less than the given one.
+     */
+    private int lowerBound(String word) {
+        int low = 0;
+        int high = words.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (words[middle].compareTo(word) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private static int postingSize(int gap, int frequency) {
+        int size = varIntSize((gap << 1) | (frequency > 1 ? 1 : 0));
+        return frequency > 1 ? size + varIntSize(frequency) : size;
+    }
+
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+
+    private int writePosting(int gap, int frequency, int position) {
+        position = writeVarInt((gap << 1) | (frequency > 1 ? 1 : 0), position);
+        return frequency > 1 ? writeVarInt(frequency, position) : position;
+    }
+
+
+    private int writeVarInt(int value, int position) {
+        while ((value & ~0x7f) != 0) {
+            postings[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        postings[position++] = (byte) value;
+        return position;
+    }
+
+
+    /**
+     * The result of a search: the best matching rows, best first, with their
+     * scores, and how many rows matched in all.
+     */
+    public static class Matches {
+        private final Neighbours best;
+        private final int total;
+
+        Matches(Neighbours best, int total) {
+            this.best = best;
+            this.total = total;
+        }
+
+        /**
+         * Return the number of rows returned.
+         */
+        public int size() {
+            return best.size();
+        }
+
+        /**
+         * Return the number of rows that matched, including those beyond the limit.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Return the property number of the i-th best match.
+         */
+        public int getPropertyNumber(int i) {
+            return best.getPropertyNumber(i);
+        }
+
+        /**
+         * Return the score of the i-th best match: higher is better.
+         */
+        public double getScore(int i) {
+            return -best.getDistance(i);
+        }
+
+        /**
+         * Return the property numbers of the matches, best first.
+         */
+        public int[] getPropertyNumbers() {
+            return best.getPropertyNumbers();
+        }
+    }
+
+
+    /**
+     * Rows in increasing order, each with a score.
+     */
+    private static class Postings {
+        int[] rows;
+        float[] scores;
+        int size;
+
+        Postings(int capacity) {
+            rows = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        void add(int row, float score) {
+            rows[size] = row;
+            scores[size] = score;
+            size++;
+        }
+
+        /**
+         * Return the rows in both this and other, with their scores summed.
+         */
+        Postings intersect(Postings other) {
+            Postings both = new Postings(size);
+            int[] otherRows = other.rows;
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            if (other.size / 8 > size) {
+                // against a much longer list, binary search for each row rather than walking it
+                for (; i < size && j < other.size; i++) {
+                    int found = Arrays.binarySearch(otherRows, j, other.size, rows[i]);
+                    j = found >= 0 ? found : -found - 1;
+                    if (found >= 0) {
+                        both.rows[count] = rows[i];
+                        both.scores[count++] = scores[i] + other.scores[j];
+                    }
+                }
+            } else {
+                // advance whichever row is lower, or both if they are equal, without branching on which
+                while (i < size && j < other.size) {
+                    int row = rows[i];
+                    int otherRow = otherRows[j];
+                    both.rows[count] = row;
+                    both.scores[count] = scores[i] + other.scores[j];
+                    count += row == otherRow ? 1 : 0;
+                    i += row <= otherRow ? 1 : 0;
+                    j += row >= otherRow ? 1 : 0;
+                }
+            }
+            both.size = count;
+            return both;
+        }
+    }
+
+
+    /**
+     * A growable array of ints, used while building.
+     */
+    private static class IntList {
+        private int[] values = new int[1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        void set(int i, int value) {
+            values[i] = value;
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * Return the index of value at or after from, or -1.
+         */
+        int indexOf(int value, int from) {
+            for (int i = from; i < size; i++) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}